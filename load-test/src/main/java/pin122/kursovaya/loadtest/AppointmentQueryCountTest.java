@@ -0,0 +1,102 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Число SQL запросов на один запрос к спискам записей
+ *
+ * Каждый эндпоинт вызывается query-repeats раз последовательно; до и после вызова читаются счётчики
+ * Hibernate из /api/test/queue/stats (hibernate.statements - подготовленные SQL запросы,
+ * entityLoads - загруженные сущности). В отчёт попадает минимум по повторам (фоновые задачи
+ * сервера могут добавить запросы в отдельные замеры), p50/p99 и размер ответа.
+ * Сравнение путей чтения - запуск на сервере с app.appointments.read-path=entity и =projection
+ *
+ * Запуск: mvn -f load-test/pom.xml compile exec:java -Dexec.mainClass=pin122.kursovaya.loadtest.AppointmentQueryCountTest
+ *         -Dloadtest.users=200
+ */
+public final class AppointmentQueryCountTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        LoadTestSeeder.Seed seed = new LoadTestSeeder(config, http, objectMapper).seed();
+        LoadTestSeeder.PatientAccount patient = seed.patients().get(0);
+        Long doctorId = seed.doctorByPatient().get(patient.patientId());
+
+        JsonNode initialStats = stats(config, http, objectMapper);
+        if (!initialStats.path("hibernate").path("enabled").asBoolean()) {
+            System.out.println("Статистика Hibernate выключена: запустите сервер с профилем loadtest");
+            System.exit(1);
+        }
+
+        Map<String, String> endpoints = new LinkedHashMap<>();
+        endpoints.put("GET /api/appointments", "/api/appointments");
+        endpoints.put("GET /api/appointments/doctor/{id}", "/api/appointments/doctor/" + doctorId);
+        endpoints.put("GET /api/appointments/patient/{id}", "/api/appointments/patient/" + patient.patientId());
+
+        System.out.println();
+        System.out.println("===== SQL запросы на запрос (" + config.queryRepeats() + " повторов) =====");
+        for (Map.Entry<String, String> endpoint : endpoints.entrySet()) {
+            LatencyRecorder latency = new LatencyRecorder(endpoint.getKey());
+            long minStatements = Long.MAX_VALUE;
+            long minEntityLoads = Long.MAX_VALUE;
+            int rows = 0;
+            int bytes = 0;
+
+            // Первый вызов - прогрев (планы запросов, кэши Hibernate), в замер не входит
+            get(config, http, endpoint.getValue(), patient.token());
+            for (int i = 0; i < config.queryRepeats(); i++) {
+                JsonNode before = stats(config, http, objectMapper).path("hibernate");
+                long started = System.nanoTime();
+                byte[] body = get(config, http, endpoint.getValue(), patient.token());
+                latency.record(System.nanoTime() - started);
+                JsonNode after = stats(config, http, objectMapper).path("hibernate");
+
+                minStatements = Math.min(minStatements,
+                        after.path("statements").asLong() - before.path("statements").asLong());
+                minEntityLoads = Math.min(minEntityLoads,
+                        after.path("entityLoads").asLong() - before.path("entityLoads").asLong());
+                rows = objectMapper.readTree(body).size();
+                bytes = body.length;
+            }
+
+            System.out.printf("%-36s строк %5d, SQL запросов %5d, загружено сущностей %6d, ответ %8d байт%n",
+                    endpoint.getKey(), rows, minStatements, minEntityLoads, bytes);
+            System.out.println(latency.report());
+        }
+    }
+
+    private static byte[] get(LoadTestConfig config, HttpClient http, String path, String token) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(config.baseUrl() + path))
+                .timeout(config.timeout())
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " ответил " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static JsonNode stats(LoadTestConfig config, HttpClient http, ObjectMapper objectMapper) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(config.baseUrl() + "/api/test/queue/stats"))
+                .timeout(config.timeout())
+                .GET()
+                .build();
+        return objectMapper.readTree(http.send(request, HttpResponse.BodyHandlers.ofByteArray()).body());
+    }
+}
@@ -0,0 +1,113 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный тест записи на приём: все пациенты одновременно записываются к одному врачу
+ *
+ * Каждый пациент пробует занять до booking-attempts случайных слотов из booking-slots, пока одна
+ * запись не пройдёт (200) - занятые слоты отвечают 409 без повторов на сервере.
+ * Отчёт: пропускная способность POST /api/appointments/book, p50/p99 и проверка по БД,
+ * что каждый слот занят не более одного раза и именно тем пациентом, которому сервер ответил 200
+ *
+ * Запуск: mvn -f load-test/pom.xml compile exec:java -Dexec.mainClass=pin122.kursovaya.loadtest.BookingContentionTest
+ *         -Dloadtest.users=500 -Dloadtest.booking-slots=200
+ */
+public final class BookingContentionTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        LoadTestSeeder seeder = new LoadTestSeeder(config, http, objectMapper);
+        List<LoadTestSeeder.PatientAccount> patients = seeder.accounts();
+        List<Long> slots = seeder.createFreeSlots(config.bookingSlots());
+        System.out.println("Тест записи: пациентов " + patients.size() + ", свободных слотов " + slots.size());
+
+        LatencyRecorder latency = new LatencyRecorder("POST /api/appointments/book");
+        Map<Long, List<Long>> okPatientsBySlot = new ConcurrentHashMap<>();
+        AtomicInteger booked = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        long started;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < patients.size(); i++) {
+                LoadTestSeeder.PatientAccount patient = patients.get(i);
+                List<Long> order = new ArrayList<>(slots);
+                Collections.shuffle(order, new Random(i));
+                executor.submit(() -> {
+                    start.await();
+                    for (Long slotId : order.subList(0, Math.min(config.bookingAttempts(), order.size()))) {
+                        byte[] body = objectMapper.writeValueAsBytes(
+                                Map.of("appointmentId", slotId, "userId", patient.userId()));
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(config.baseUrl() + "/api/appointments/book"))
+                                .timeout(config.timeout())
+                                .header("Content-Type", "application/json")
+                                .header("Authorization", "Bearer " + patient.token())
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                                .build();
+                        long requestStarted = System.nanoTime();
+                        int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        latency.record(System.nanoTime() - requestStarted);
+
+                        if (status == 200) {
+                            booked.incrementAndGet();
+                            okPatientsBySlot.computeIfAbsent(slotId, id -> Collections.synchronizedList(new ArrayList<>()))
+                                    .add(patient.patientId());
+                            break;
+                        } else if (status == 409) {
+                            conflicts.incrementAndGet();
+                        } else {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            started = System.nanoTime();
+            start.countDown();
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        // Проверка двойных записей: 200 двум пациентам на один слот или пациент в БД не тот, кому ответили 200
+        Map<Long, Long> patientBySlot = seeder.bookedPatients();
+        int doubleBookings = 0;
+        for (Map.Entry<Long, List<Long>> entry : okPatientsBySlot.entrySet()) {
+            List<Long> okPatients = entry.getValue();
+            if (okPatients.size() > 1 || !okPatients.get(0).equals(patientBySlot.get(entry.getKey()))) {
+                doubleBookings++;
+            }
+        }
+
+        System.out.println();
+        System.out.println("===== Результаты записи =====");
+        System.out.printf("Запросов: %d за %d мс (%.0f запросов/с)%n",
+                latency.count(), elapsedMs, latency.count() * 1000.0 / elapsedMs);
+        System.out.println(latency.report());
+        System.out.printf("Записано: %d (занятых слотов в БД: %d из %d), 409: %d, прочие ошибки: %d%n",
+                booked.get(), patientBySlot.size(), slots.size(), conflicts.get(), errors.get());
+        System.out.println("Двойных записей: " + doubleBookings);
+        System.exit(doubleBookings == 0 && booked.get() == patientBySlot.size() ? 0 : 1);
+    }
+}
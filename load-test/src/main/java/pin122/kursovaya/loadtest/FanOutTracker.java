@@ -0,0 +1,43 @@
+package pin122.kursovaya.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Задержка рассылки: от изменения статуса приёма до получения обновления очереди подписчиком
+ *
+ * Перед каждым изменением у врача запоминается номер изменения и время. Подписчик учитывает
+ * первое сообщение очереди врача после очередного изменения (последующие - того же изменения)
+ */
+final class FanOutTracker {
+
+    record Update(long sequence, long sentNanos) {
+    }
+
+    private final Map<Long, Update> lastUpdates = new ConcurrentHashMap<>();
+    private final LatencyRecorder recorder = new LatencyRecorder("Рассылка (статус -> подписчик)");
+
+    void markUpdate(Long doctorId) {
+        lastUpdates.merge(doctorId, new Update(1, System.nanoTime()),
+                (previous, next) -> new Update(previous.sequence() + 1, next.sentNanos()));
+    }
+
+    /**
+     * Фиксирует сообщение очереди врача, полученное подписчиком
+     * @param doctorId ID врача
+     * @param lastCountedSequence Последнее учтённое подписчиком изменение
+     * @return Новое последнее учтённое изменение
+     */
+    long onMessage(Long doctorId, long lastCountedSequence) {
+        Update update = lastUpdates.get(doctorId);
+        if (update == null || update.sequence() <= lastCountedSequence) {
+            return lastCountedSequence;
+        }
+        recorder.record(System.nanoTime() - update.sentNanos());
+        return update.sequence();
+    }
+
+    LatencyRecorder recorder() {
+        return recorder;
+    }
+}
@@ -0,0 +1,60 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpClient;
+
+/**
+ * Опрос кучи сервера раз в секунду через /api/test/queue/stats (поле jvm)
+ */
+final class HeapSampler {
+
+    private final LoadTestConfig config;
+    private final HttpClient http;
+    private final ObjectMapper objectMapper;
+
+    private volatile boolean running;
+    private volatile long maxHeapUsedBytes;
+    private volatile long heapMaxBytes;
+    private Thread thread;
+
+    HeapSampler(LoadTestConfig config, HttpClient http, ObjectMapper objectMapper) {
+        this.config = config;
+        this.http = http;
+        this.objectMapper = objectMapper;
+    }
+
+    void start() {
+        running = true;
+        thread = Thread.ofVirtual().name("heap-sampler").start(() -> {
+            while (running) {
+                JsonNode stats = QueueLoadTest.fetchStats(config, http, objectMapper);
+                if (stats != null) {
+                    JsonNode jvm = stats.path("jvm");
+                    maxHeapUsedBytes = Math.max(maxHeapUsedBytes, jvm.path("heapUsedBytes").asLong());
+                    heapMaxBytes = jvm.path("heapMaxBytes").asLong();
+                }
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+    }
+
+    long maxHeapUsedBytes() {
+        return maxHeapUsedBytes;
+    }
+
+    long heapMaxBytes() {
+        return heapMaxBytes;
+    }
+}
@@ -0,0 +1,49 @@
+package pin122.kursovaya.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Накопитель задержек с расчётом перцентилей
+ */
+final class LatencyRecorder {
+
+    private final String name;
+    private final List<Long> nanos = Collections.synchronizedList(new ArrayList<>());
+
+    LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    void record(long latencyNanos) {
+        nanos.add(latencyNanos);
+    }
+
+    int count() {
+        return nanos.size();
+    }
+
+    /**
+     * Перцентиль в миллисекундах (ближайший ранг)
+     * @param percentile Перцентиль (0..100)
+     */
+    double percentileMs(double percentile) {
+        List<Long> sorted;
+        synchronized (nanos) {
+            sorted = new ArrayList<>(nanos);
+        }
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1))) / 1_000_000.0;
+    }
+
+    String report() {
+        return String.format(Locale.ROOT, "%-32s n=%-6d p50=%8.1f мс  p99=%8.1f мс  max=%8.1f мс",
+                name, count(), percentileMs(50), percentileMs(99), percentileMs(100));
+    }
+}
@@ -0,0 +1,66 @@
+package pin122.kursovaya.loadtest;
+
+import java.time.Duration;
+
+/**
+ * Параметры нагрузочного теста (системные свойства -Dloadtest.*)
+ *
+ * @param baseUrl HTTP адрес приложения
+ * @param webSocketUrl Адрес WebSocket endpoint (без SockJS)
+ * @param users Число пациентов (STOMP подключений)
+ * @param ramp Время, за которое подключаются все пациенты
+ * @param doctors Число врачей, между которыми распределены пациенты
+ * @param updateRounds Число раундов изменения статусов (в каждом раунде - по приёму у каждого врача)
+ * @param updateInterval Пауза между раундами
+ * @param bookingSlots Число свободных слотов в тесте записи (BookingContentionTest)
+ * @param bookingAttempts Сколько слотов пытается занять пациент в тесте записи
+ * @param queryRepeats Повторов каждого запроса в тесте числа SQL запросов (AppointmentQueryCountTest)
+ * @param timeout Ожидание ответа сервера
+ * @param password Пароль тестовых пациентов
+ * @param jdbcUrl БД приложения (заполнение врачами и приёмами)
+ * @param jdbcUser Пользователь БД
+ * @param jdbcPassword Пароль БД
+ */
+record LoadTestConfig(
+        String baseUrl,
+        String webSocketUrl,
+        int users,
+        Duration ramp,
+        int doctors,
+        int updateRounds,
+        Duration updateInterval,
+        int bookingSlots,
+        int bookingAttempts,
+        int queryRepeats,
+        Duration timeout,
+        String password,
+        String jdbcUrl,
+        String jdbcUser,
+        String jdbcPassword
+) {
+
+    static LoadTestConfig fromSystemProperties() {
+        String baseUrl = property("loadtest.base-url", "http://localhost:8085");
+        return new LoadTestConfig(
+                baseUrl,
+                property("loadtest.ws-url", baseUrl.replaceFirst("^http", "ws") + "/queue-websocket"),
+                Integer.parseInt(property("loadtest.users", "2000")),
+                Duration.ofSeconds(Long.parseLong(property("loadtest.ramp-seconds", "60"))),
+                Integer.parseInt(property("loadtest.doctors", "20")),
+                Integer.parseInt(property("loadtest.update-rounds", "20")),
+                Duration.ofMillis(Long.parseLong(property("loadtest.update-interval-ms", "1000"))),
+                Integer.parseInt(property("loadtest.booking-slots", "200")),
+                Integer.parseInt(property("loadtest.booking-attempts", "5")),
+                Integer.parseInt(property("loadtest.query-repeats", "20")),
+                Duration.ofSeconds(Long.parseLong(property("loadtest.timeout-seconds", "30"))),
+                property("loadtest.password", "LoadTest123!"),
+                property("loadtest.jdbc-url", "jdbc:postgresql://localhost:55432/clinic_loadtest"),
+                property("loadtest.jdbc-user", "loadtest"),
+                property("loadtest.jdbc-password", "loadtest")
+        );
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty(name, defaultValue);
+    }
+}
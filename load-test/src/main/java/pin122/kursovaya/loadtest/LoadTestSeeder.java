@@ -0,0 +1,312 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Подготовка данных нагрузочного теста (до начала замеров)
+ *
+ * - Пациенты регистрируются через /api/auth/register-with-patient (повторный запуск - вход через /api/auth/login)
+ * - Врачи и приёмы на сегодня записываются напрямую в БД: у пациента один приём, пациенты
+ *   распределены по врачам, приёмы одного врача идут с интервалом в минуту
+ * - Снимок очередей перестраивается через /api/test/queue/rebuild-snapshot
+ * - Для теста записи (BookingContentionTest) - свободные слоты одного врача
+ */
+final class LoadTestSeeder {
+
+    private static final String SOURCE = "loadtest";
+    private static final String BOOKING_SOURCE = "loadtest-booking";
+
+    record PatientAccount(String email, String token, Long userId, Long patientId) {
+    }
+
+    record Seed(List<PatientAccount> patients, Map<Long, Long> doctorByPatient, Map<Long, List<Long>> appointmentsByDoctor) {
+    }
+
+    private final LoadTestConfig config;
+    private final HttpClient http;
+    private final ObjectMapper objectMapper;
+
+    LoadTestSeeder(LoadTestConfig config, HttpClient http, ObjectMapper objectMapper) {
+        this.config = config;
+        this.http = http;
+        this.objectMapper = objectMapper;
+    }
+
+    Seed seed() throws Exception {
+        List<PatientAccount> patients = accounts();
+
+        try (Connection connection = openConnection()) {
+            List<Long> doctorIds = ensureDoctors(connection);
+
+            Map<Long, Long> doctorByPatient = new HashMap<>();
+            for (int i = 0; i < patients.size(); i++) {
+                doctorByPatient.put(patients.get(i).patientId(), doctorIds.get(i % doctorIds.size()));
+            }
+            Map<Long, List<Long>> appointmentsByDoctor = createAppointments(connection, patients, doctorByPatient);
+
+            post("/api/test/queue/rebuild-snapshot", null, null);
+            System.out.println("Подготовлено: пациентов " + patients.size() + ", врачей " + doctorIds.size());
+            return new Seed(patients, doctorByPatient, appointmentsByDoctor);
+        }
+    }
+
+    /**
+     * Регистрирует (или входит) config.users() пациентов
+     */
+    List<PatientAccount> accounts() throws Exception {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < config.users(); i++) {
+            emails.add("loadtest.patient" + i + "@example.com");
+        }
+        Map<String, String> tokens = authenticate(emails);
+
+        try (Connection connection = openConnection()) {
+            Map<String, long[]> ids = findPatientIds(connection);
+            List<PatientAccount> patients = new ArrayList<>();
+            for (String email : emails) {
+                long[] userAndPatient = ids.get(email);
+                if (userAndPatient != null && tokens.containsKey(email)) {
+                    patients.add(new PatientAccount(email, tokens.get(email), userAndPatient[0], userAndPatient[1]));
+                }
+            }
+            return patients;
+        }
+    }
+
+    /**
+     * Пересоздаёт свободные слоты на завтра у первого тестового врача ("популярный врач")
+     * @return ID слотов
+     */
+    List<Long> createFreeSlots(int count) throws SQLException {
+        try (Connection connection = openConnection()) {
+            Long doctorId = ensureDoctors(connection).get(0);
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM appointments WHERE source = ?")) {
+                delete.setString(1, BOOKING_SOURCE);
+                delete.executeUpdate();
+            }
+
+            Instant base = Instant.now().plus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO appointments (doctor_id, start_time, end_time, status, source, created_at, updated_at) " +
+                    "VALUES (?, ?, ?, 'scheduled', ?, now(), now())")) {
+                for (int i = 0; i < count; i++) {
+                    Instant start = base.plus(i, ChronoUnit.MINUTES);
+                    insert.setLong(1, doctorId);
+                    insert.setTimestamp(2, Timestamp.from(start));
+                    insert.setTimestamp(3, Timestamp.from(start.plus(1, ChronoUnit.MINUTES)));
+                    insert.setString(4, BOOKING_SOURCE);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            List<Long> ids = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id FROM appointments WHERE source = ? ORDER BY start_time")) {
+                select.setString(1, BOOKING_SOURCE);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(1));
+                    }
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * @return Пациент каждого занятого слота теста записи (по данным БД)
+     */
+    Map<Long, Long> bookedPatients() throws SQLException {
+        Map<Long, Long> patientBySlot = new HashMap<>();
+        try (Connection connection = openConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT id, patient_id FROM appointments WHERE source = ? AND patient_id IS NOT NULL")) {
+            select.setString(1, BOOKING_SOURCE);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    patientBySlot.put(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        }
+        return patientBySlot;
+    }
+
+    private Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(config.jdbcUrl(), config.jdbcUser(), config.jdbcPassword());
+    }
+
+    JsonNode post(String path, Object body, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(config.baseUrl() + path))
+                .timeout(config.timeout())
+                .header("Content-Type", "application/json")
+                .POST(body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<byte[]> response = http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        return objectMapper.readTree(response.body());
+    }
+
+    private Map<String, String> authenticate(List<String> emails) throws Exception {
+        Map<String, String> tokens = new ConcurrentHashMap<>();
+        Semaphore permits = new Semaphore(32);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < emails.size(); i++) {
+                String email = emails.get(i);
+                int index = i;
+                tasks.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        String token = register(email, index);
+                        if (token == null) {
+                            token = login(email);
+                        }
+                        if (token != null) {
+                            tokens.put(email, token);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+        System.out.println("Аутентифицировано пациентов: " + tokens.size() + " из " + emails.size());
+        return tokens;
+    }
+
+    private String register(String email, int index) throws Exception {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("email", email);
+        body.put("phone", String.format("+7900%07d", index));
+        body.put("password", config.password());
+        body.put("confirmPassword", config.password());
+        body.put("fio", "Нагрузочный Пациент " + index);
+        body.put("birthDate", "1990-01-01");
+        body.put("gender", 1);
+        body.put("insuranceNumber", null);
+
+        JsonNode response = post("/api/auth/register-with-patient", body, null);
+        return response.path("success").asBoolean() ? response.path("data").path("token").asText(null) : null;
+    }
+
+    private String login(String email) throws Exception {
+        JsonNode response = post("/api/auth/login", Map.of("email", email, "password", config.password()), null);
+        return response.path("success").asBoolean() ? response.path("data").path("token").asText(null) : null;
+    }
+
+    private Map<String, long[]> findPatientIds(Connection connection) throws SQLException {
+        Map<String, long[]> ids = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT u.email, u.id, p.id FROM patients p JOIN users u ON u.id = p.user_id WHERE u.email LIKE 'loadtest.patient%'");
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                ids.put(rs.getString(1), new long[]{rs.getLong(2), rs.getLong(3)});
+            }
+        }
+        return ids;
+    }
+
+    private List<Long> ensureDoctors(Connection connection) throws SQLException {
+        try (PreparedStatement user = connection.prepareStatement(
+                "INSERT INTO users (email, phone, password_hash, first_name, last_name, created_at, updated_at, is_active) " +
+                "VALUES (?, ?, '-', 'Врач', ?, now(), now(), true) ON CONFLICT (email) DO NOTHING");
+             PreparedStatement doctor = connection.prepareStatement(
+                "INSERT INTO doctors (user_id, display_name, created_at, updated_at) " +
+                "SELECT id, ?, now(), now() FROM users WHERE email = ? ON CONFLICT (user_id) DO NOTHING")) {
+            for (int i = 0; i < config.doctors(); i++) {
+                String email = "loadtest.doctor" + i + "@example.com";
+                user.setString(1, email);
+                user.setString(2, String.format("+7901%07d", i));
+                user.setString(3, "Нагрузочный " + i);
+                user.executeUpdate();
+                doctor.setString(1, "Врач нагрузочного теста " + i);
+                doctor.setString(2, email);
+                doctor.executeUpdate();
+            }
+        }
+
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT d.id FROM doctors d JOIN users u ON u.id = d.user_id " +
+                "WHERE u.email LIKE 'loadtest.doctor%' ORDER BY d.id LIMIT ?")) {
+            statement.setInt(1, config.doctors());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private Map<Long, List<Long>> createAppointments(Connection connection, List<PatientAccount> patients,
+                                                     Map<Long, Long> doctorByPatient) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM appointments WHERE source = ?")) {
+            delete.setString(1, SOURCE);
+            delete.executeUpdate();
+        }
+
+        Instant base = Instant.now().plus(5, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.MINUTES);
+        Map<Long, Integer> slotByDoctor = new HashMap<>();
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO appointments (doctor_id, patient_id, start_time, end_time, status, source, created_at, updated_at) " +
+                "VALUES (?, ?, ?, ?, 'scheduled', ?, now(), now())")) {
+            for (PatientAccount patient : patients) {
+                Long doctorId = doctorByPatient.get(patient.patientId());
+                int slot = slotByDoctor.merge(doctorId, 1, Integer::sum) - 1;
+                Instant start = base.plus(slot, ChronoUnit.MINUTES);
+                insert.setLong(1, doctorId);
+                insert.setLong(2, patient.patientId());
+                insert.setTimestamp(3, Timestamp.from(start));
+                insert.setTimestamp(4, Timestamp.from(start.plus(1, ChronoUnit.MINUTES)));
+                insert.setString(5, SOURCE);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        Map<Long, List<Long>> appointmentsByDoctor = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, doctor_id FROM appointments WHERE source = ? ORDER BY doctor_id, start_time")) {
+            select.setString(1, SOURCE);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    appointmentsByDoctor.computeIfAbsent(rs.getLong(2), id -> new ArrayList<>()).add(rs.getLong(1));
+                }
+            }
+        }
+        return appointmentsByDoctor;
+    }
+}
@@ -0,0 +1,163 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочный тест WebSocket очереди: "шторм подключений"
+ *
+ * 1. Подготовка: пациенты, врачи и приёмы на сегодня (LoadTestSeeder)
+ * 2. Подключение всех пациентов равномерно за ramp (каждый - на своём виртуальном потоке):
+ *    CONNECT -> первый снимок очереди -> /app/queue/init -> SUBSCRIBE /topic/queue/doctor/{id}
+ * 3. Изменения статусов: в каждом раунде у каждого врача первый в очереди приём помечается no_show
+ * 4. Отчёт: p50/p99 от подключения до первого снимка, ответа на init, рассылки и максимальная куча сервера
+ *
+ * Запуск: mvn -f load-test/pom.xml compile exec:java -Dloadtest.users=2000 -Dloadtest.ramp-seconds=60
+ */
+public final class QueueLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        System.out.println("Нагрузочный тест: " + config);
+
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        LoadTestSeeder seeder = new LoadTestSeeder(config, http, objectMapper);
+        LoadTestSeeder.Seed seed = seeder.seed();
+
+        ThreadPoolTaskScheduler heartbeatScheduler = new ThreadPoolTaskScheduler();
+        heartbeatScheduler.setPoolSize(4);
+        heartbeatScheduler.setThreadNamePrefix("stomp-heartbeat-");
+        heartbeatScheduler.initialize();
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new ByteArrayMessageConverter());
+        stompClient.setTaskScheduler(heartbeatScheduler);
+        stompClient.setDefaultHeartbeat(new long[]{10000, 10000});
+
+        FanOutTracker fanOut = new FanOutTracker();
+        LatencyRecorder connectToSnapshot = new LatencyRecorder("Подключение -> первый снимок");
+        LatencyRecorder initLatency = new LatencyRecorder("/app/queue/init -> ответ");
+        HeapSampler heapSampler = new HeapSampler(config, http, objectMapper);
+        heapSampler.start();
+
+        List<VirtualPatient> connected = new ArrayList<>();
+        ConcurrentLinkedQueue<VirtualPatient> connectedQueue = new ConcurrentLinkedQueue<>();
+        AtomicInteger failures = new AtomicInteger();
+        List<LoadTestSeeder.PatientAccount> patients = seed.patients();
+        long stepNanos = patients.isEmpty() ? 0 : config.ramp().toNanos() / patients.size();
+
+        // Шторм подключений
+        long stormStarted = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(patients.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < patients.size(); i++) {
+                LoadTestSeeder.PatientAccount account = patients.get(i);
+                long startAt = stormStarted + stepNanos * i;
+                executor.submit(() -> {
+                    try {
+                        long delay = startAt - System.nanoTime();
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                        }
+                        VirtualPatient patient = new VirtualPatient(account, seed.doctorByPatient().get(account.patientId()),
+                                config, stompClient, objectMapper, fanOut);
+                        connectedQueue.add(patient);
+                        patient.connect(connectToSnapshot, initLatency);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        System.err.println("Ошибка сценария " + account.email() + ": " + e);
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                });
+            }
+            done.await();
+        }
+        connected.addAll(connectedQueue);
+        System.out.printf("Подключение завершено за %d мс, ошибок: %d%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stormStarted), failures.get());
+
+        // Изменения статусов приёмов
+        AtomicLong updateFailures = new AtomicLong();
+        Map<Long, List<Long>> appointments = seed.appointmentsByDoctor();
+        for (int round = 0; round < config.updateRounds(); round++) {
+            int index = round;
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Map.Entry<Long, List<Long>> entry : appointments.entrySet()) {
+                    if (index >= entry.getValue().size()) {
+                        continue;
+                    }
+                    Long appointmentId = entry.getValue().get(index);
+                    executor.submit(() -> {
+                        fanOut.markUpdate(entry.getKey());
+                        JsonNode response = seeder.post("/api/test/queue/skip-appointment/" + appointmentId, null, null);
+                        if (!response.path("success").asBoolean()) {
+                            updateFailures.incrementAndGet();
+                        }
+                        return null;
+                    });
+                }
+            }
+            Thread.sleep(config.updateInterval().toMillis());
+        }
+
+        heapSampler.stop();
+        JsonNode serverStats = fetchStats(config, http, objectMapper);
+
+        System.out.println();
+        System.out.println("===== Результаты =====");
+        System.out.printf("Пациентов: %d, ошибок сценария: %d, ошибок изменения статуса: %d%n",
+                patients.size(), failures.get(), updateFailures.get());
+        System.out.println(connectToSnapshot.report());
+        System.out.println(initLatency.report());
+        System.out.println(fanOut.recorder().report());
+        System.out.printf("Куча сервера: максимум %.1f МБ (из %.1f МБ)%n",
+                heapSampler.maxHeapUsedBytes() / 1048576.0, heapSampler.heapMaxBytes() / 1048576.0);
+        if (serverStats != null) {
+            System.out.println("Сервер, подключения: " + serverStats.path("connects"));
+            System.out.println("Сервер, рассылки: " + serverStats.path("broadcasts"));
+            System.out.println("Сервер, исходящие буферы: " + serverStats.path("outbound"));
+        }
+
+        connected.forEach(VirtualPatient::disconnect);
+        stompClient.stop();
+        heartbeatScheduler.shutdown();
+        System.exit(0);
+    }
+
+    static JsonNode fetchStats(LoadTestConfig config, HttpClient http, ObjectMapper objectMapper) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(config.baseUrl() + "/api/test/queue/stats"))
+                    .timeout(config.timeout())
+                    .GET()
+                    .build();
+            return objectMapper.readTree(http.send(request, HttpResponse.BodyHandlers.ofByteArray()).body());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
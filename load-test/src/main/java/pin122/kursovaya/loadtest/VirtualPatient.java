@@ -0,0 +1,129 @@
+package pin122.kursovaya.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Сценарий одного пациента: подключение -> первый снимок очереди -> /app/queue/init ->
+ * подписка на очередь своего врача -> получение обновлений до конца теста
+ */
+final class VirtualPatient {
+
+    private static final long AUTO_SNAPSHOT_WAIT_MS = 5000;
+
+    private final LoadTestSeeder.PatientAccount account;
+    private final Long doctorId;
+    private final LoadTestConfig config;
+    private final WebSocketStompClient stompClient;
+    private final ObjectMapper objectMapper;
+    private final FanOutTracker fanOut;
+
+    private final CompletableFuture<Long> firstSnapshot = new CompletableFuture<>();
+    private volatile CompletableFuture<Long> initReply;
+    private volatile long lastCountedUpdate;
+    private StompSession session;
+
+    VirtualPatient(LoadTestSeeder.PatientAccount account, Long doctorId, LoadTestConfig config,
+                   WebSocketStompClient stompClient, ObjectMapper objectMapper, FanOutTracker fanOut) {
+        this.account = account;
+        this.doctorId = doctorId;
+        this.config = config;
+        this.stompClient = stompClient;
+        this.objectMapper = objectMapper;
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Подключается и проходит сценарий до подписки на очередь врача
+     * @param connectToSnapshot Задержка от начала подключения до первого снимка очереди
+     * @param initLatency Задержка ответа на /app/queue/init
+     */
+    void connect(LatencyRecorder connectToSnapshot, LatencyRecorder initLatency) throws Exception {
+        long started = System.nanoTime();
+        long timeoutMs = config.timeout().toMillis();
+
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + account.token());
+        connectHeaders.setHeartbeat(new long[]{10000, 10000});
+        session = stompClient.connectAsync(config.webSocketUrl(), new WebSocketHttpHeaders(), connectHeaders,
+                new StompSessionHandlerAdapter() {
+                }).get(timeoutMs, TimeUnit.MILLISECONDS);
+
+        session.subscribe("/user/queue/user", new JsonFrameHandler() {
+            @Override
+            void handle(JsonNode message) {
+                if (!message.path("data").isArray()) {
+                    return; // "очередь формируется"
+                }
+                long now = System.nanoTime();
+                CompletableFuture<Long> reply = initReply;
+                if (firstSnapshot.complete(now) && reply == null) {
+                    return; // снимок, отправленный сервером при подключении
+                }
+                if (reply != null) {
+                    reply.complete(now);
+                }
+            }
+        });
+
+        // Снимок, отправленный сервером при подключении, может прийти до подписки и потеряться -
+        // тогда первым снимком будет ответ на /app/queue/init
+        try {
+            firstSnapshot.get(AUTO_SNAPSHOT_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // запрашиваем очередь сами
+        }
+        long initSent = System.nanoTime();
+        initReply = new CompletableFuture<>();
+        session.send("/app/queue/init", new byte[0]);
+
+        connectToSnapshot.record(firstSnapshot.get(timeoutMs, TimeUnit.MILLISECONDS) - started);
+        initLatency.record(initReply.get(timeoutMs, TimeUnit.MILLISECONDS) - initSent);
+
+        session.subscribe("/topic/queue/doctor/" + doctorId, new JsonFrameHandler() {
+            @Override
+            void handle(JsonNode message) {
+                lastCountedUpdate = fanOut.onMessage(doctorId, lastCountedUpdate);
+            }
+        });
+    }
+
+    void disconnect() {
+        if (session != null && session.isConnected()) {
+            session.disconnect();
+        }
+    }
+
+    /**
+     * Обработчик JSON сообщений (тело приходит как byte[])
+     */
+    private abstract class JsonFrameHandler implements StompFrameHandler {
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            try {
+                handle(objectMapper.readTree((byte[]) payload));
+            } catch (Exception e) {
+                System.err.println("Ошибка разбора сообщения пациента " + account.email() + ": " + e.getMessage());
+            }
+        }
+
+        abstract void handle(JsonNode message);
+    }
+}
@@ -0,0 +1,230 @@
+package pin122.kursovaya.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.NativeMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Очередь исходящих сообщений сессии и её ограничение (clientOutboundChannel)
+ *
+ * Канал многопоточный, поэтому порядок сообщений одной сессии обеспечивает этот interceptor
+ * (вместо setPreservePublishOrder): в executor канала передаётся одно сообщение сессии,
+ * остальные ждут в очереди сессии и отправляются по одному после обработки предыдущего.
+ * Порядок нужен дельтам очереди.
+ *
+ * - Глубина буфера сессии: сообщение в executor канала и сообщения в очереди сессии
+ * - Политика drop-oldest-snapshot: снимок очереди врача (type = snapshot в /topic/queue/doctor/{id})
+ *   полностью заменяет предыдущий, поэтому если в очереди сессии уже ждёт снимок той же очереди,
+ *   он удаляется, а новый встаёт в конец. Дельты (type = delta) и персональные сообщения
+ *   не отбрасываются никогда
+ *
+ * Медленный клиент, не успевающий забирать данные из сокета, ограничен буфером транспорта
+ * (app.websocket.transport.send-buffer-size-limit) - при переполнении Spring закрывает его сессию
+ */
+@Component
+public class OutboundBackpressureInterceptor implements ExecutorChannelInterceptor {
+
+    private static final String DOCTOR_TOPIC_PREFIX = "/topic/queue/doctor/";
+
+    private final boolean dropOldestSnapshot;
+
+    // STOMP session ID -> очередь сессии
+    private final Map<String, SessionBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int maxDepth;
+
+    public OutboundBackpressureInterceptor(
+            @Value("${app.websocket.outbound.drop-policy:drop-oldest-snapshot}") String dropPolicy) {
+        this.dropOldestSnapshot = "drop-oldest-snapshot".equals(dropPolicy);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return message;
+        }
+
+        while (true) {
+            SessionBuffer buffer = buffers.computeIfAbsent(sessionId, id -> new SessionBuffer());
+            int depth;
+            boolean sendNow;
+            synchronized (buffer) {
+                if (buffer.closed) {
+                    // Буфер опустел и удалён из buffers другим потоком - берём новый
+                    continue;
+                }
+                if (buffer.inFlight == message) {
+                    // Следующее сообщение очереди, отправленное из afterMessageHandled
+                    return message;
+                }
+                sendNow = buffer.inFlight == null;
+                if (sendNow) {
+                    buffer.inFlight = message;
+                } else {
+                    String key = snapshotKey(message);
+                    if (key != null && removeQueuedSnapshot(buffer.queued, key)) {
+                        // В очереди сессии был более старый снимок этой очереди - он устарел
+                        dropped.incrementAndGet();
+                    }
+                    buffer.queued.add(message);
+                }
+                depth = buffer.depth();
+            }
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+            // null - сообщение ждёт в очереди сессии, канал его пока не отправляет
+            return sendNow ? message : null;
+        }
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        // Executor канала отклонил задачу - сообщение в буфер не попало, отправляем следующее
+        if (!sent || ex != null) {
+            release(message, channel);
+        }
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        release(message, channel);
+    }
+
+    /**
+     * Глубина буфера сессии
+     * @param sessionId STOMP session ID
+     * @return Число сообщений, ожидающих отправки
+     */
+    public int getDepth(String sessionId) {
+        SessionBuffer buffer = buffers.get(sessionId);
+        if (buffer == null) {
+            return 0;
+        }
+        synchronized (buffer) {
+            return buffer.depth();
+        }
+    }
+
+    /**
+     * Метрики буферов: сессий с непустым буфером, сообщений в буферах, максимальная глубина
+     * с момента запуска, отброшено устаревших снимков и 10 сессий с самым глубоким буфером
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        buffers.forEach((sessionId, buffer) -> depths.put(sessionId, getDepth(sessionId)));
+        depths.values().removeIf(depth -> depth == 0);
+
+        Map<String, Integer> deepest = new LinkedHashMap<>();
+        depths.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()))
+                .limit(10)
+                .forEach(entry -> deepest.put(entry.getKey(), entry.getValue()));
+
+        return Map.of(
+                "bufferedSessions", depths.size(),
+                "bufferedMessages", depths.values().stream().mapToInt(Integer::intValue).sum(),
+                "maxDepth", maxDepth,
+                "droppedSnapshots", dropped.get(),
+                "deepestSessions", deepest
+        );
+    }
+
+    /**
+     * Сообщение сессии обработано (или не принято executor): передаёт в канал следующее из очереди
+     */
+    private void release(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) {
+            return;
+        }
+        SessionBuffer buffer = buffers.get(sessionId);
+        if (buffer == null) {
+            return;
+        }
+
+        Message<?> next;
+        synchronized (buffer) {
+            if (buffer.inFlight != message) {
+                // Уже освобождено (синхронный канал вызывает и afterMessageHandled, и afterSendCompletion)
+                return;
+            }
+            next = buffer.queued.poll();
+            buffer.inFlight = next;
+            if (next == null) {
+                buffer.closed = true;
+                buffers.remove(sessionId, buffer);
+            }
+        }
+        if (next != null) {
+            channel.send(next);
+        }
+    }
+
+    private boolean removeQueuedSnapshot(Deque<Message<?>> queued, String key) {
+        for (Iterator<Message<?>> iterator = queued.iterator(); iterator.hasNext(); ) {
+            if (key.equals(snapshotKey(iterator.next()))) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String snapshotKey(Message<?> message) {
+        if (!dropOldestSnapshot || !isSnapshot(message)) {
+            return null;
+        }
+        // Снимки в /user/queue/user относятся к разным врачам и друг друга не заменяют
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        return destination != null && destination.startsWith(DOCTOR_TOPIC_PREFIX) ? destination : null;
+    }
+
+    /**
+     * Снимок очереди: заголовок event-type (ставится при отправке) или JSON, начинающийся с type = snapshot
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean isSnapshot(Message<?> message) {
+        Map<String, List<String>> nativeHeaders =
+                (Map<String, List<String>>) message.getHeaders().get(NativeMessageHeaderAccessor.NATIVE_HEADERS);
+        List<String> eventType = nativeHeaders != null
+                ? nativeHeaders.get(QueuePayloadEncodingInterceptor.EVENT_TYPE_HEADER)
+                : null;
+        if (eventType != null) {
+            return eventType.contains("snapshot");
+        }
+        return message.getPayload() instanceof byte[] payload
+                && "snapshot".equals(QueuePayloadEncodingInterceptor.eventType(payload));
+    }
+
+    /**
+     * Очередь сессии: сообщение, переданное в executor канала, и ожидающие за ним
+     */
+    private static class SessionBuffer {
+        private final Deque<Message<?>> queued = new ArrayDeque<>();
+        private Message<?> inFlight;
+        // Буфер опустел и удалён из buffers
+        private boolean closed;
+
+        int depth() {
+            return queued.size() + (inFlight != null ? 1 : 0);
+        }
+    }
+}
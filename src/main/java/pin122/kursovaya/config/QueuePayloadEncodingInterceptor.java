@@ -0,0 +1,192 @@
+package pin122.kursovaya.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Согласование компактного бинарного формата сообщений (CBOR)
+ *
+ * Клиент указывает в кадре CONNECT заголовок accept: application/cbor. Сообщения этой сессии
+ * перекодируются из JSON в CBOR (потоково, без построения дерева) и отправляются бинарными
+ * кадрами WebSocket: content-type: application/octet-stream (только так Spring отправляет
+ * бинарный кадр), фактический формат - в заголовке payload-format: application/cbor.
+ * Тип события очереди (snapshot/delta) передаётся в заголовке event-type, чтобы клиент мог
+ * выбрать обработчик до декодирования, а OutboundBackpressureInterceptor - распознать снимок.
+ * Заголовок ставит QueueMessageRelay при отправке; по началу JSON тип определяется, только если его нет.
+ *
+ * SimpleBroker отправляет каждому подписчику один и тот же массив байт, поэтому результат
+ * перекодирования кэшируется по экземпляру payload - рассылка перекодируется один раз.
+ *
+ * Регистрируется в clientInboundChannel (CONNECT/DISCONNECT) и первым в clientOutboundChannel
+ */
+@Component
+public class QueuePayloadEncodingInterceptor implements ChannelInterceptor {
+
+    public static final MimeType APPLICATION_CBOR = MimeType.valueOf("application/cbor");
+    public static final String PAYLOAD_FORMAT_HEADER = "payload-format";
+    public static final String EVENT_TYPE_HEADER = "event-type";
+
+    private static final byte[] TYPE_PREFIX = "{\"type\":\"".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final CBORFactory cborFactory = new CBORFactory();
+
+    // STOMP session ID сессий, согласовавших CBOR
+    private final Map<String, Boolean> cborSessions = new ConcurrentHashMap<>();
+
+    // JSON payload -> CBOR (ключ - экземпляр массива, WeakHashMap сравнивает массивы по ссылке)
+    private final Map<byte[], byte[]> encoded = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AtomicLong encodedMessages = new AtomicLong();
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong cborBytes = new AtomicLong();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (type == null || sessionId == null) {
+            return message;
+        }
+
+        switch (type) {
+            case CONNECT -> {
+                if (acceptsCbor(message)) {
+                    cborSessions.put(sessionId, Boolean.TRUE);
+                }
+                return message;
+            }
+            case DISCONNECT -> {
+                cborSessions.remove(sessionId);
+                return message;
+            }
+            case MESSAGE -> {
+                return cborSessions.containsKey(sessionId) ? encode(message) : message;
+            }
+            default -> {
+                return message;
+            }
+        }
+    }
+
+    /**
+     * Тип события очереди по началу JSON сообщения ({"type":"snapshot"... или {"type":"delta"...)
+     * @param json JSON сообщение
+     * @return snapshot, delta или null для остальных сообщений
+     */
+    public static String eventType(byte[] json) {
+        if (json.length <= TYPE_PREFIX.length) {
+            return null;
+        }
+        for (int i = 0; i < TYPE_PREFIX.length; i++) {
+            if (json[i] != TYPE_PREFIX[i]) {
+                return null;
+            }
+        }
+        int end = TYPE_PREFIX.length;
+        while (end < json.length && end - TYPE_PREFIX.length <= 16 && json[end] != '"') {
+            end++;
+        }
+        return end < json.length && json[end] == '"'
+                ? new String(json, TYPE_PREFIX.length, end - TYPE_PREFIX.length, StandardCharsets.UTF_8)
+                : null;
+    }
+
+    /**
+     * Перекодирует JSON в CBOR без построения промежуточного дерева
+     * @param json JSON
+     * @return CBOR
+     */
+    public byte[] toCbor(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(out)) {
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Метрики: перекодировано сообщений, сессий с CBOR, суммарный размер до и после
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "cborSessions", cborSessions.size(),
+                "encodedMessages", encodedMessages.get(),
+                "jsonBytes", jsonBytes.get(),
+                "cborBytes", cborBytes.get()
+        );
+    }
+
+    private Message<?> encode(Message<?> message) {
+        if (!(message.getPayload() instanceof byte[] json)) {
+            return message;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        MimeType contentType = accessor.getContentType();
+        if (contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+            return message;
+        }
+
+        byte[] cbor = encoded.get(json);
+        if (cbor == null) {
+            try {
+                cbor = toCbor(json);
+            } catch (IOException e) {
+                System.err.println("DEBUG WebSocket: Ошибка перекодирования в CBOR, отправляется JSON: " + e.getMessage());
+                return message;
+            }
+            encoded.put(json, cbor);
+        }
+
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        accessor.setNativeHeader(PAYLOAD_FORMAT_HEADER, APPLICATION_CBOR.toString());
+        // Заголовок event-type обычно уже добавлен при отправке (QueueMessageRelay)
+        String eventType = accessor.getFirstNativeHeader(EVENT_TYPE_HEADER);
+        if (eventType == null) {
+            eventType = eventType(json);
+        }
+        if (eventType != null) {
+            accessor.setNativeHeader(EVENT_TYPE_HEADER, eventType);
+        }
+
+        encodedMessages.incrementAndGet();
+        jsonBytes.addAndGet(json.length);
+        cborBytes.addAndGet(cbor.length);
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+
+    private static boolean acceptsCbor(Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        List<String> accept = accessor.getNativeHeader("accept");
+        if (accept == null) {
+            return false;
+        }
+        return accept.stream()
+                .flatMap(value -> MimeTypeUtils.parseMimeTypes(value).stream())
+                .anyMatch(APPLICATION_CBOR::equalsTypeAndSubtype);
+    }
+}
@@ -0,0 +1,46 @@
+package pin122.kursovaya.config;
+
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Сообщает WebSocketEventListener о подписке клиента на /user/queue/user (clientInboundChannel)
+ *
+ * SimpleBroker доставляет сообщение только существующим подпискам, а подписка регистрируется
+ * в потоке входящего канала, когда UserDestinationMessageHandler передаёт её брокеру.
+ * Поэтому ответы подключения отправляются после обработки SUBSCRIBE этим обработчиком,
+ * а не по SessionConnectedEvent / SessionSubscribeEvent, которые могут прийти раньше
+ */
+@Component
+public class UserQueueSubscriptionInterceptor implements ExecutorChannelInterceptor {
+
+    public static final String USER_QUEUE_DESTINATION = "/user/queue/user";
+
+    private final WebSocketEventListener webSocketEventListener;
+
+    public UserQueueSubscriptionInterceptor(@Lazy WebSocketEventListener webSocketEventListener) {
+        this.webSocketEventListener = webSocketEventListener;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null || !(handler instanceof UserDestinationMessageHandler)) {
+            return;
+        }
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.SUBSCRIBE
+                || !USER_QUEUE_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+            return;
+        }
+        String stompSessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (stompSessionId != null) {
+            webSocketEventListener.onUserQueueSubscribed(stompSessionId);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package pin122.kursovaya.config;
 
+import io.jsonwebtoken.Claims;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -8,8 +9,8 @@ import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
+import pin122.kursovaya.security.JwtPrincipalResolver;
 import pin122.kursovaya.utils.JwtTokenProvider;
 
 import java.security.Principal;
@@ -19,11 +20,11 @@ import java.util.List;
 public class WebSocketAuthInterceptor implements ChannelInterceptor {
 
     private final JwtTokenProvider jwtTokenProvider;
-    private final UserDetailsService userDetailsService;
+    private final JwtPrincipalResolver jwtPrincipalResolver;
 
-    public WebSocketAuthInterceptor(JwtTokenProvider jwtTokenProvider, UserDetailsService userDetailsService) {
+    public WebSocketAuthInterceptor(JwtTokenProvider jwtTokenProvider, JwtPrincipalResolver jwtPrincipalResolver) {
         this.jwtTokenProvider = jwtTokenProvider;
-        this.userDetailsService = userDetailsService;
+        this.jwtPrincipalResolver = jwtPrincipalResolver;
     }
 
     @Override
@@ -64,16 +65,20 @@ public class WebSocketAuthInterceptor implements ChannelInterceptor {
                 }
             }
             
-            if (token != null && jwtTokenProvider.validateToken(token)) {
+            // Подпись и срок действия проверяются одним разбором токена
+            Claims claims = token != null ? jwtTokenProvider.parseValidClaims(token) : null;
+            if (claims != null && claims.getSubject() != null) {
                 try {
-                    String username = jwtTokenProvider.extractUsername(token);
-                    UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+                    // Пользователь из claims токена (без БД) или из БД для токенов старого формата
+                    UserDetails userDetails = jwtPrincipalResolver.resolve(claims);
                     
-                    if (jwtTokenProvider.validateToken(token, userDetails)) {
-                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
-                                userDetails, null, userDetails.getAuthorities());
-                        accessor.setUser(auth);
+                    if (userDetails == null) {
+                        // Токен отозван
+                        return null;
                     }
+                    UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+                            userDetails, null, userDetails.getAuthorities());
+                    accessor.setUser(auth);
                 } catch (Exception e) {
                     // Ошибка аутентификации
                     return null;
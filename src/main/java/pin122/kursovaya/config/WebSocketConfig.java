@@ -1,28 +1,82 @@
 package pin122.kursovaya.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final WebSocketAuthInterceptor authInterceptor;
+    private final OutboundBackpressureInterceptor backpressureInterceptor;
+    private final QueuePayloadEncodingInterceptor encodingInterceptor;
+    private final UserQueueSubscriptionInterceptor userQueueSubscriptionInterceptor;
+    private TaskScheduler messageBrokerTaskScheduler;
 
-    public WebSocketConfig(WebSocketAuthInterceptor authInterceptor) {
+    // Интервал STOMP heartbeat (мс) в обе стороны, 0 - без heartbeat
+    @Value("${app.websocket.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    // Пулы потоков входящего (от клиентов) и исходящего (клиентам) каналов
+    @Value("${app.websocket.inbound.core-pool-size:8}")
+    private int inboundCorePoolSize;
+    @Value("${app.websocket.inbound.max-pool-size:32}")
+    private int inboundMaxPoolSize;
+    @Value("${app.websocket.inbound.queue-capacity:10000}")
+    private int inboundQueueCapacity;
+    @Value("${app.websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+    @Value("${app.websocket.outbound.max-pool-size:32}")
+    private int outboundMaxPoolSize;
+    @Value("${app.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    // Транспорт: время на отправку одного сообщения и буфер сессии (при превышении сессия закрывается),
+    // максимальный размер входящего сообщения
+    @Value("${app.websocket.transport.send-time-limit-ms:15000}")
+    private int sendTimeLimitMs;
+    @Value("${app.websocket.transport.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+    @Value("${app.websocket.transport.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    public WebSocketConfig(WebSocketAuthInterceptor authInterceptor,
+                           OutboundBackpressureInterceptor backpressureInterceptor,
+                           QueuePayloadEncodingInterceptor encodingInterceptor,
+                           UserQueueSubscriptionInterceptor userQueueSubscriptionInterceptor) {
         this.authInterceptor = authInterceptor;
+        this.backpressureInterceptor = backpressureInterceptor;
+        this.encodingInterceptor = encodingInterceptor;
+        this.userQueueSubscriptionInterceptor = userQueueSubscriptionInterceptor;
+    }
+
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy TaskScheduler messageBrokerTaskScheduler) {
+        this.messageBrokerTaskScheduler = messageBrokerTaskScheduler;
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Включаем простой брокер сообщений для отправки сообщений клиентам
-        config.enableSimpleBroker("/queue", "/topic");
+        // Брокер закрывает соединения, по которым heartbeat перестали приходить
+        // (сессия в Redis удаляется по событию отключения)
+        config.enableSimpleBroker("/queue", "/topic")
+                .setHeartbeatValue(new long[]{heartbeatMs, heartbeatMs})
+                .setTaskScheduler(messageBrokerTaskScheduler);
         // Префикс для сообщений от клиента к серверу
         config.setApplicationDestinationPrefixes("/app");
+        // Порядок сообщений сессии в многопоточном исходящем канале обеспечивает
+        // OutboundBackpressureInterceptor: setPreservePublishOrder держал бы очередь сессии
+        // в декораторе Spring, где interceptor не видит глубину и не может отбросить старый снимок
     }
 
     @Override
@@ -39,8 +93,31 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        // Добавляем interceptor для авторизации
-        registration.interceptors(authInterceptor);
+        // Добавляем interceptor для авторизации, согласования формата (CBOR)
+        // и отправки ответов подключения после подписки на /user/queue/user
+        registration.interceptors(authInterceptor, encodingInterceptor, userQueueSubscriptionInterceptor);
+        registration.taskExecutor()
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(inboundQueueCapacity);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Перекодирование в согласованный формат, затем очередь сессии: порядок отправки,
+        // учёт глубины и отбрасывание устаревших снимков очереди
+        registration.interceptors(encodingInterceptor, backpressureInterceptor);
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit);
     }
 }
 
@@ -13,9 +13,12 @@ import pin122.kursovaya.model.Patient;
 import pin122.kursovaya.model.User;
 import pin122.kursovaya.repository.PatientRepository;
 import pin122.kursovaya.repository.UserRepository;
+import pin122.kursovaya.service.QueueSnapshotService;
 import pin122.kursovaya.service.RedisQueueService;
+import pin122.kursovaya.service.WebSocketConnectExecutor;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -31,31 +34,42 @@ public class WebSocketEventListener {
 
     private final SimpMessagingTemplate messagingTemplate;
     private final RedisQueueService redisQueueService;
+    private final QueueSnapshotService queueSnapshotService;
     private final UserRepository userRepository;
     private final PatientRepository patientRepository;
+    private final WebSocketConnectExecutor connectExecutor;
+    
+    // STOMP сессии, ответы подключения которых ещё не отправлены или инициализация ещё идёт
+    // (отключение во время инициализации удаляет запись)
+    private final Map<String, ConnectState> connectStates = new ConcurrentHashMap<>();
     
     // Маппинг STOMP session ID -> наш Redis session ID
     private final Map<String, String> stompToRedisSessionMap = new ConcurrentHashMap<>();
 
     public WebSocketEventListener(SimpMessagingTemplate messagingTemplate,
                                   RedisQueueService redisQueueService,
+                                  QueueSnapshotService queueSnapshotService,
                                   UserRepository userRepository,
-                                  PatientRepository patientRepository) {
+                                  PatientRepository patientRepository,
+                                  WebSocketConnectExecutor connectExecutor) {
         this.messagingTemplate = messagingTemplate;
         this.redisQueueService = redisQueueService;
+        this.queueSnapshotService = queueSnapshotService;
         this.userRepository = userRepository;
         this.patientRepository = patientRepository;
+        this.connectExecutor = connectExecutor;
     }
 
     /**
      * Обработка нового WebSocket подключения
-     * - Генерирует уникальный sessionId
-     * - Получает appointments на текущий день
-     * - Формирует очередь в Redis
-     * - Сохраняет данные сессии
+     * Событие приходит в потоке clientInboundChannel, поэтому здесь только ставится задача
+     * инициализации в WebSocketConnectExecutor. На момент события клиент ещё не подписан
+     * на /user/queue/user, и SimpleBroker отбросил бы ответ - поэтому "очередь формируется"
+     * и снимок очереди отправляются после подписки (onUserQueueSubscribed), в этом порядке
      */
     @EventListener
     public void handleWebSocketConnectListener(SessionConnectedEvent event) {
+        long connectedAt = System.nanoTime();
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
         Authentication authentication = (Authentication) headerAccessor.getUser();
         String stompSessionId = headerAccessor.getSessionId();
@@ -69,6 +83,88 @@ public class WebSocketEventListener {
         System.out.println("DEBUG WebSocket: Новое подключение от пользователя: " + email + 
                 ", STOMP session: " + stompSessionId);
         
+        ConnectState state = new ConnectState(email, connectedAt, stompSessionId == null);
+        if (stompSessionId != null) {
+            connectStates.put(stompSessionId, state);
+        }
+        
+        // Быстрый ответ до постановки задачи: снимок очереди всегда приходит после него
+        reply(state, new RedisQueueService.QueueInitResponse(true, "Очередь формируется", null), false);
+        
+        if (!connectExecutor.submit(() -> initializeSession(email, stompSessionId, state))) {
+            System.out.println("DEBUG WebSocket: Очередь инициализаций переполнена, подключение " + stompSessionId);
+            reply(state, new RedisQueueService.QueueInitResponse(
+                    false,
+                    "Сервер перегружен, повторите запрос /app/queue/init позже",
+                    null
+            ), false);
+            finishConnect(stompSessionId, state);
+        }
+    }
+
+    /**
+     * Клиент подписался на /user/queue/user (подписка уже зарегистрирована в брокере):
+     * отправляет накопленные ответы подключения
+     * @param stompSessionId STOMP session ID
+     */
+    public void onUserQueueSubscribed(String stompSessionId) {
+        ConnectState state = connectStates.get(stompSessionId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.subscribed) {
+                return;
+            }
+            state.subscribed = true;
+            state.outbox.forEach(this::send);
+            state.outbox.clear();
+            if (state.initialized) {
+                connectStates.remove(stompSessionId, state);
+            }
+        }
+    }
+
+    /**
+     * Отправляет ответ подключения в /user/queue/user или откладывает его до подписки клиента
+     */
+    private void reply(ConnectState state, RedisQueueService.QueueInitResponse response, boolean snapshot) {
+        PendingReply pendingReply = new PendingReply(state, response, snapshot);
+        synchronized (state) {
+            if (state.subscribed) {
+                send(pendingReply);
+            } else {
+                state.outbox.add(pendingReply);
+            }
+        }
+    }
+
+    private void send(PendingReply pendingReply) {
+        messagingTemplate.convertAndSendToUser(pendingReply.state.email, "/queue/user", pendingReply.response);
+        if (pendingReply.snapshot) {
+            connectExecutor.recordFirstSnapshot(pendingReply.state.connectedAt);
+        }
+    }
+
+    /**
+     * Инициализация завершена: новых ответов не будет, запись удаляется после их отправки
+     */
+    private void finishConnect(String stompSessionId, ConnectState state) {
+        synchronized (state) {
+            state.initialized = true;
+            if (state.subscribed && stompSessionId != null) {
+                connectStates.remove(stompSessionId, state);
+            }
+        }
+    }
+
+    /**
+     * Инициализация подключения (в WebSocketConnectExecutor)
+     * - Генерирует уникальный sessionId
+     * - Читает очередь пациента из общего снимка на текущий день (без обращения к БД)
+     * - Сохраняет данные сессии и отправляет снимок очереди клиенту
+     */
+    private void initializeSession(String email, String stompSessionId, ConnectState state) {
         try {
             User user = userRepository.findByEmail(email);
             
@@ -97,8 +193,8 @@ public class WebSocketEventListener {
             System.out.println("DEBUG WebSocket: Создан Redis session: " + redisSessionId + 
                     " для пациента: " + patient.getId());
             
-            // Формируем очередь на текущий день
-            List<QueueEntryDto> queueEntries = redisQueueService.buildQueueForToday(patient.getId());
+            // Формируем очередь на текущий день из общего снимка
+            List<QueueEntryDto> queueEntries = queueSnapshotService.buildQueueForToday(patient.getId());
             
             // Собираем ID appointments для сохранения в сессии
             List<Long> appointmentIds = queueEntries.stream()
@@ -117,18 +213,22 @@ public class WebSocketEventListener {
             );
             redisQueueService.saveSession(redisSessionId, sessionData);
             
-            // Отправляем ответ клиенту
-            messagingTemplate.convertAndSendToUser(
-                email,
-                "/queue/user",
-                new RedisQueueService.QueueInitResponse(
+            // Клиент отключился, пока шла инициализация - сессия уже никому не нужна
+            if (stompSessionId != null && connectStates.get(stompSessionId) != state) {
+                stompToRedisSessionMap.remove(stompSessionId);
+                redisQueueService.deleteSession(redisSessionId);
+                System.out.println("DEBUG WebSocket: Клиент отключился во время инициализации: " + stompSessionId);
+                return;
+            }
+            
+            // Отправляем ответ клиенту (или откладываем до его подписки на /user/queue/user)
+            reply(state, new RedisQueueService.QueueInitResponse(
                     true,
                     queueEntries.isEmpty() 
                         ? "Нет активных записей на сегодня" 
                         : "Очередь на сегодня успешно построена",
                     queueEntries
-                )
-            );
+            ), true);
             
             System.out.println("DEBUG WebSocket: Инициализация завершена, записей в очереди: " + 
                     queueEntries.size());
@@ -138,15 +238,13 @@ public class WebSocketEventListener {
             e.printStackTrace();
             
             // Отправляем сообщение об ошибке клиенту
-            messagingTemplate.convertAndSendToUser(
-                email,
-                "/queue/user",
-                new RedisQueueService.QueueInitResponse(
+            reply(state, new RedisQueueService.QueueInitResponse(
                     false,
                     "Ошибка при инициализации очереди: " + e.getMessage(),
                     null
-                )
-            );
+            ), false);
+        } finally {
+            finishConnect(stompSessionId, state);
         }
     }
 
@@ -166,6 +264,9 @@ public class WebSocketEventListener {
                 ", STOMP session: " + stompSessionId);
         
         // Получаем Redis sessionId из маппинга
+        if (stompSessionId != null) {
+            connectStates.remove(stompSessionId);
+        }
         String redisSessionId = stompToRedisSessionMap.remove(stompSessionId);
         
         if (redisSessionId != null) {
@@ -185,4 +286,45 @@ public class WebSocketEventListener {
     public String getRedisSessionId(String stompSessionId) {
         return stompToRedisSessionMap.get(stompSessionId);
     }
+
+    /**
+     * Получает сессии этого узла
+     * @return Копия маппинга STOMP session ID -> Redis session ID
+     */
+    public Map<String, String> getSessionMappings() {
+        return Map.copyOf(stompToRedisSessionMap);
+    }
+
+    /**
+     * Забывает Redis сессию, удалённую как осиротевшая
+     * @param redisSessionId Redis session ID
+     */
+    public void forgetRedisSession(String redisSessionId) {
+        stompToRedisSessionMap.values().removeIf(redisSessionId::equals);
+    }
+
+    /**
+     * Подключение, ответы которого в /user/queue/user ждут подписки клиента
+     */
+    private static class ConnectState {
+        private final String email;
+        private final long connectedAt;
+        private final List<PendingReply> outbox = new ArrayList<>();
+        // Клиент подписан на /user/queue/user - ответы отправляются сразу
+        private boolean subscribed;
+        // Инициализация завершена - новых ответов не будет
+        private boolean initialized;
+
+        ConnectState(String email, long connectedAt, boolean subscribed) {
+            this.email = email;
+            this.connectedAt = connectedAt;
+            this.subscribed = subscribed;
+        }
+    }
+
+    /**
+     * Ответ подключения; snapshot - снимок очереди (его отправка попадает в метрики задержки)
+     */
+    private record PendingReply(ConnectState state, RedisQueueService.QueueInitResponse response, boolean snapshot) {
+    }
 }
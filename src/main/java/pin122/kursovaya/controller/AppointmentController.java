@@ -8,6 +8,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import pin122.kursovaya.dto.AppointmentDto;
 import pin122.kursovaya.dto.QueueEntryDto;
+import pin122.kursovaya.dto.SlotAvailabilityDto;
 import pin122.kursovaya.model.Appointment;
 import pin122.kursovaya.model.Doctor;
 import pin122.kursovaya.model.User;
@@ -19,7 +20,9 @@ import pin122.kursovaya.service.AppointmentService;
 import pin122.kursovaya.service.EmailNotificationService;
 import pin122.kursovaya.service.RedisQueueService;
 import pin122.kursovaya.service.ReportExportService;
+import pin122.kursovaya.service.SlotAvailabilityIndex;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 
 import java.time.LocalDate;
@@ -44,6 +47,7 @@ public class AppointmentController {
     private final SimpMessagingTemplate messagingTemplate;
     private final EmailNotificationService emailNotificationService;
     private final ReportExportService reportExportService;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
 
     public AppointmentController(AppointmentService appointmentService,
                                 RedisQueueService redisQueueService,
@@ -53,7 +57,8 @@ public class AppointmentController {
                                 PatientRepository patientRepository,
                                 SimpMessagingTemplate messagingTemplate,
                                 EmailNotificationService emailNotificationService,
-                                ReportExportService reportExportService) {
+                                ReportExportService reportExportService,
+                                SlotAvailabilityIndex slotAvailabilityIndex) {
         this.appointmentService = appointmentService;
         this.redisQueueService = redisQueueService;
         this.appointmentRepository = appointmentRepository;
@@ -63,6 +68,7 @@ public class AppointmentController {
         this.messagingTemplate = messagingTemplate;
         this.emailNotificationService = emailNotificationService;
         this.reportExportService = reportExportService;
+        this.slotAvailabilityIndex = slotAvailabilityIndex;
     }
 
     @GetMapping
@@ -113,6 +119,18 @@ public class AppointmentController {
         return ResponseEntity.ok(appointmentService.getAvailableAppointments(doctorId, date));
     }
 
+    /**
+     * Свободные слоты врача на день из индекса в памяти (для календаря записи, без чтения записей из БД)
+     * 
+     * GET /api/appointments/availability?doctorId=1&date=2024-01-15
+     */
+    @GetMapping("/availability")
+    public ResponseEntity<SlotAvailabilityDto> getAvailability(
+            @RequestParam Long doctorId,
+            @RequestParam LocalDate date) {
+        return ResponseEntity.ok(slotAvailabilityIndex.getAvailability(doctorId, date));
+    }
+
     @PostMapping("/book")
     public ResponseEntity<AppointmentDto> book(@RequestBody Map<String, Long> request) {
         Long appointmentId = request.get("appointmentId");
@@ -125,9 +143,13 @@ public class AppointmentController {
             return ResponseEntity.badRequest().build();
         }
         
-        return appointmentService.bookAppointment(appointmentId, userId)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.badRequest().build());
+        AppointmentService.BookingResult result = appointmentService.tryBookAppointment(appointmentId, userId);
+        return switch (result.getStatus()) {
+            case BOOKED -> ResponseEntity.ok(result.getAppointment());
+            // Слот уже занят другим пациентом - 409, клиент выбирает другой слот
+            case ALREADY_TAKEN -> ResponseEntity.status(HttpStatus.CONFLICT).build();
+            case APPOINTMENT_NOT_FOUND, PATIENT_NOT_FOUND -> ResponseEntity.badRequest().build();
+        };
     }
 
     @PostMapping
@@ -184,6 +206,7 @@ public class AppointmentController {
         
         appointment.setUpdatedAt(java.time.OffsetDateTime.now());
         Appointment saved = appointmentRepository.save(appointment);
+        slotAvailabilityIndex.onAppointmentChanged(saved);
         
         // Если статус изменился на terminal (completed, cancelled, no_show) - удаляем из очереди
         if (statusChanged && isTerminalStatus(newStatus) && !isTerminalStatus(oldStatus)) {
@@ -191,12 +214,11 @@ public class AppointmentController {
             if (saved.getPatient() != null && doctorId != null) {
                 logger.info("Удаление пациента {} из очереди к врачу {} (статус: {})", 
                     saved.getPatient().getId(), doctorId, newStatus);
-                redisQueueService.removeFromQueue(
+                // Инкрементально обновляем очередь и отправляем WebSocket уведомления
+                redisQueueService.removeFromQueueIncremental(
                     saved.getPatient().getId(),
                     doctorId
                 );
-                // Пересчитываем очередь и отправляем WebSocket уведомления
-                redisQueueService.recalculateQueueForDoctor(doctorId);
             }
         }
         
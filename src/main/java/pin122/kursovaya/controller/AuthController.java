@@ -2,8 +2,6 @@ package pin122.kursovaya.controller;
 
 import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import pin122.kursovaya.dto.AuthResponse;
@@ -16,7 +14,6 @@ import pin122.kursovaya.dto.UserDto;
 import pin122.kursovaya.service.AuthService;
 import pin122.kursovaya.service.UserService;
 import pin122.kursovaya.utils.ApiResponse;
-import pin122.kursovaya.utils.JwtTokenProvider;
 
 @RestController
 @RequestMapping("/api/auth")
@@ -24,15 +21,10 @@ public class AuthController {
 
     private final AuthService authService;
     private final UserService userService;
-    private final JwtTokenProvider jwtTokenProvider;
-    private final UserDetailsService userDetailsService;
 
-    public AuthController(AuthService authService, UserService userService, 
-                         JwtTokenProvider jwtTokenProvider, UserDetailsService userDetailsService) {
+    public AuthController(AuthService authService, UserService userService) {
         this.authService = authService;
         this.userService = userService;
-        this.jwtTokenProvider = jwtTokenProvider;
-        this.userDetailsService = userDetailsService;
     }
 
     @PostMapping("/login")
@@ -67,8 +59,7 @@ public class AuthController {
             var userDto = userService.createUser(registerRequest);
             if (userDto.isPresent()) {
                 // Генерируем JWT токен для зарегистрированного пользователя
-                UserDetails userDetails = userDetailsService.loadUserByUsername(registerRequest.getEmail());
-                String token = jwtTokenProvider.generateToken(userDetails);
+                String token = authService.generateToken(registerRequest.getEmail());
                 
                 RegisterResponse response = new RegisterResponse(
                     token,
@@ -102,8 +93,7 @@ public class AuthController {
             var patientDto = userService.createUserWithPatient(registerRequest);
             if (patientDto.isPresent()) {
                 // Генерируем JWT токен для зарегистрированного пользователя
-                UserDetails userDetails = userDetailsService.loadUserByUsername(registerRequest.getEmail());
-                String token = jwtTokenProvider.generateToken(userDetails);
+                String token = authService.generateToken(registerRequest.getEmail());
                 
                 RegisterWithPatientResponse response = new RegisterWithPatientResponse(
                     token,
@@ -1,23 +1,33 @@
 package pin122.kursovaya.controller;
 import jakarta.validation.Valid;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import pin122.kursovaya.dto.CreateDoctorRequest;
 import pin122.kursovaya.dto.DoctorDto;
 import pin122.kursovaya.dto.UpdateDoctorRequest;
+import pin122.kursovaya.service.DoctorPhotoService;
 import pin122.kursovaya.service.DoctorService;
 import pin122.kursovaya.utils.ApiResponse;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/doctors")
 public class DoctorController {
 
     private final DoctorService doctorService;
+    private final DoctorPhotoService doctorPhotoService;
 
-    public DoctorController(DoctorService doctorService) {
+    public DoctorController(DoctorService doctorService, DoctorPhotoService doctorPhotoService) {
         this.doctorService = doctorService;
+        this.doctorPhotoService = doctorPhotoService;
     }
 
     @GetMapping({"/", ""})
@@ -42,6 +52,45 @@ public class DoctorController {
                         .body(new ApiResponse<>(false, "Врач не найден", null)));
     }
 
+    /**
+     * Фото врача с ETag по хэшу содержимого
+     * size=64 или size=256 - заранее подготовленная миниатюра, без size - оригинал.
+     * Запрос с актуальной версией (?v= из photoUrl) кэшируется клиентом на год без проверки,
+     * без версии - кэшируется с обязательной проверкой через If-None-Match (ответ 304 без тела)
+     */
+    @GetMapping("/{id}/photo")
+    public ResponseEntity<byte[]> getDoctorPhoto(@PathVariable Long id,
+                                                 @RequestParam(name = "v", required = false) String version,
+                                                 @RequestParam(name = "size", required = false) Integer size,
+                                                 WebRequest webRequest) {
+        if (size != null && size != PhotoUtils.THUMBNAIL_SMALL && size != PhotoUtils.THUMBNAIL_MEDIUM) {
+            return ResponseEntity.badRequest().build();
+        }
+        Optional<DoctorPhotoService.PhotoContent> photo = doctorPhotoService.getPhoto(id, size);
+        if (photo.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String hash = photo.get().hash();
+        CacheControl cacheControl = version != null && version.equals(PhotoUtils.versionOf(hash))
+                ? CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable()
+                : CacheControl.noCache().cachePublic();
+        String etag = "\"" + hash + (size != null ? "-" + size : "") + "\"";
+
+        if (webRequest.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .contentType(MediaType.parseMediaType(photo.get().contentType()))
+                .contentLength(photo.get().data().length)
+                .body(photo.get().data());
+    }
+
     @PostMapping("/create")
     public ResponseEntity<ApiResponse<DoctorDto>> createDoctor(@Valid @RequestBody CreateDoctorRequest request) {
         DoctorDto created = doctorService.createDoctor(request);
@@ -1,7 +1,12 @@
 package pin122.kursovaya.controller;
 
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import pin122.kursovaya.config.OutboundBackpressureInterceptor;
+import pin122.kursovaya.config.QueuePayloadEncodingInterceptor;
 import pin122.kursovaya.dto.QueueEntryDto;
 import pin122.kursovaya.model.Appointment;
 import pin122.kursovaya.model.Doctor;
@@ -10,8 +15,17 @@ import pin122.kursovaya.repository.AppointmentRepository;
 import pin122.kursovaya.repository.DoctorRepository;
 import pin122.kursovaya.repository.PatientRepository;
 import pin122.kursovaya.service.AppointmentService;
+import pin122.kursovaya.service.QueueBroadcastDispatcher;
+import pin122.kursovaya.service.QueueMessageRelay;
+import pin122.kursovaya.service.QueueSchedulerService;
+import pin122.kursovaya.service.QueueSnapshotService;
+import pin122.kursovaya.service.QueueSubscriptionRegistry;
 import pin122.kursovaya.service.RedisQueueService;
+import pin122.kursovaya.service.SessionLivenessService;
+import pin122.kursovaya.service.SlotAvailabilityIndex;
+import pin122.kursovaya.service.WebSocketConnectExecutor;
 
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,17 +46,50 @@ public class QueueTestController {
     private final AppointmentRepository appointmentRepository;
     private final RedisQueueService redisQueueService;
     private final AppointmentService appointmentService;
+    private final QueueBroadcastDispatcher broadcastDispatcher;
+    private final QueueSnapshotService queueSnapshotService;
+    private final QueueSchedulerService queueSchedulerService;
+    private final SessionLivenessService sessionLivenessService;
+    private final QueueMessageRelay messageRelay;
+    private final WebSocketConnectExecutor connectExecutor;
+    private final QueueSubscriptionRegistry subscriptionRegistry;
+    private final OutboundBackpressureInterceptor backpressureInterceptor;
+    private final QueuePayloadEncodingInterceptor encodingInterceptor;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
+    private final EntityManagerFactory entityManagerFactory;
 
     public QueueTestController(PatientRepository patientRepository,
                                DoctorRepository doctorRepository,
                                AppointmentRepository appointmentRepository,
                                RedisQueueService redisQueueService,
-                               AppointmentService appointmentService) {
+                               AppointmentService appointmentService,
+                               QueueBroadcastDispatcher broadcastDispatcher,
+                               QueueSnapshotService queueSnapshotService,
+                               QueueSchedulerService queueSchedulerService,
+                               SessionLivenessService sessionLivenessService,
+                               QueueMessageRelay messageRelay,
+                               WebSocketConnectExecutor connectExecutor,
+                               QueueSubscriptionRegistry subscriptionRegistry,
+                               OutboundBackpressureInterceptor backpressureInterceptor,
+                               QueuePayloadEncodingInterceptor encodingInterceptor,
+                               SlotAvailabilityIndex slotAvailabilityIndex,
+                               EntityManagerFactory entityManagerFactory) {
         this.patientRepository = patientRepository;
         this.doctorRepository = doctorRepository;
         this.appointmentRepository = appointmentRepository;
         this.redisQueueService = redisQueueService;
         this.appointmentService = appointmentService;
+        this.broadcastDispatcher = broadcastDispatcher;
+        this.queueSnapshotService = queueSnapshotService;
+        this.queueSchedulerService = queueSchedulerService;
+        this.sessionLivenessService = sessionLivenessService;
+        this.messageRelay = messageRelay;
+        this.connectExecutor = connectExecutor;
+        this.subscriptionRegistry = subscriptionRegistry;
+        this.backpressureInterceptor = backpressureInterceptor;
+        this.encodingInterceptor = encodingInterceptor;
+        this.slotAvailabilityIndex = slotAvailabilityIndex;
+        this.entityManagerFactory = entityManagerFactory;
     }
 
     /**
@@ -152,10 +199,8 @@ public class QueueTestController {
             }
         }
 
-        // Пересобираем очереди для всех задействованных пациентов
-        for (Long pid : allPatientIds) {
-            redisQueueService.buildQueueFromAppointments(pid);
-        }
+        // Пересобираем общий снимок очередей на сегодня (одно чтение appointments дня)
+        queueSnapshotService.rebuild(LocalDate.now());
 
         // Получаем все очереди переданного пациента
         List<QueueEntryDto> queues = redisQueueService.getQueuesByPatient(patientId);
@@ -341,10 +386,8 @@ public class QueueTestController {
             }
         }
         
-        // Пересобираем очереди для всех задействованных пациентов через Redis
-        for (Long pid : allPatientIds) {
-            redisQueueService.buildQueueForToday(pid);
-        }
+        // Пересобираем общий снимок очередей на сегодня (одно чтение appointments дня)
+        queueSnapshotService.rebuild(LocalDate.now());
         
         // Получаем полную очередь к врачу
         List<QueueEntryDto> fullQueue = redisQueueService.getQueueByDoctor(doctorId);
@@ -870,5 +913,61 @@ public class QueueTestController {
 
         return ResponseEntity.ok(response);
     }
-}
 
+    /**
+     * Перестраивает снимок очередей на текущий день из БД
+     * Нужен после заполнения БД в обход сервисов (нагрузочный тест, скрипты)
+     *
+     * @return Статистика снимка
+     */
+    @PostMapping("/rebuild-snapshot")
+    public ResponseEntity<Map<String, Object>> rebuildSnapshot() {
+        queueSnapshotService.rebuild(LocalDate.now());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("snapshot", queueSnapshotService.getStats());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Статистика работы очередей: счётчики рассылок обновлений
+     * 
+     * @return Счётчики отправленных и подавленных (объединённых) рассылок
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getQueueStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("broadcasts", broadcastDispatcher.getStats());
+        response.put("snapshot", queueSnapshotService.getStats());
+        response.put("recalculation", queueSchedulerService.getRecalculationStats());
+        response.put("sessions", sessionLivenessService.getStats());
+        response.put("relay", messageRelay.getStats());
+        response.put("connects", connectExecutor.getStats());
+        response.put("subscriptions", subscriptionRegistry.getStats());
+        response.put("outbound", backpressureInterceptor.getStats());
+        response.put("encoding", encodingInterceptor.getStats());
+        response.put("availability", slotAvailabilityIndex.getStats());
+
+        Statistics hibernate = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        response.put("hibernate", Map.of(
+                "enabled", hibernate.isStatisticsEnabled(),
+                "statements", hibernate.getPrepareStatementCount(),
+                "queries", hibernate.getQueryExecutionCount(),
+                "entityLoads", hibernate.getEntityLoadCount(),
+                "entityFetches", hibernate.getEntityFetchCount(),
+                "collectionFetches", hibernate.getCollectionFetchCount()
+        ));
+
+        Runtime runtime = Runtime.getRuntime();
+        response.put("jvm", Map.of(
+                "heapUsedBytes", runtime.totalMemory() - runtime.freeMemory(),
+                "heapCommittedBytes", runtime.totalMemory(),
+                "heapMaxBytes", runtime.maxMemory(),
+                "threads", Thread.activeCount()
+        ));
+
+        return ResponseEntity.ok(response);
+    }
+}
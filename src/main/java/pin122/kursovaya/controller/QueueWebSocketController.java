@@ -13,6 +13,7 @@ import pin122.kursovaya.model.User;
 import pin122.kursovaya.repository.PatientRepository;
 import pin122.kursovaya.repository.UserRepository;
 import pin122.kursovaya.service.AppointmentService;
+import pin122.kursovaya.service.QueueSnapshotService;
 import pin122.kursovaya.service.RedisQueueService;
 
 import java.util.List;
@@ -28,17 +29,20 @@ public class QueueWebSocketController {
 
     private final RedisQueueService redisQueueService;
     private final AppointmentService appointmentService;
+    private final QueueSnapshotService queueSnapshotService;
     private final UserRepository userRepository;
     private final PatientRepository patientRepository;
     private final SimpMessagingTemplate messagingTemplate;
 
     public QueueWebSocketController(RedisQueueService redisQueueService,
                                     AppointmentService appointmentService,
+                                    QueueSnapshotService queueSnapshotService,
                                     UserRepository userRepository,
                                     PatientRepository patientRepository,
                                     SimpMessagingTemplate messagingTemplate) {
         this.redisQueueService = redisQueueService;
         this.appointmentService = appointmentService;
+        this.queueSnapshotService = queueSnapshotService;
         this.userRepository = userRepository;
         this.patientRepository = patientRepository;
         this.messagingTemplate = messagingTemplate;
@@ -87,8 +91,8 @@ public class QueueWebSocketController {
             }
 
             System.out.println("DEBUG WebSocket: Найден пациент с ID: " + patient.get().getId());
-            // Строим очередь на текущий день (только Redis)
-            List<QueueEntryDto> queueEntries = redisQueueService.buildQueueForToday(patient.get().getId());
+            // Читаем очередь на текущий день из общего снимка (только Redis)
+            List<QueueEntryDto> queueEntries = queueSnapshotService.buildQueueForToday(patient.get().getId());
             System.out.println("DEBUG WebSocket: Построено записей в очереди: " + queueEntries.size());
 
             messagingTemplate.convertAndSendToUser(
@@ -321,6 +325,46 @@ public class QueueWebSocketController {
         }
     }
 
+    /**
+     * Получить полный снимок очереди к врачу с текущей версией
+     * Используется клиентами протокола delta при обнаружении пропуска версии
+     */
+    @MessageMapping("/queue/snapshot")
+    public void getSnapshot(@Payload QueuePositionRequest request, Authentication authentication) {
+        String email = authentication != null ? authentication.getName() : "anonymous";
+        try {
+            if (authentication == null) {
+                messagingTemplate.convertAndSendToUser(
+                    email,
+                    "/queue/user",
+                    new QueueListResponse(false, "Пользователь не авторизован", null)
+                );
+                return;
+            }
+
+            if (request.getDoctorId() == null) {
+                messagingTemplate.convertAndSendToUser(
+                    email,
+                    "/queue/user",
+                    new QueueListResponse(false, "Не указан doctorId", null)
+                );
+                return;
+            }
+
+            messagingTemplate.convertAndSendToUser(
+                email,
+                "/queue/user",
+                redisQueueService.getQueueSnapshot(request.getDoctorId())
+            );
+        } catch (Exception e) {
+            messagingTemplate.convertAndSendToUser(
+                email,
+                "/queue/user",
+                new QueueListResponse(false, "Ошибка: " + e.getMessage(), null)
+            );
+        }
+    }
+
     // DTO классы для WebSocket сообщений
     public static class QueueInitResponse {
         private boolean success;
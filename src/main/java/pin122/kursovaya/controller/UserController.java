@@ -66,8 +66,8 @@ public class UserController {
 
     @PutMapping("/{id}")
     public ResponseEntity<UserDto> updateUser(@PathVariable Long id, @Validated(OnCreate.class) @RequestBody UserDto userDetails) {
-        userService.getUserById(id).orElseThrow(()->new EntityNotFoundException("User not found"));
-        User savedUser = userService.saveUser(userDetails);
+        User savedUser = userService.updateUser(id, userDetails)
+                .orElseThrow(()->new EntityNotFoundException("User not found"));
         return ResponseEntity.ok(new UserDto(savedUser));
     }
 
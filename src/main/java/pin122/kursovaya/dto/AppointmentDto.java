@@ -75,7 +75,8 @@ public class AppointmentDto {
         private String middleName;
         private String specialization;
         private Integer experienceYears;
-        private String photo;
+        private String photoUrl;
+        private String photoThumbnailUrl; // Миниатюра 64x64 для строк списка
         
         public DoctorInfo() {}
     }
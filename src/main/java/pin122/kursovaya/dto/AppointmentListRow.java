@@ -0,0 +1,43 @@
+package pin122.kursovaya.dto;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+
+/**
+ * Строка списка записей: ровно те колонки, из которых собирается AppointmentDto
+ * Заполняется одним SQL запросом (AppointmentRepositoryCustom.findListRows) без загрузки сущностей
+ */
+public record AppointmentListRow(
+        Long id,
+        Long scheduleId,
+        Long doctorId,
+        Long patientId,
+        Long roomId,
+        OffsetDateTime startTime,
+        OffsetDateTime endTime,
+        String status,
+        String source,
+        Long createdBy,
+        OffsetDateTime createdAt,
+        OffsetDateTime updatedAt,
+        String cancelReason,
+        String diagnosis,
+        LocalDate patientBirthDate,
+        Short patientGender,
+        String patientInsuranceNumber,
+        String patientFirstName,
+        String patientLastName,
+        String patientMiddleName,
+        String patientPhone,
+        String patientEmail,
+        String doctorDisplayName,
+        Integer doctorExperienceYears,
+        String doctorPhotoHash,
+        String doctorFirstName,
+        String doctorLastName,
+        String doctorMiddleName,
+        String doctorSpecialization,
+        String roomCode,
+        String roomName
+) {
+}
@@ -4,10 +4,10 @@ import lombok.Data;
 import pin122.kursovaya.model.Doctor;
 import pin122.kursovaya.model.Patient;
 import pin122.kursovaya.model.User;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
-import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -88,7 +88,8 @@ public class CurrentUserDto {
         private String displayName;
         private String bio;
         private Integer experienceYears;
-        private String photo; // Base64-кодированное изображение
+        private String photoUrl; // URL фото с версией, null - фото нет
+        private String photoThumbnailUrl; // URL миниатюры 256x256
         private List<SpecializationDto> specializations;
         private OffsetDateTime createdAt;
         private OffsetDateTime updatedAt;
@@ -102,12 +103,8 @@ public class CurrentUserDto {
             this.bio = doctor.getBio();
             this.experienceYears = doctor.getExperienceYears();
             
-            // Конвертируем фото в Base64 строку
-            if (doctor.getPhoto() != null && doctor.getPhoto().length > 0) {
-                this.photo = Base64.getEncoder().encodeToString(doctor.getPhoto());
-            } else {
-                this.photo = null;
-            }
+            this.photoUrl = PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash());
+            this.photoThumbnailUrl = PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash(), PhotoUtils.THUMBNAIL_MEDIUM);
             
             this.createdAt = doctor.getCreatedAt();
             this.updatedAt = doctor.getUpdatedAt();
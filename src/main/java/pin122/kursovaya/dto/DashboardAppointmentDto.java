@@ -17,7 +17,8 @@ public class DashboardAppointmentDto {
     private String doctorFirstName;              // Имя врача
     private String doctorLastName;               // Фамилия врача
     private String doctorMiddleName;             // Отчество врача
-    private String doctorPhoto;                  // Фото врача (Base64)
+    private String doctorPhotoUrl;               // URL фото врача (null - фото нет)
+    private String doctorPhotoThumbnailUrl;      // URL миниатюры 64x64
     private List<SpecializationDto> doctorSpecializations; // Специализации доктора
     private Long patientId;
     private Long roomId;
@@ -22,7 +22,8 @@ public class DoctorDto {
     @Min(value = 0, message = "Опыт не может быть меньше 0", groups = {OnCreate.class, OnUpdate.class})
     @Max(value = 80, message = "Опыт не может быть больше 80", groups = {OnCreate.class, OnUpdate.class})
     private Integer experienceYears;
-    private String photo; // Base64-кодированное изображение (BYTEA в БД)
+    private String photoUrl; // URL фото с версией (GET /api/doctors/{id}/photo?v=...), null - фото нет
+    private String photoThumbnailUrl; // URL миниатюры 256x256 для карточек и списков
     private Double rating; // Средний рейтинг из отзывов (1.0 - 5.0)
     private Integer reviewCount; // Количество отзывов
     private List<SpecializationDto> specializations; // Список специализаций врача
@@ -32,24 +33,24 @@ public class DoctorDto {
     public DoctorDto() {
     }
 
-    public DoctorDto(Long id, UserDto user, String displayName, String bio, Integer experienceYears, String photo, OffsetDateTime createdAt, OffsetDateTime updatedAt) {
+    public DoctorDto(Long id, UserDto user, String displayName, String bio, Integer experienceYears, String photoUrl, OffsetDateTime createdAt, OffsetDateTime updatedAt) {
         this.id = id;
         this.user = user;
         this.displayName = displayName;
         this.bio = bio;
         this.experienceYears = experienceYears;
-        this.photo = photo;
+        this.photoUrl = photoUrl;
         this.createdAt = createdAt;
         this.updatedAt = updatedAt;
     }
 
-    public DoctorDto(Long id, UserDto user, String displayName, String bio, Integer experienceYears, String photo, Double rating, Integer reviewCount, OffsetDateTime createdAt, OffsetDateTime updatedAt) {
+    public DoctorDto(Long id, UserDto user, String displayName, String bio, Integer experienceYears, String photoUrl, Double rating, Integer reviewCount, OffsetDateTime createdAt, OffsetDateTime updatedAt) {
         this.id = id;
         this.user = user;
         this.displayName = displayName;
         this.bio = bio;
         this.experienceYears = experienceYears;
-        this.photo = photo;
+        this.photoUrl = photoUrl;
         this.rating = rating;
         this.reviewCount = reviewCount;
         this.createdAt = createdAt;
@@ -1,15 +1,19 @@
 package pin122.kursovaya.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import java.time.OffsetDateTime;
 
 @Data
 public class QueueEntryDto {
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Long id;
     private Long doctorId;
     private Long appointmentId; // может быть null, если очередь без записи
     private Long patientId;
     private Integer position;
+    // Для очередей из Redis не заполняется: время снимка передаётся одно на сообщение (timestamp)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private OffsetDateTime lastUpdated;
 
     public QueueEntryDto() {
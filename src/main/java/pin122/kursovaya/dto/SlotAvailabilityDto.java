@@ -0,0 +1,57 @@
+package pin122.kursovaya.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * Свободные слоты врача на день из индекса SlotAvailabilityIndex (без чтения таблицы appointments)
+ * Для каждого расписания: слот i начинается в startTime + i * slotDurationMinutes,
+ * его ID записи - appointmentIds[i], свободен ли он - бит i в freeBitmap
+ */
+@Data
+public class SlotAvailabilityDto {
+    private Long doctorId;
+    private LocalDate date;
+    private List<ScheduleSlotsDto> schedules;
+
+    public SlotAvailabilityDto() {
+    }
+
+    public SlotAvailabilityDto(Long doctorId, LocalDate date, List<ScheduleSlotsDto> schedules) {
+        this.doctorId = doctorId;
+        this.date = date;
+        this.schedules = schedules;
+    }
+
+    @Data
+    public static class ScheduleSlotsDto {
+        private Long scheduleId;
+        private Long roomId;
+        private LocalTime startTime;
+        private Integer slotDurationMinutes;
+        private Integer slotCount;
+        private Integer freeCount;
+        // Base64 little-endian битовой маски (java.util.BitSet.toByteArray): бит i = слот i свободен
+        private String freeBitmap;
+        // ID записи по смещению слота, 0 - слот без записи
+        private long[] appointmentIds;
+
+        public ScheduleSlotsDto() {
+        }
+
+        public ScheduleSlotsDto(Long scheduleId, Long roomId, LocalTime startTime, Integer slotDurationMinutes,
+                                Integer slotCount, Integer freeCount, String freeBitmap, long[] appointmentIds) {
+            this.scheduleId = scheduleId;
+            this.roomId = roomId;
+            this.startTime = startTime;
+            this.slotDurationMinutes = slotDurationMinutes;
+            this.slotCount = slotCount;
+            this.freeCount = freeCount;
+            this.freeBitmap = freeBitmap;
+            this.appointmentIds = appointmentIds;
+        }
+    }
+}
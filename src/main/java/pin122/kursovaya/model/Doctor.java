@@ -34,8 +34,10 @@ public class Doctor {
     @Column(name = "experience_years")
     private Integer experienceYears;
     
-    @Column(name = "photo", columnDefinition = "BYTEA")
-    private byte[] photo;
+    // Само фото и миниатюры - в DoctorPhoto (doctor_photos), здесь только SHA-256 для photoUrl,
+    // чтобы списки и поиск врачей не читали изображения из БД
+    @Column(name = "photo_hash", length = 64)
+    private String photoHash;
 
     @Column(name = "created_at", nullable = false)
     private OffsetDateTime createdAt = OffsetDateTime.now();
@@ -47,7 +49,9 @@ public class Doctor {
     @JsonIgnore
     private Set<Appointment> appointments = new HashSet<>();
 
+    // Порядок по id: первая специализация та же, что выбирает findListRows (MIN(ds.id))
     @OneToMany(mappedBy = "doctor", cascade = CascadeType.ALL, orphanRemoval = true)
+    @OrderBy("id")
     private List<DoctorSpecialization> specializations = new ArrayList<>();
     // Getters, Setters
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package pin122.kursovaya.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Фото врача в отдельной таблице: оригинал и заранее подготовленные миниатюры
+ * Сущность врача фото не содержит, поэтому списки и поиск врачей не читают изображения из БД
+ */
+@Data
+@Entity
+@Table(name = "doctor_photos")
+@EqualsAndHashCode(exclude = {"doctor", "original", "thumbnailSmall", "thumbnailMedium"})
+public class DoctorPhoto {
+
+    @Id
+    @Column(name = "doctor_id")
+    private Long doctorId;
+
+    // ON DELETE CASCADE: удаление врача каскадом от users не упирается во внешний ключ фото
+    @OneToOne(fetch = FetchType.LAZY)
+    @MapsId
+    @JoinColumn(name = "doctor_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @JsonIgnore
+    private Doctor doctor;
+
+    @Column(name = "original", columnDefinition = "BYTEA", nullable = false)
+    private byte[] original;
+
+    @Column(name = "content_type", nullable = false, length = 64)
+    private String contentType;
+
+    // Миниатюры JPEG; null, если формат оригинала не удалось декодировать
+    @Column(name = "thumbnail_small", columnDefinition = "BYTEA")
+    private byte[] thumbnailSmall;
+
+    @Column(name = "thumbnail_medium", columnDefinition = "BYTEA")
+    private byte[] thumbnailMedium;
+
+    // SHA-256 оригинала (совпадает с Doctor.photoHash)
+    @Column(name = "hash", nullable = false, length = 64)
+    private String hash;
+
+    @Column(name = "updated_at", nullable = false)
+    private OffsetDateTime updatedAt = OffsetDateTime.now();
+}
@@ -11,7 +11,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
-public interface AppointmentRepository extends JpaRepository<Appointment, Long> {
+public interface AppointmentRepository extends JpaRepository<Appointment, Long>, AppointmentRepositoryCustom {
     List<Appointment> findByDoctorId(Long doctorId);
     
     /**
@@ -95,6 +95,33 @@ public interface AppointmentRepository extends JpaRepository<Appointment, Long>
     @Query("SELECT COUNT(a) FROM Appointment a WHERE a.patient.id = :patientId")
     Long countByPatientId(@Param("patientId") Long patientId);
     
+    /**
+     * Атомарная запись на свободный слот одним UPDATE: условие patient IS NULL проверяет сама БД,
+     * поэтому из нескольких одновременных запросов на один слот успешен ровно один
+     * @return 1 - слот занят этим пациентом, 0 - слот уже занят или не существует
+     */
+    @org.springframework.data.jpa.repository.Modifying
+    @Query("UPDATE Appointment a SET a.patient = :patient, a.status = 'scheduled', a.updatedAt = :updatedAt " +
+           "WHERE a.id = :id AND a.patient IS NULL")
+    int claimFreeSlot(@Param("id") Long id,
+                      @Param("patient") pin122.kursovaya.model.Patient patient,
+                      @Param("updatedAt") OffsetDateTime updatedAt);
+    
+    /**
+     * Занятость слотов расписаний для SlotAvailabilityIndex (без загрузки сущностей)
+     * @return [id, scheduleId, startTime, занят (patient IS NOT NULL)]
+     */
+    @Query("SELECT a.id, a.schedule.id, a.startTime, CASE WHEN a.patient IS NULL THEN false ELSE true END " +
+           "FROM Appointment a WHERE a.schedule.id IN :scheduleIds")
+    List<Object[]> findSlotStates(@Param("scheduleIds") List<Long> scheduleIds);
+    
+    /**
+     * Дни расписаний врачей, в которых у пациента есть записи (для сброса индекса свободных слотов)
+     * @return [doctorId, dateAt]
+     */
+    @Query("SELECT DISTINCT s.doctor.id, s.dateAt FROM Appointment a JOIN a.schedule s WHERE a.patient.id = :patientId")
+    List<Object[]> findScheduleDaysByPatientId(@Param("patientId") Long patientId);
+    
     @org.springframework.data.jpa.repository.Modifying
     @Query("UPDATE Appointment a SET a.patient = null WHERE a.patient.id = :patientId")
     void clearPatientFromAppointments(@Param("patientId") Long patientId);
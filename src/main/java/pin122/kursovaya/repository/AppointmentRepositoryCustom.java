@@ -0,0 +1,24 @@
+package pin122.kursovaya.repository;
+
+import pin122.kursovaya.dto.AppointmentListRow;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Запросы списков записей с проекцией в AppointmentListRow (реализация - AppointmentRepositoryCustomImpl)
+ */
+public interface AppointmentRepositoryCustom {
+
+    /**
+     * Записи для списков одним SQL запросом: фильтры со значением null не применяются
+     * @param doctorId ID врача
+     * @param patientId ID пациента
+     * @param status Статус записи
+     * @param from Начало периода (включительно, по startTime)
+     * @param to Конец периода (не включительно)
+     * @param newestFirst true - сортировка по startTime по убыванию, false - по возрастанию
+     */
+    List<AppointmentListRow> findListRows(Long doctorId, Long patientId, String status,
+                                          OffsetDateTime from, OffsetDateTime to, boolean newestFirst);
+}
@@ -0,0 +1,79 @@
+package pin122.kursovaya.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import pin122.kursovaya.dto.AppointmentListRow;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AppointmentRepositoryCustomImpl implements AppointmentRepositoryCustom {
+
+    // Первая специализация врача (как getSpecializations().get(0)) - подзапросом в том же SQL
+    private static final String SELECT_ROWS = """
+        SELECT new pin122.kursovaya.dto.AppointmentListRow(
+            a.id, a.schedule.id, d.id, p.id, r.id,
+            a.startTime, a.endTime, a.status, a.source, a.createdBy.id,
+            a.createdAt, a.updatedAt, a.cancelReason, a.diagnosis,
+            p.birthDate, p.gender, p.insuranceNumber,
+            pu.firstName, pu.lastName, pu.middleName, pu.phone, pu.email,
+            d.displayName, d.experienceYears, d.photoHash,
+            du.firstName, du.lastName, du.middleName,
+            (SELECT s.name FROM DoctorSpecialization ds JOIN ds.specialization s
+             WHERE ds.id = (SELECT MIN(ds2.id) FROM DoctorSpecialization ds2 WHERE ds2.doctor.id = d.id)),
+            r.code, r.name)
+        FROM Appointment a
+        JOIN a.doctor d
+        LEFT JOIN d.user du
+        LEFT JOIN a.patient p
+        LEFT JOIN p.user pu
+        LEFT JOIN a.room r
+        """;
+
+    private final EntityManager entityManager;
+
+    public AppointmentRepositoryCustomImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public List<AppointmentListRow> findListRows(Long doctorId, Long patientId, String status,
+                                                 OffsetDateTime from, OffsetDateTime to, boolean newestFirst) {
+        // Условия добавляются только для заданных фильтров, чтобы не передавать в PostgreSQL нетипизированные null
+        List<String> conditions = new ArrayList<>();
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        if (doctorId != null) {
+            conditions.add("d.id = :doctorId");
+            parameters.put("doctorId", doctorId);
+        }
+        if (patientId != null) {
+            conditions.add("p.id = :patientId");
+            parameters.put("patientId", patientId);
+        }
+        if (status != null) {
+            conditions.add("a.status = :status");
+            parameters.put("status", status);
+        }
+        if (from != null) {
+            conditions.add("a.startTime >= :from");
+            parameters.put("from", from);
+        }
+        if (to != null) {
+            conditions.add("a.startTime < :to");
+            parameters.put("to", to);
+        }
+
+        StringBuilder jpql = new StringBuilder(SELECT_ROWS);
+        if (!conditions.isEmpty()) {
+            jpql.append("WHERE ").append(String.join(" AND ", conditions)).append(' ');
+        }
+        jpql.append("ORDER BY a.startTime ").append(newestFirst ? "DESC" : "ASC");
+
+        TypedQuery<AppointmentListRow> query = entityManager.createQuery(jpql.toString(), AppointmentListRow.class);
+        parameters.forEach(query::setParameter);
+        return query.getResultList();
+    }
+}
@@ -0,0 +1,29 @@
+package pin122.kursovaya.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import pin122.kursovaya.model.DoctorPhoto;
+
+import java.util.List;
+
+public interface DoctorPhotoRepository extends JpaRepository<DoctorPhoto, Long> {
+
+    /**
+     * Только оригинал: [original, hash, contentType]
+     */
+    @Query("SELECT p.original, p.hash, p.contentType FROM DoctorPhoto p WHERE p.doctorId = :doctorId")
+    List<Object[]> findOriginal(@Param("doctorId") Long doctorId);
+
+    /**
+     * Только малая миниатюра: [thumbnailSmall, hash]
+     */
+    @Query("SELECT p.thumbnailSmall, p.hash FROM DoctorPhoto p WHERE p.doctorId = :doctorId")
+    List<Object[]> findThumbnailSmall(@Param("doctorId") Long doctorId);
+
+    /**
+     * Только средняя миниатюра: [thumbnailMedium, hash]
+     */
+    @Query("SELECT p.thumbnailMedium, p.hash FROM DoctorPhoto p WHERE p.doctorId = :doctorId")
+    List<Object[]> findThumbnailMedium(@Param("doctorId") Long doctorId);
+}
@@ -40,4 +40,4 @@ public interface DoctorRepository extends JpaRepository<Doctor, Long> {
     
     @Query("SELECT d FROM Doctor d WHERE d.user.id = :userId")
     java.util.Optional<Doctor> findByUserId(@Param("userId") Long userId);
-}
\ No newline at end of file
+}
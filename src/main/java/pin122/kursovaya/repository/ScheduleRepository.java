@@ -1,6 +1,8 @@
 package pin122.kursovaya.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import pin122.kursovaya.model.Schedule;
 
 import java.time.LocalDate;
@@ -9,4 +11,12 @@ import java.util.List;
 public interface ScheduleRepository extends JpaRepository<Schedule, Long> {
     List<Schedule> findByDoctorId(Long doctorId);
     List<Schedule> findByDoctorIdAndDateAt(Long doctorId, LocalDate dateAt);
+    
+    /**
+     * Раскладка слотов расписаний врача на день для SlotAvailabilityIndex (без загрузки сущностей)
+     * @return [id, startTime, endTime, slotDurationMinutes, roomId]
+     */
+    @Query("SELECT s.id, s.startTime, s.endTime, s.slotDurationMinutes, s.room.id FROM Schedule s " +
+           "WHERE s.doctor.id = :doctorId AND s.dateAt = :dateAt ORDER BY s.startTime")
+    List<Object[]> findSlotLayout(@Param("doctorId") Long doctorId, @Param("dateAt") LocalDate dateAt);
 }
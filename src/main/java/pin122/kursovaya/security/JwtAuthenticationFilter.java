@@ -1,5 +1,6 @@
 package pin122.kursovaya.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,7 +9,6 @@ import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -20,11 +20,11 @@ import java.io.IOException;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtTokenProvider jwtTokenProvider;
-    private final UserDetailsService userDetailsService;
+    private final JwtPrincipalResolver jwtPrincipalResolver;
 
-    public JwtAuthenticationFilter(JwtTokenProvider jwtTokenProvider, UserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtTokenProvider jwtTokenProvider, JwtPrincipalResolver jwtPrincipalResolver) {
         this.jwtTokenProvider = jwtTokenProvider;
-        this.userDetailsService = userDetailsService;
+        this.jwtPrincipalResolver = jwtPrincipalResolver;
     }
 
     @Override
@@ -58,19 +58,21 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         jwt = authHeader.substring(7);
         try {
-            // Проверяем, что токен валидный
-            if (!jwtTokenProvider.validateToken(jwt)) {
+            // Проверяем подпись и срок действия токена (один разбор токена на запрос)
+            Claims claims = jwtTokenProvider.parseValidClaims(jwt);
+            if (claims == null) {
                 // Токен невалидный - Spring Security вернет 401 через AuthenticationEntryPoint
                 filterChain.doFilter(request, response);
                 return;
             }
 
-            userEmail = jwtTokenProvider.extractUsername(jwt);
+            userEmail = claims.getSubject();
 
             if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = this.userDetailsService.loadUserByUsername(userEmail);
+                // Пользователь из claims токена (без БД) или из БД для токенов старого формата
+                UserDetails userDetails = jwtPrincipalResolver.resolve(claims);
 
-                if (jwtTokenProvider.validateToken(jwt, userDetails)) {
+                if (userDetails != null) {
                     UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                             userDetails,
                             null,
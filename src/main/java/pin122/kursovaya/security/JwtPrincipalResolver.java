@@ -0,0 +1,75 @@
+package pin122.kursovaya.security;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Построение пользователя по проверенным claims JWT для JwtAuthenticationFilter и WebSocketAuthInterceptor
+ *
+ * app.security.auth-mode:
+ * claims - пользователь строится из claims (роли и id подписаны в токене), БД не используется;
+ *          токены старого формата без ролей загружаются через CustomUserDetailsService
+ * database - пользователь загружается из БД на каждый запрос (прежнее поведение)
+ */
+@Component
+public class JwtPrincipalResolver {
+
+    private final UserDetailsService userDetailsService;
+    private final TokenRevocationService tokenRevocationService;
+    private final boolean claimsMode;
+
+    private final AtomicLong claimsAuthentications = new AtomicLong();
+    private final AtomicLong databaseAuthentications = new AtomicLong();
+
+    public JwtPrincipalResolver(UserDetailsService userDetailsService,
+                                TokenRevocationService tokenRevocationService,
+                                @Value("${app.security.auth-mode:claims}") String authMode) {
+        this.userDetailsService = userDetailsService;
+        this.tokenRevocationService = tokenRevocationService;
+        this.claimsMode = !"database".equalsIgnoreCase(authMode);
+    }
+
+    /**
+     * @param claims Claims токена, уже проверенного JwtTokenProvider.parseValidClaims
+     * @return Пользователь или null, если токен отозван или не соответствует пользователю
+     */
+    public UserDetails resolve(Claims claims) {
+        String email = claims.getSubject();
+        if (email == null) {
+            return null;
+        }
+
+        if (claimsMode) {
+            JwtUserPrincipal principal = JwtUserPrincipal.fromClaims(claims);
+            if (principal != null) {
+                if (tokenRevocationService.isRevoked(principal.getUserId(), claims.getIssuedAt())) {
+                    return null;
+                }
+                claimsAuthentications.incrementAndGet();
+                return principal;
+            }
+        }
+
+        UserDetails userDetails = userDetailsService.loadUserByUsername(email);
+        databaseAuthentications.incrementAndGet();
+        return email.equals(userDetails.getUsername()) ? userDetails : null;
+    }
+
+    /**
+     * Метрики аутентификации: из claims, из БД и проверки отзыва токенов
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "mode", claimsMode ? "claims" : "database",
+                "claimsAuthentications", claimsAuthentications.get(),
+                "databaseAuthentications", databaseAuthentications.get(),
+                "revocation", tokenRevocationService.getStats()
+        );
+    }
+}
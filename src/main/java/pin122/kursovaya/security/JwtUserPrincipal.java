@@ -0,0 +1,82 @@
+package pin122.kursovaya.security;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import pin122.kursovaya.utils.JwtTokenProvider;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Пользователь, восстановленный из подписанных claims JWT без обращения к БД
+ * Имя пользователя - email (как у CustomUserDetailsService), поэтому Authentication.getName() не меняется
+ */
+public class JwtUserPrincipal implements UserDetails {
+
+    private final Long userId;
+    private final Long patientId;
+    private final Long doctorId;
+    private final String email;
+    private final List<GrantedAuthority> authorities;
+
+    public JwtUserPrincipal(Long userId, Long patientId, Long doctorId, String email, List<GrantedAuthority> authorities) {
+        this.userId = userId;
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.email = email;
+        this.authorities = authorities;
+    }
+
+    /**
+     * @return Пользователь из claims или null, если токен выдан до появления claims с ролями и id
+     */
+    public static JwtUserPrincipal fromClaims(Claims claims) {
+        Long userId = claims.get(JwtTokenProvider.CLAIM_USER_ID, Long.class);
+        Object roles = claims.get(JwtTokenProvider.CLAIM_ROLES);
+        if (userId == null || claims.getSubject() == null || !(roles instanceof Collection<?> roleList)) {
+            return null;
+        }
+
+        List<GrantedAuthority> authorities = roleList.stream()
+                .map(String::valueOf)
+                .<GrantedAuthority>map(SimpleGrantedAuthority::new)
+                .toList();
+
+        return new JwtUserPrincipal(
+                userId,
+                claims.get(JwtTokenProvider.CLAIM_PATIENT_ID, Long.class),
+                claims.get(JwtTokenProvider.CLAIM_DOCTOR_ID, Long.class),
+                claims.getSubject(),
+                authorities
+        );
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public Long getPatientId() {
+        return patientId;
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getPassword() {
+        return null;
+    }
+
+    @Override
+    public String getUsername() {
+        return email;
+    }
+}
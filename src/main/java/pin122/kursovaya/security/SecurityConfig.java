@@ -2,6 +2,7 @@ package pin122.kursovaya.security;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -50,6 +51,7 @@ public class SecurityConfig {
                         .requestMatchers("/api/test/**").permitAll() // Тестовые эндпоинты без авторизации
                         .requestMatchers("/error").permitAll()
                         .requestMatchers("/queue-websocket/**").permitAll() // WebSocket endpoint
+                        .requestMatchers(HttpMethod.GET, "/api/doctors/*/photo").permitAll() // Фото для <img> без заголовка Authorization
                         .anyRequest().authenticated()
                 )
                 .exceptionHandling(exceptions -> exceptions
@@ -0,0 +1,147 @@
+package pin122.kursovaya.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Отзыв JWT пользователя при деактивации, удалении или смене email
+ *
+ * Время отзыва хранится в Redis (auth:revoked:{userId}) не дольше срока жизни токена;
+ * токены, выданные до этого времени, не принимаются. Проверка на запрос не обращается к PostgreSQL:
+ * результат чтения Redis кэшируется в памяти на app.security.revocation-cache-ms,
+ * поэтому на других узлах отзыв вступает в силу с этой задержкой (на текущем узле - сразу).
+ * Время выдачи токена хранится с точностью до секунды: токен, выданный в ту же секунду после отзыва,
+ * тоже считается отозванным
+ *
+ * Устаревшие записи кэша удаляются периодической очисткой (app.security.revocation-sweep-ms):
+ * запись без отзыва живёт cacheMs, запись с отзывом - пока могут быть живы отозванные токены
+ * (она нужна как последнее известное значение при недоступности Redis)
+ */
+@Service
+public class TokenRevocationService {
+
+    private static final String REVOKED_KEY_PREFIX = "auth:revoked:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long cacheMs;
+    private final long tokenLifetimeMs;
+
+    private final Map<Long, CachedRevocation> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong redisLookups = new AtomicLong();
+    private final AtomicLong revokedRejected = new AtomicLong();
+
+    private record CachedRevocation(long revokedAt, long loadedAt) {
+    }
+
+    public TokenRevocationService(RedisTemplate<String, String> redisTemplate,
+                                  @Value("${app.security.revocation-cache-ms:5000}") long cacheMs,
+                                  @Value("${jwt.expiration:86400000}") long tokenLifetimeMs) {
+        this.redisTemplate = redisTemplate;
+        this.cacheMs = Math.max(0, cacheMs);
+        this.tokenLifetimeMs = tokenLifetimeMs;
+    }
+
+    /**
+     * Отзывает все токены пользователя, выданные до текущего момента
+     * @param userId ID пользователя
+     */
+    public void revokeUser(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            redisTemplate.opsForValue().set(REVOKED_KEY_PREFIX + userId, String.valueOf(now),
+                    Duration.ofMillis(Math.max(1000, tokenLifetimeMs)));
+        } catch (Exception e) {
+            System.err.println("DEBUG Auth: Не удалось сохранить отзыв токенов пользователя " + userId + ": " + e.getMessage());
+        }
+        cache.put(userId, new CachedRevocation(now, now));
+        System.out.println("DEBUG Auth: Токены пользователя " + userId + " отозваны");
+    }
+
+    /**
+     * @param userId ID пользователя из claims
+     * @param issuedAt Время выдачи токена (iat)
+     * @return true, если токен выдан до отзыва токенов пользователя
+     */
+    public boolean isRevoked(Long userId, Date issuedAt) {
+        if (userId == null || issuedAt == null) {
+            return false;
+        }
+        long revokedAt = getRevokedAt(userId);
+        if (revokedAt > 0 && issuedAt.getTime() < revokedAt) {
+            revokedRejected.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private long getRevokedAt(Long userId) {
+        long now = System.currentTimeMillis();
+        CachedRevocation cached = cache.get(userId);
+        if (cached != null && now - cached.loadedAt() < cacheMs) {
+            cacheHits.incrementAndGet();
+            return cached.revokedAt();
+        }
+
+        redisLookups.incrementAndGet();
+        long revokedAt = 0;
+        try {
+            String value = redisTemplate.opsForValue().get(REVOKED_KEY_PREFIX + userId);
+            if (value != null) {
+                revokedAt = Long.parseLong(value);
+            }
+        } catch (Exception e) {
+            // Redis недоступен - используем последнее известное значение
+            System.err.println("DEBUG Auth: Ошибка проверки отзыва токенов пользователя " + userId + ": " + e.getMessage());
+            return cached != null ? cached.revokedAt() : 0;
+        }
+        cache.put(userId, new CachedRevocation(revokedAt, now));
+        return revokedAt;
+    }
+
+    /**
+     * Удаляет из кэша записи, которые уже не будут использованы
+     */
+    @Scheduled(fixedDelayString = "${app.security.revocation-sweep-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        int before = cache.size();
+        cache.values().removeIf(cached -> isExpired(cached, now));
+        int evicted = before - cache.size();
+        if (evicted > 0) {
+            System.out.println("DEBUG Auth: Удалено устаревших записей кэша отзыва: " + evicted);
+        }
+    }
+
+    private boolean isExpired(CachedRevocation cached, long now) {
+        if (cached.revokedAt() > 0) {
+            // Токены, выданные до отзыва, к этому времени истекли сами
+            return now - cached.revokedAt() >= tokenLifetimeMs;
+        }
+        return now - cached.loadedAt() >= cacheMs;
+    }
+
+    /**
+     * Метрики проверки отзыва: попадания в локальный кэш, чтения Redis и отклонённые токены
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "cacheHits", cacheHits.get(),
+                "redisLookups", redisLookups.get(),
+                "revokedRejected", revokedRejected.get(),
+                "cachedUsers", cache.size(),
+                "cacheMs", cacheMs
+        );
+    }
+}
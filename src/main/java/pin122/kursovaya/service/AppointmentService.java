@@ -6,10 +6,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import pin122.kursovaya.dto.AppointmentDto;
+import pin122.kursovaya.dto.AppointmentListRow;
 import pin122.kursovaya.model.Appointment;
 import pin122.kursovaya.model.Patient;
 import pin122.kursovaya.repository.AppointmentRepository;
 import pin122.kursovaya.repository.PatientRepository;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
@@ -27,28 +29,39 @@ public class AppointmentService {
     private final AppointmentRepository appointmentRepository;
     private final PatientRepository patientRepository;
     private final RedisQueueService redisQueueService;
+    private final QueueSnapshotService queueSnapshotService;
     private final EmailNotificationService emailNotificationService;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
 
     @Value("${app.notifications.enabled:true}")
     private boolean notificationsEnabled;
 
+    // projection - списки записей одним SQL запросом (AppointmentListRow), entity - загрузка сущностей и mapToDto
+    @Value("${app.appointments.read-path:projection}")
+    private String readPath;
+
     public AppointmentService(AppointmentRepository appointmentRepository, 
                               PatientRepository patientRepository,
                               RedisQueueService redisQueueService,
-                              EmailNotificationService emailNotificationService) {
+                              QueueSnapshotService queueSnapshotService,
+                              EmailNotificationService emailNotificationService,
+                              SlotAvailabilityIndex slotAvailabilityIndex) {
         this.appointmentRepository = appointmentRepository;
         this.patientRepository = patientRepository;
         this.redisQueueService = redisQueueService;
+        this.queueSnapshotService = queueSnapshotService;
         this.emailNotificationService = emailNotificationService;
+        this.slotAvailabilityIndex = slotAvailabilityIndex;
     }
 
     public List<AppointmentDto> checkAppointments(Date start, Date end, Long doctorId) {
-        return appointmentRepository.findAll().stream()
-                .map(this::mapToDto)
-                .collect(Collectors.toList());
+        return getAllAppointments();
     }
 
     public List<AppointmentDto> getAllAppointments() {
+        if (isProjectionReadPath()) {
+            return mapRows(appointmentRepository.findListRows(null, null, null, null, null, false));
+        }
         return appointmentRepository.findAll().stream()
                 .map(this::mapToDto)
                 .collect(Collectors.toList());
@@ -70,6 +83,10 @@ public class AppointmentService {
             startOfNextDay = date.plusDays(1).atStartOfDay().atOffset(java.time.ZoneOffset.UTC);
         }
         
+        if (isProjectionReadPath()) {
+            return mapRows(appointmentRepository.findListRows(doctorId, null, status, startOfDay, startOfNextDay, false));
+        }
+        
         List<Appointment> appointments;
         
         // Выбираем метод репозитория в зависимости от комбинации фильтров
@@ -97,6 +114,9 @@ public class AppointmentService {
     }
 
     public List<AppointmentDto> getAppointmentsByDoctor(Long doctorId) {
+        if (isProjectionReadPath()) {
+            return mapRows(appointmentRepository.findListRows(doctorId, null, null, null, null, true));
+        }
         return appointmentRepository.findByDoctorIdWithDetails(doctorId).stream()
                 .map(this::mapToDto)
                 .collect(Collectors.toList());
@@ -106,12 +126,18 @@ public class AppointmentService {
         OffsetDateTime startOfDay = date.atStartOfDay().atOffset(java.time.ZoneOffset.UTC);
         OffsetDateTime startOfNextDay = date.plusDays(1).atStartOfDay().atOffset(java.time.ZoneOffset.UTC);
         
+        if (isProjectionReadPath()) {
+            return mapRows(appointmentRepository.findListRows(doctorId, null, null, startOfDay, startOfNextDay, false));
+        }
         return appointmentRepository.findByDoctorIdAndDate(doctorId, startOfDay, startOfNextDay).stream()
                 .map(this::mapToDto)
                 .collect(Collectors.toList());
     }
 
     public List<AppointmentDto> getAppointmentsByPatient(Long patientId) {
+        if (isProjectionReadPath()) {
+            return mapRows(appointmentRepository.findListRows(null, patientId, null, null, null, true));
+        }
         return appointmentRepository.findByPatientIdWithDetails(patientId).stream()
                 .map(this::mapToDto)
                 .collect(Collectors.toList());
@@ -128,7 +154,14 @@ public class AppointmentService {
     }
 
     public void deleteAppointment(Long id) {
+        Optional<Appointment> appointment = appointmentRepository.findById(id);
         appointmentRepository.deleteById(id);
+        // День врача в индексе свободных слотов перечитается из БД
+        appointment.ifPresent(a -> {
+            if (a.getDoctor() != null && a.getSchedule() != null) {
+                slotAvailabilityIndex.invalidate(a.getDoctor().getId(), a.getSchedule().getDateAt());
+            }
+        });
     }
     
     @Transactional
@@ -167,16 +200,15 @@ public class AppointmentService {
         appointment.setUpdatedAt(OffsetDateTime.now());
         
         Appointment saved = appointmentRepository.save(appointment);
+        slotAvailabilityIndex.onAppointmentChanged(saved);
         
-        // Удаляем из очереди, если пациент был в очереди
-        if (saved.getPatient() != null && doctorId != null) {
-            redisQueueService.removeFromQueue(
+        // Удаляем из очереди, если пациент был в очереди и у него нет другого приёма к этому врачу сегодня
+        if (saved.getPatient() != null && doctorId != null && !queueSnapshotService.onAppointmentChanged(saved)) {
+            // Инкрементально обновляем очередь и отправляем WebSocket уведомления всем в очереди
+            redisQueueService.removeFromQueueIncremental(
                 saved.getPatient().getId(),
                 doctorId
             );
-            
-            // Пересчитываем очередь и отправляем WebSocket уведомления всем в очереди
-            redisQueueService.recalculateQueueForDoctor(doctorId);
         }
         
         // Отправляем email уведомление об отмене
@@ -218,14 +250,13 @@ public class AppointmentService {
         
         // Если статус стал "terminal" → удаляем из очереди и пересчитываем позиции
         if (isTerminalStatus(newStatus) && !isTerminalStatus(oldStatus)) {
-            if (saved.getPatient() != null && doctorId != null) {
-                redisQueueService.removeFromQueue(
+            // Пациент с другим приёмом к этому врачу сегодня остаётся в очереди по нему
+            if (saved.getPatient() != null && doctorId != null && !queueSnapshotService.onAppointmentChanged(saved)) {
+                // Инкрементально обновляем очередь и отправляем WebSocket уведомления всем в очереди
+                redisQueueService.removeFromQueueIncremental(
                     saved.getPatient().getId(),
                     doctorId
                 );
-                
-                // Пересчитываем очередь и отправляем WebSocket уведомления всем в очереди
-                redisQueueService.recalculateQueueForDoctor(doctorId);
             }
         }
         
@@ -263,58 +294,167 @@ public class AppointmentService {
                 .collect(Collectors.toList());
     }
     
-    @Transactional
-    public Optional<AppointmentDto> bookAppointment(Long appointmentId, Long userId) {
-        Optional<Appointment> appointmentOpt = appointmentRepository.findById(appointmentId);
-        if (appointmentOpt.isEmpty()) {
-            return Optional.empty();
+    /**
+     * Результат записи на слот
+     */
+    public enum BookingStatus {
+        BOOKED,
+        ALREADY_TAKEN,
+        APPOINTMENT_NOT_FOUND,
+        PATIENT_NOT_FOUND
+    }
+
+    public static class BookingResult {
+        private final BookingStatus status;
+        private final AppointmentDto appointment;
+
+        public BookingResult(BookingStatus status, AppointmentDto appointment) {
+            this.status = status;
+            this.appointment = appointment;
         }
-        
-        Appointment appointment = appointmentOpt.get();
-        
-        // Проверяем, что appointment не занят
-        if (appointment.getPatient() != null) {
-            return Optional.empty(); // Уже занят
+
+        public BookingStatus getStatus() {
+            return status;
         }
-        
+
+        public AppointmentDto getAppointment() {
+            return appointment;
+        }
+    }
+
+    @Transactional
+    public Optional<AppointmentDto> bookAppointment(Long appointmentId, Long userId) {
+        return Optional.ofNullable(tryBookAppointment(appointmentId, userId).getAppointment());
+    }
+
+    /**
+     * Записывает пациента на свободный слот
+     * Слот занимается одним условным UPDATE (AppointmentRepository.claimFreeSlot) без предварительного чтения:
+     * при одновременных запросах на один слот успешен ровно один, остальные сразу получают ALREADY_TAKEN
+     * без повторных попыток
+     * @param appointmentId ID слота
+     * @param userId ID пользователя-пациента
+     */
+    @Transactional
+    public BookingResult tryBookAppointment(Long appointmentId, Long userId) {
         // Находим пациента по user_id
         Optional<Patient> patientOpt = patientRepository.findByUserId(userId);
         
         if (patientOpt.isEmpty()) {
-            return Optional.empty(); // Пациент не найден
+            return new BookingResult(BookingStatus.PATIENT_NOT_FOUND, null); // Пациент не найден
         }
         
         Patient patient = patientOpt.get();
-        appointment.setPatient(patient);
-        appointment.setStatus("scheduled");
-        appointment.setUpdatedAt(java.time.OffsetDateTime.now());
         
-        Appointment saved = appointmentRepository.save(appointment);
+        if (appointmentRepository.claimFreeSlot(appointmentId, patient, OffsetDateTime.now()) == 0) {
+            // Слот не обновлён: занят другим пациентом или не существует (проверка только на этом пути)
+            return new BookingResult(appointmentRepository.existsById(appointmentId)
+                    ? BookingStatus.ALREADY_TAKEN
+                    : BookingStatus.APPOINTMENT_NOT_FOUND, null);
+        }
+        
+        // Запись со связанными сущностями одним запросом (для очереди, уведомления и ответа)
+        Appointment saved = appointmentRepository.findByIdWithDetails(appointmentId).orElseThrow();
+        slotAvailabilityIndex.onAppointmentChanged(saved);
+        
+        // Запись на сегодня сразу попадает в снимок очередей и в очередь врача
+        queueSnapshotService.onAppointmentChanged(saved);
         
         // Отправляем уведомление о записи
-        // Используем patient из контекста транзакции, чтобы гарантировать доступ к User
-        if (notificationsEnabled && patient.getUser() != null) {
-            saved.setPatient(patient); // Гарантируем, что patient с загруженным user установлен
+        if (notificationsEnabled && saved.getPatient() != null && saved.getPatient().getUser() != null) {
             emailNotificationService.sendAppointmentBookedNotification(saved);
         }
         
-        return Optional.of(mapToDto(saved));
+        return new BookingResult(BookingStatus.BOOKED, mapToDto(saved));
     }
     
-    private AppointmentDto mapToDto(Appointment appointment) {
-        java.time.LocalDateTime nowLocal = java.time.LocalDateTime.now();
-        boolean hasPatient = appointment.getPatient() != null;
-        
+    private boolean isProjectionReadPath() {
+        return !"entity".equalsIgnoreCase(readPath);
+    }
+    
+    /**
+     * isBooked = true если есть пациент ИЛИ если слот в прошлом (нельзя записаться в прошедший слот)
+     */
+    private static boolean isBooked(boolean hasPatient, OffsetDateTime startTime) {
         // Сравниваем по локальному времени (без учёта часовых поясов)
         // startTime из БД берём как LocalDateTime, игнорируя Z
         boolean isPastSlot = false;
-        if (appointment.getStartTime() != null) {
-            java.time.LocalDateTime slotLocal = appointment.getStartTime().toLocalDateTime();
-            isPastSlot = slotLocal.isBefore(nowLocal);
+        if (startTime != null) {
+            isPastSlot = startTime.toLocalDateTime().isBefore(java.time.LocalDateTime.now());
+        }
+        return hasPatient || isPastSlot;
+    }
+    
+    private List<AppointmentDto> mapRows(List<AppointmentListRow> rows) {
+        return rows.stream()
+                .map(this::mapRowToDto)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * То же, что mapToDto, но из строки проекции - без обращения к связанным сущностям
+     */
+    private AppointmentDto mapRowToDto(AppointmentListRow row) {
+        AppointmentDto dto = new AppointmentDto(
+                row.id(),
+                row.scheduleId(),
+                row.doctorId(),
+                row.patientId(),
+                row.roomId(),
+                row.startTime(),
+                row.endTime(),
+                isBooked(row.patientId() != null, row.startTime()),
+                row.status(),
+                row.source(),
+                row.createdBy(),
+                row.createdAt(),
+                row.updatedAt(),
+                row.cancelReason(),
+                row.diagnosis()
+        );
+        
+        if (row.patientId() != null) {
+            AppointmentDto.PatientInfo patientInfo = new AppointmentDto.PatientInfo();
+            patientInfo.setId(row.patientId());
+            patientInfo.setBirthDate(row.patientBirthDate() != null ? row.patientBirthDate().toString() : null);
+            patientInfo.setGender(row.patientGender() != null ?
+                    (row.patientGender() == 1 ? "Мужской" : "Женский") : null);
+            patientInfo.setInsuranceNumber(row.patientInsuranceNumber());
+            patientInfo.setFirstName(row.patientFirstName());
+            patientInfo.setLastName(row.patientLastName());
+            patientInfo.setMiddleName(row.patientMiddleName());
+            patientInfo.setPhone(row.patientPhone());
+            patientInfo.setEmail(row.patientEmail());
+            dto.setPatient(patientInfo);
         }
         
-        // isBooked = true если есть пациент ИЛИ если слот в прошлом (нельзя записаться в прошедший слот)
-        boolean isBooked = hasPatient || isPastSlot;
+        if (row.doctorId() != null) {
+            AppointmentDto.DoctorInfo doctorInfo = new AppointmentDto.DoctorInfo();
+            doctorInfo.setId(row.doctorId());
+            doctorInfo.setDisplayName(row.doctorDisplayName());
+            doctorInfo.setExperienceYears(row.doctorExperienceYears());
+            doctorInfo.setPhotoUrl(PhotoUtils.photoUrl(row.doctorId(), row.doctorPhotoHash()));
+            doctorInfo.setPhotoThumbnailUrl(PhotoUtils.photoUrl(row.doctorId(), row.doctorPhotoHash(), PhotoUtils.THUMBNAIL_SMALL));
+            doctorInfo.setFirstName(row.doctorFirstName());
+            doctorInfo.setLastName(row.doctorLastName());
+            doctorInfo.setMiddleName(row.doctorMiddleName());
+            doctorInfo.setSpecialization(row.doctorSpecialization());
+            dto.setDoctor(doctorInfo);
+        }
+        
+        if (row.roomId() != null) {
+            AppointmentDto.RoomInfo roomInfo = new AppointmentDto.RoomInfo();
+            roomInfo.setId(row.roomId());
+            roomInfo.setCode(row.roomCode());
+            roomInfo.setName(row.roomName());
+            dto.setRoom(roomInfo);
+        }
+        
+        return dto;
+    }
+    
+    private AppointmentDto mapToDto(Appointment appointment) {
+        boolean isBooked = isBooked(appointment.getPatient() != null, appointment.getStartTime());
         
         AppointmentDto dto = new AppointmentDto(
                 appointment.getId(),
@@ -361,10 +501,10 @@ public class AppointmentService {
             doctorInfo.setId(appointment.getDoctor().getId());
             doctorInfo.setDisplayName(appointment.getDoctor().getDisplayName());
             doctorInfo.setExperienceYears(appointment.getDoctor().getExperienceYears());
-            // Конвертируем byte[] в Base64 строку
-            if (appointment.getDoctor().getPhoto() != null) {
-                doctorInfo.setPhoto(java.util.Base64.getEncoder().encodeToString(appointment.getDoctor().getPhoto()));
-            }
+            // Только URL фото: сами байты отдаёт GET /api/doctors/{id}/photo с кэшированием по ETag
+            doctorInfo.setPhotoUrl(PhotoUtils.photoUrl(appointment.getDoctor().getId(), appointment.getDoctor().getPhotoHash()));
+            doctorInfo.setPhotoThumbnailUrl(PhotoUtils.photoUrl(appointment.getDoctor().getId(),
+                    appointment.getDoctor().getPhotoHash(), PhotoUtils.THUMBNAIL_SMALL));
             
             if (appointment.getDoctor().getUser() != null) {
                 var user = appointment.getDoctor().getUser();
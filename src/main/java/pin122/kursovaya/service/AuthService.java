@@ -2,8 +2,6 @@ package pin122.kursovaya.service;
 
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 import pin122.kursovaya.dto.AuthResponse;
 import pin122.kursovaya.dto.CreateUserDto;
@@ -18,18 +16,15 @@ public class AuthService {
     private final UserRepository userRepository;
     private final JwtTokenProvider jwtTokenProvider;
     private final AuthenticationManager authenticationManager;
-    private final UserDetailsService userDetailsService;
 
     public AuthService(
             UserRepository userRepository,
             JwtTokenProvider jwtTokenProvider,
-            AuthenticationManager authenticationManager,
-            UserDetailsService userDetailsService
+            AuthenticationManager authenticationManager
     ) {
         this.userRepository = userRepository;
         this.jwtTokenProvider = jwtTokenProvider;
         this.authenticationManager = authenticationManager;
-        this.userDetailsService = userDetailsService;
     }
 
     public AuthResponse login(LoginRequest loginRequest) {
@@ -41,12 +36,10 @@ public class AuthService {
                 )
         );
 
-        // Загружаем пользователя и генерируем токен
-        UserDetails userDetails = userDetailsService.loadUserByUsername(loginRequest.getEmail());
-        String token = jwtTokenProvider.generateToken(userDetails);
-
-        // Получаем пользователя для извлечения роли
+        // Загружаем пользователя (с ролями) и генерируем токен с ролями и id в claims
         User user = userRepository.findByEmail(loginRequest.getEmail());
+        String token = jwtTokenProvider.generateToken(user);
+
         String roleCode = null;
         if (user != null && user.getRoles() != null && !user.getRoles().isEmpty()) {
             // Берем код первой роли
@@ -56,6 +49,18 @@ public class AuthService {
         return new AuthResponse(token, loginRequest.getEmail(), "Успешный вход в систему", roleCode);
     }
 
+    /**
+     * Выдаёт токен с ролями и id в claims (после регистрации)
+     * @param email Email пользователя
+     */
+    public String generateToken(String email) {
+        User user = userRepository.findByEmail(email);
+        if (user == null) {
+            throw new IllegalArgumentException("Пользователь не найден: " + email);
+        }
+        return jwtTokenProvider.generateToken(user);
+    }
+
     public User authenticate(String email, String password) {
         User user = userRepository.findByEmail(email);
         if (user != null && EncryptPassword.verify(password, user.getPasswordHash())) {
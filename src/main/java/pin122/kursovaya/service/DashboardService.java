@@ -14,9 +14,9 @@ import pin122.kursovaya.model.Specialization;
 import pin122.kursovaya.repository.AppointmentRepository;
 import pin122.kursovaya.repository.PatientRepository;
 import pin122.kursovaya.repository.SpecializationRepository;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.time.OffsetDateTime;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -113,7 +113,8 @@ public class DashboardService {
         String firstName = null;
         String lastName = null;
         String middleName = null;
-        String doctorPhoto = null;
+        String doctorPhotoUrl = null;
+        String doctorPhotoThumbnailUrl = null;
         List<SpecializationDto> doctorSpecializations = Collections.emptyList();
         
         if (doctor != null) {
@@ -122,10 +123,9 @@ public class DashboardService {
                 lastName = doctor.getUser().getLastName();
                 middleName = doctor.getUser().getMiddleName();
             }
-            // Получаем фото доктора (конвертируем в Base64)
-            if (doctor.getPhoto() != null && doctor.getPhoto().length > 0) {
-                doctorPhoto = Base64.getEncoder().encodeToString(doctor.getPhoto());
-            }
+            // URL фото доктора (само фото загружается отдельно и кэшируется клиентом)
+            doctorPhotoUrl = PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash());
+            doctorPhotoThumbnailUrl = PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash(), PhotoUtils.THUMBNAIL_SMALL);
             // Получаем специализации доктора
             if (doctor.getSpecializations() != null) {
                 doctorSpecializations = doctor.getSpecializations().stream()
@@ -144,7 +144,8 @@ public class DashboardService {
                 firstName,
                 lastName,
                 middleName,
-                doctorPhoto,
+                doctorPhotoUrl,
+                doctorPhotoThumbnailUrl,
                 doctorSpecializations,
                 appointment.getPatient() != null ? appointment.getPatient().getId() : null,
                 appointment.getRoom() != null ? appointment.getRoom().getId() : null,
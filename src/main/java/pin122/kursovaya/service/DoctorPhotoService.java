@@ -0,0 +1,172 @@
+package pin122.kursovaya.service;
+
+import jakarta.persistence.EntityManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import pin122.kursovaya.model.Doctor;
+import pin122.kursovaya.model.DoctorPhoto;
+import pin122.kursovaya.repository.DoctorPhotoRepository;
+import pin122.kursovaya.utils.PhotoUtils;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Фото врачей: хранение оригинала и миниатюр в doctor_photos и выдача для GET /api/doctors/{id}/photo
+ *
+ * Миниатюры THUMBNAIL_SMALL и THUMBNAIL_MEDIUM строятся один раз при загрузке фото;
+ * запрос фото читает из БД только нужный вариант, без сущностей врача и остальных вариантов
+ */
+@Service
+public class DoctorPhotoService {
+
+    private final DoctorPhotoRepository doctorPhotoRepository;
+    private final EntityManager entityManager;
+    // Отдельная транзакция на каждое переносимое фото
+    private final TransactionTemplate rowTransaction;
+
+    public DoctorPhotoService(DoctorPhotoRepository doctorPhotoRepository, EntityManager entityManager,
+                              PlatformTransactionManager transactionManager) {
+        this.doctorPhotoRepository = doctorPhotoRepository;
+        this.entityManager = entityManager;
+        this.rowTransaction = new TransactionTemplate(transactionManager);
+        this.rowTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Содержимое фото для ответа
+     * @param data Байты изображения
+     * @param hash SHA-256 оригинала (ETag вместе с размером)
+     * @param contentType MIME-тип
+     */
+    public record PhotoContent(byte[] data, String hash, String contentType) {
+    }
+
+    /**
+     * Сохраняет фото врача с миниатюрами и обновляет Doctor.photoHash
+     * Врач должен быть уже сохранён (ID фото совпадает с ID врача)
+     */
+    @Transactional
+    public void savePhoto(Doctor doctor, byte[] original) {
+        String hash = PhotoUtils.hash(original);
+        if (hash == null) {
+            deletePhoto(doctor);
+            return;
+        }
+        if (hash.equals(doctor.getPhotoHash()) && doctorPhotoRepository.existsById(doctor.getId())) {
+            return; // То же фото - миниатюры не пересчитываем
+        }
+
+        DoctorPhoto photo = doctorPhotoRepository.findById(doctor.getId()).orElseGet(DoctorPhoto::new);
+        photo.setDoctor(doctor);
+        photo.setOriginal(original);
+        photo.setContentType(PhotoUtils.detectContentType(original));
+        photo.setThumbnailSmall(PhotoUtils.thumbnail(original, PhotoUtils.THUMBNAIL_SMALL));
+        photo.setThumbnailMedium(PhotoUtils.thumbnail(original, PhotoUtils.THUMBNAIL_MEDIUM));
+        photo.setHash(hash);
+        photo.setUpdatedAt(OffsetDateTime.now());
+        doctorPhotoRepository.save(photo);
+
+        doctor.setPhotoHash(hash);
+    }
+
+    /**
+     * Удаляет фото врача (в том числе перед удалением самого врача)
+     */
+    @Transactional
+    public void deletePhoto(Doctor doctor) {
+        if (doctor.getId() != null && doctorPhotoRepository.existsById(doctor.getId())) {
+            doctorPhotoRepository.deleteById(doctor.getId());
+        }
+        doctor.setPhotoHash(null);
+    }
+
+    /**
+     * Фото врача нужного размера
+     * @param size null - оригинал, THUMBNAIL_SMALL или THUMBNAIL_MEDIUM - миниатюра
+     *             (если миниатюру построить не удалось, отдаётся оригинал)
+     * @return Фото или пустой Optional, если фото у врача нет
+     */
+    @Transactional(readOnly = true)
+    public Optional<PhotoContent> getPhoto(Long doctorId, Integer size) {
+        if (size != null) {
+            List<Object[]> rows = size == PhotoUtils.THUMBNAIL_SMALL
+                    ? doctorPhotoRepository.findThumbnailSmall(doctorId)
+                    : doctorPhotoRepository.findThumbnailMedium(doctorId);
+            if (rows.isEmpty()) {
+                return Optional.empty();
+            }
+            if (rows.get(0)[0] != null) {
+                return Optional.of(new PhotoContent((byte[]) rows.get(0)[0], (String) rows.get(0)[1], "image/jpeg"));
+            }
+        }
+        List<Object[]> rows = doctorPhotoRepository.findOriginal(doctorId);
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new PhotoContent((byte[]) rows.get(0)[0], (String) rows.get(0)[1], (String) rows.get(0)[2]));
+    }
+
+    /**
+     * Переносит фото из прежней колонки doctors.photo в doctor_photos (с миниатюрами)
+     * и очищает колонку; на новой БД колонки нет, и перенос пропускается
+     *
+     * Каждое фото переносится в своей транзакции: перенесённые фото фиксируются сразу,
+     * ошибка на одном враче не откатывает остальных, а контекст персистентности не растёт
+     * @return Число перенесённых фото
+     */
+    public int migrateLegacyPhotos() {
+        Number legacyColumns = (Number) entityManager.createNativeQuery(
+                "SELECT count(*) FROM information_schema.columns WHERE table_name = 'doctors' AND column_name = 'photo'")
+                .getSingleResult();
+        if (legacyColumns.intValue() == 0) {
+            return 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object> ids = entityManager.createNativeQuery(
+                "SELECT id FROM doctors WHERE photo IS NOT NULL").getResultList();
+        int migrated = 0;
+        for (Object id : ids) {
+            Long doctorId = ((Number) id).longValue();
+            try {
+                if (Boolean.TRUE.equals(rowTransaction.execute(status -> migrateLegacyPhoto(doctorId)))) {
+                    migrated++;
+                }
+            } catch (Exception e) {
+                System.err.println("DEBUG DoctorPhotoService: Не удалось перенести фото врача " + doctorId + ": " + e.getMessage());
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Переносит фото одного врача; вызывается внутри транзакции rowTransaction
+     * @return true, если фото перенесено в doctor_photos
+     */
+    private boolean migrateLegacyPhoto(Long doctorId) {
+        // Фото читаются по одному, чтобы не держать в памяти все изображения сразу
+        byte[] original = (byte[]) entityManager.createNativeQuery(
+                "SELECT photo FROM doctors WHERE id = :id")
+                .setParameter("id", doctorId)
+                .getSingleResult();
+        Doctor doctor = entityManager.find(Doctor.class, doctorId);
+        boolean migrated = false;
+        if (doctor != null && original != null && original.length > 0
+                && !doctorPhotoRepository.existsById(doctorId)) {
+            savePhoto(doctor, original);
+            migrated = true;
+        }
+        entityManager.createNativeQuery("UPDATE doctors SET photo = NULL WHERE id = :id")
+                .setParameter("id", doctorId)
+                .executeUpdate();
+        // Изображения врача больше не нужны - освобождаем контекст до следующего врача
+        entityManager.flush();
+        entityManager.clear();
+        return migrated;
+    }
+}
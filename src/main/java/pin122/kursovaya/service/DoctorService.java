@@ -1,6 +1,8 @@
 package pin122.kursovaya.service;
 
 import jakarta.validation.Valid;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -29,7 +31,9 @@ import pin122.kursovaya.repository.RoleRepository;
 import pin122.kursovaya.repository.ScheduleRepository;
 import pin122.kursovaya.repository.SpecializationRepository;
 import pin122.kursovaya.repository.UserRepository;
+import pin122.kursovaya.security.TokenRevocationService;
 import pin122.kursovaya.utils.FormatUtils;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.time.OffsetDateTime;
 import java.util.Base64;
@@ -48,12 +52,16 @@ public class DoctorService {
     private final AppointmentRepository appointmentRepository;
     private final ScheduleRepository scheduleRepository;
     private final QueueEntryRepository queueEntryRepository;
+    private final TokenRevocationService tokenRevocationService;
+    private final DoctorPhotoService doctorPhotoService;
 
     public DoctorService(DoctorRepository doctorRepository, ReviewRepository reviewRepository, 
                         SpecializationRepository specializationRepository, UserRepository userRepository,
                         RoleRepository roleRepository, EntityManager entityManager,
                         AppointmentRepository appointmentRepository, ScheduleRepository scheduleRepository,
-                        QueueEntryRepository queueEntryRepository) {
+                        QueueEntryRepository queueEntryRepository,
+                        TokenRevocationService tokenRevocationService,
+                        DoctorPhotoService doctorPhotoService) {
         this.doctorRepository = doctorRepository;
         this.reviewRepository = reviewRepository;
         this.specializationRepository = specializationRepository;
@@ -63,6 +71,8 @@ public class DoctorService {
         this.appointmentRepository = appointmentRepository;
         this.scheduleRepository = scheduleRepository;
         this.queueEntryRepository = queueEntryRepository;
+        this.tokenRevocationService = tokenRevocationService;
+        this.doctorPhotoService = doctorPhotoService;
     }
 
     @Transactional(readOnly = true)
@@ -188,6 +198,21 @@ public class DoctorService {
     public Optional<DoctorDto> getDoctorById(Long id) {
         return doctorRepository.findById(id).stream().map(this::mapToDto).findFirst();
     }
+
+    /**
+     * Переносит фото, сохранённые в прежней колонке doctors.photo, в doctor_photos с миниатюрами
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateLegacyPhotos() {
+        try {
+            int migrated = doctorPhotoService.migrateLegacyPhotos();
+            if (migrated > 0) {
+                System.out.println("DEBUG DoctorService: Фото врачей перенесены в doctor_photos: " + migrated);
+            }
+        } catch (Exception e) {
+            System.err.println("DEBUG DoctorService: Ошибка переноса фото врачей: " + e.getMessage());
+        }
+    }
     
 
     public DoctorDto saveDoctor(@Valid Doctor doctor) {
@@ -227,24 +252,17 @@ public class DoctorService {
         doctor.setCreatedAt(OffsetDateTime.now());
         doctor.setUpdatedAt(OffsetDateTime.now());
         
-        // Обрабатываем фото (Base64 -> byte[])
+        // Сохраняем врача
+        Doctor savedDoctor = doctorRepository.save(doctor);
+        
+        // Обрабатываем фото (Base64 -> byte[]), миниатюры строятся один раз здесь
         if (request.getPhoto() != null && !request.getPhoto().isEmpty()) {
-            try {
-                String photoData = request.getPhoto();
-                // Убираем префикс Data URL если он есть (например: data:image/jpeg;base64,)
-                if (photoData.contains(",")) {
-                    photoData = photoData.substring(photoData.indexOf(",") + 1);
-                }
-                byte[] photoBytes = Base64.getDecoder().decode(photoData);
-                doctor.setPhoto(photoBytes);
-            } catch (IllegalArgumentException e) {
-                // Невалидный Base64, игнорируем
+            byte[] photoBytes = decodePhoto(request.getPhoto());
+            if (photoBytes != null) {
+                doctorPhotoService.savePhoto(savedDoctor, photoBytes);
             }
         }
         
-        // Сохраняем врача
-        Doctor savedDoctor = doctorRepository.save(doctor);
-        
         // Добавляем специализации, если они указаны
         if (request.getSpecializationIds() != null && !request.getSpecializationIds().isEmpty()) {
             for (Long specId : request.getSpecializationIds()) {
@@ -298,8 +316,16 @@ public class DoctorService {
         
         // 5. Специализации удалятся автоматически через orphanRemoval = true
         
-        // 6. Удаляем врача (это также удалит связанного User через каскад)
+        // 6. Удаляем фото и миниатюры (отдельная таблица doctor_photos)
+        doctorPhotoService.deletePhoto(doctor);
+        
+        // 7. Удаляем врача (это также удалит связанного User через каскад)
         doctorRepository.delete(doctor);
+        
+        // 8. Отзываем токены удалённого пользователя (в них подписаны роли и id врача)
+        if (doctor.getUser() != null) {
+            tokenRevocationService.revokeUser(doctor.getUser().getId());
+        }
     }
     
     /**
@@ -321,8 +347,10 @@ public class DoctorService {
         
         // Обновляем данные пользователя, если они переданы
         if (request.getUser() != null) {
-            if (request.getUser().getEmail() != null) {
+            if (request.getUser().getEmail() != null && !request.getUser().getEmail().equals(user.getEmail())) {
                 user.setEmail(request.getUser().getEmail());
+                // Токены со старым email больше не должны приниматься
+                tokenRevocationService.revokeUser(user.getId());
             }
             if (request.getUser().getPhone() != null) {
                 user.setPhone(FormatUtils.normalizePhone(request.getUser().getPhone()));
@@ -351,21 +379,14 @@ public class DoctorService {
             doctor.setExperienceYears(request.getExperienceYears());
         }
         
-        // Обрабатываем фото (Base64 -> byte[])
+        // Обрабатываем фото (Base64 -> byte[]), миниатюры строятся один раз здесь
         if (request.getPhoto() != null) {
             if (request.getPhoto().isEmpty()) {
-                doctor.setPhoto(null);
+                doctorPhotoService.deletePhoto(doctor);
             } else {
-                try {
-                    String photoData = request.getPhoto();
-                    // Убираем префикс Data URL если он есть (например: data:image/jpeg;base64,)
-                    if (photoData.contains(",")) {
-                        photoData = photoData.substring(photoData.indexOf(",") + 1);
-                    }
-                    byte[] photoBytes = Base64.getDecoder().decode(photoData);
-                    doctor.setPhoto(photoBytes);
-                } catch (IllegalArgumentException e) {
-                    // Невалидный Base64, игнорируем
+                byte[] photoBytes = decodePhoto(request.getPhoto());
+                if (photoBytes != null) {
+                    doctorPhotoService.savePhoto(doctor, photoBytes);
                 }
             }
         }
@@ -458,6 +479,22 @@ public class DoctorService {
         return ascending ? comparator : comparator.reversed();
     }
 
+    /**
+     * Декодирует фото из Base64 (с префиксом Data URL или без)
+     * @return Байты фото или null, если Base64 невалиден
+     */
+    private byte[] decodePhoto(String photoData) {
+        // Убираем префикс Data URL если он есть (например: data:image/jpeg;base64,)
+        if (photoData.contains(",")) {
+            photoData = photoData.substring(photoData.indexOf(",") + 1);
+        }
+        try {
+            return Base64.getDecoder().decode(photoData);
+        } catch (IllegalArgumentException e) {
+            return null; // Невалидный Base64, игнорируем
+        }
+    }
+
     @Transactional(readOnly = true)
     private DoctorDto mapToDto(Doctor doctor) {
         User user = doctor.getUser();
@@ -494,25 +531,20 @@ public class DoctorService {
                         .toList()
                 : List.of();
 
-        // Конвертируем фото в Base64 строку
-        String photoBase64 = null;
-        if (doctor.getPhoto() != null && doctor.getPhoto().length > 0) {
-            photoBase64 = Base64.getEncoder().encodeToString(doctor.getPhoto());
-        }
-
         DoctorDto doctorDto = new DoctorDto(
                 doctor.getId(),
                 userDto,
                 doctor.getDisplayName(),
                 doctor.getBio(),
                 doctor.getExperienceYears(),
-                photoBase64,
+                PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash()),
                 averageRating,
                 reviewCount != null ? reviewCount.intValue() : 0,
                 doctor.getCreatedAt(),
                 doctor.getUpdatedAt()
         );
         doctorDto.setSpecializations(specializations);
+        doctorDto.setPhotoThumbnailUrl(PhotoUtils.photoUrl(doctor.getId(), doctor.getPhotoHash(), PhotoUtils.THUMBNAIL_MEDIUM));
         
         return doctorDto;
     }
@@ -14,8 +14,10 @@ import pin122.kursovaya.repository.QueueEntryRepository;
 import pin122.kursovaya.repository.ReviewRepository;
 import pin122.kursovaya.repository.RoleRepository;
 import pin122.kursovaya.repository.UserRepository;
+import pin122.kursovaya.security.TokenRevocationService;
 import pin122.kursovaya.utils.FormatUtils;
 
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -30,16 +32,25 @@ public class PatientService {
     private final AppointmentRepository appointmentRepository;
     private final ReviewRepository reviewRepository;
     private final QueueEntryRepository queueEntryRepository;
+    private final TokenRevocationService tokenRevocationService;
+    private final DoctorPhotoService doctorPhotoService;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
 
     public PatientService(PatientRepository patientRepository, UserRepository userRepository, 
                          RoleRepository roleRepository, AppointmentRepository appointmentRepository,
-                         ReviewRepository reviewRepository, QueueEntryRepository queueEntryRepository) {
+                         ReviewRepository reviewRepository, QueueEntryRepository queueEntryRepository,
+                         TokenRevocationService tokenRevocationService,
+                         DoctorPhotoService doctorPhotoService,
+                         SlotAvailabilityIndex slotAvailabilityIndex) {
         this.patientRepository = patientRepository;
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
         this.appointmentRepository = appointmentRepository;
         this.reviewRepository = reviewRepository;
         this.queueEntryRepository = queueEntryRepository;
+        this.tokenRevocationService = tokenRevocationService;
+        this.doctorPhotoService = doctorPhotoService;
+        this.slotAvailabilityIndex = slotAvailabilityIndex;
     }
 
     public List<PatientDto> getAllPatients() {
@@ -114,10 +125,12 @@ public class PatientService {
                 User existingUser = existingPatient.getUser();
                 if (existingUser != null) {
                     User userUpdate = patientUpdate.getUser();
+                    boolean revokeTokens = false;
                     
                     // Обновляем поля User
-                    if (userUpdate.getEmail() != null) {
+                    if (userUpdate.getEmail() != null && !userUpdate.getEmail().equals(existingUser.getEmail())) {
                         existingUser.setEmail(userUpdate.getEmail());
+                        revokeTokens = true;
                     }
                     if (userUpdate.getPhone() != null) {
                         existingUser.setPhone(FormatUtils.normalizePhone(userUpdate.getPhone()));
@@ -132,11 +145,19 @@ public class PatientService {
                         existingUser.setMiddleName(userUpdate.getMiddleName());
                     }
                     // Обновляем active, если передан
+                    if (existingUser.isActive() && !userUpdate.isActive()) {
+                        revokeTokens = true;
+                    }
                     existingUser.setActive(userUpdate.isActive());
                     existingUser.setUpdatedAt(java.time.OffsetDateTime.now());
                     
                     // Сохраняем обновленный User
                     userRepository.save(existingUser);
+                    
+                    // Деактивация или смена email: ранее выданные токены больше не принимаются
+                    if (revokeTokens) {
+                        tokenRevocationService.revokeUser(existingUser.getId());
+                    }
                 }
             }
             
@@ -163,8 +184,13 @@ public class PatientService {
         // Удаляем отзывы пациента
         reviewRepository.deleteByPatientId(id);
         
-        // Очищаем ссылку на пациента в записях на приём (не удаляем сами слоты)
+        // Очищаем ссылку на пациента в записях на приём (не удаляем сами слоты);
+        // освободившиеся слоты: дни врачей в индексе свободных слотов перечитаются из БД
+        List<Object[]> scheduleDays = appointmentRepository.findScheduleDaysByPatientId(id);
         appointmentRepository.clearPatientFromAppointments(id);
+        for (Object[] row : scheduleDays) {
+            slotAvailabilityIndex.invalidate((Long) row[0], (LocalDate) row[1]);
+        }
         
         // Получаем пользователя для удаления
         User user = patient.getUser();
@@ -174,7 +200,12 @@ public class PatientService {
         
         // Удаляем связанного пользователя, если он существует
         if (user != null) {
+            // Пользователь может быть и врачом: фото врача удаляется до каскада от users
+            if (user.getDoctor() != null) {
+                doctorPhotoService.deletePhoto(user.getDoctor());
+            }
             userRepository.deleteById(user.getId());
+            tokenRevocationService.revokeUser(user.getId());
         }
     }
 
@@ -0,0 +1,116 @@
+package pin122.kursovaya.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Диспетчер рассылки обновлений очереди с объединением (coalescing) по врачу
+ *
+ * Все запросы на рассылку очереди одного врача в пределах окна (app.queue.broadcast-window-ms)
+ * схлопываются в одно вычисление очереди и одну отправку в /topic/queue/doctor/{id}.
+ * Окно 0 отключает объединение - рассылка выполняется сразу в вызывающем потоке
+ */
+@Component
+public class QueueBroadcastDispatcher {
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+
+    // Врачи, для которых рассылка уже запланирована в текущем окне
+    private final Map<Long, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public QueueBroadcastDispatcher(@Value("${app.queue.broadcast-window-ms:100}") long windowMs) {
+        this.windowMs = windowMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "queue-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Запрашивает рассылку очереди врача
+     * Если рассылка для этого врача уже запланирована - запрос подавляется
+     *
+     * @param doctorId ID врача
+     * @param broadcaster Вычисляет очередь и отправляет её подписчикам;
+     *                    возвращает false, если отправлять было некому и сообщение не ушло
+     */
+    public void schedule(Long doctorId, Predicate<Long> broadcaster) {
+        requested.incrementAndGet();
+
+        if (windowMs <= 0) {
+            send(doctorId, broadcaster);
+            return;
+        }
+
+        if (pending.putIfAbsent(doctorId, Boolean.TRUE) != null) {
+            suppressed.incrementAndGet();
+            return;
+        }
+
+        scheduler.schedule(() -> {
+            // Снимаем отметку до вычисления: изменения во время отправки запланируют новую рассылку
+            pending.remove(doctorId);
+            send(doctorId, broadcaster);
+        }, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(Long doctorId, Predicate<Long> broadcaster) {
+        try {
+            if (broadcaster.test(doctorId)) {
+                sent.incrementAndGet();
+            } else {
+                skipped.incrementAndGet();
+            }
+        } catch (Exception e) {
+            System.err.println("DEBUG Broadcast: Ошибка рассылки очереди врача " + doctorId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Счётчики диспетчера: запрошено, подавлено, отправлено и пропущено рассылок
+     * (пропущенные - выполненные без отправки сообщения, например без подписчиков)
+     */
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "requested", requested.get(),
+                "suppressed", suppressed.get(),
+                "sent", sent.get(),
+                "skipped", skipped.get(),
+                "pending", (long) pending.size(),
+                "windowMs", windowMs
+        );
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,211 @@
+package pin122.kursovaya.service;
+
+import pin122.kursovaya.dto.QueueEntryDto;
+import pin122.kursovaya.model.Appointment;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Движок инкрементального обновления очереди к врачу
+ * Вычисляет целевую очередь по appointments, дельту (удалённые участники + изменённые score)
+ * для режима пересчёта diff и дельту рассылки для протокола delta
+ *
+ * Score участника = время начала приёма (epoch seconds), позиция = ZRANK,
+ * поэтому удаление из очереди - один ZREM без сдвига остальных (queue-remove.lua)
+ *
+ * Не обращается ни к БД, ни к Redis - работает только с участниками (patient:{id}) и их score
+ */
+public class QueueDeltaEngine {
+
+    public static final String MEMBER_PREFIX = "patient:";
+
+    /**
+     * Минимально допустимый score (2001-09-09 в epoch seconds)
+     * Меньшие значения - целочисленные позиции старого формата очереди
+     */
+    public static final double MIN_EPOCH_SCORE = 1_000_000_000d;
+
+    /**
+     * Score участника очереди: время начала приёма в epoch seconds
+     */
+    public static double score(OffsetDateTime startTime) {
+        return startTime.toEpochSecond();
+    }
+
+    /**
+     * Полный пересчёт: участники очереди по активным appointments
+     * Учитываются только будущие незавершённые приёмы с пациентом, по времени начала
+     * Если у пациента несколько приёмов к врачу - берётся ближайший
+     *
+     * @param appointments appointments врача (в любом порядке)
+     * @param now Текущее время
+     * @return Участники и их appointment в порядке очереди
+     */
+    public static Map<String, Appointment> buildMembers(List<Appointment> appointments, OffsetDateTime now) {
+        Map<String, Appointment> members = new LinkedHashMap<>();
+        appointments.stream()
+                .filter(a -> a.getPatient() != null)
+                .filter(a -> a.getStartTime() != null && a.getStartTime().isAfter(now))
+                .filter(a -> !"completed".equals(a.getStatus()) && !"cancelled".equals(a.getStatus()))
+                .sorted(Comparator.comparing(Appointment::getStartTime))
+                .forEach(a -> members.putIfAbsent(MEMBER_PREFIX + a.getPatient().getId(), a));
+        return members;
+    }
+
+    /**
+     * Вычисляет минимальную дельту между текущей и целевой очередью
+     * Записываются только участники, чей score действительно изменился
+     *
+     * @param scores Текущие score участников
+     * @param target Целевые score участников
+     * @return Дельта (может быть пустой)
+     */
+    public static QueueDelta diff(Map<String, Double> scores, Map<String, Double> target) {
+        Set<String> removed = new LinkedHashSet<>(scores.keySet());
+        removed.removeAll(target.keySet());
+
+        Map<String, Double> updates = new LinkedHashMap<>();
+        target.forEach((member, score) -> {
+            if (!score.equals(scores.get(member))) {
+                updates.put(member, score);
+            }
+        });
+        return new QueueDelta(removed, updates);
+    }
+
+    /**
+     * Вычисляет дельту между двумя рассылками очереди для протокола delta:
+     * удалённые пациенты, добавленные/перемещённые записи (upsert) и диапазон сдвинутых позиций
+     *
+     * @param previous Очередь из предыдущей рассылки
+     * @param current Текущая очередь
+     * @return Дельта, применение которой (applyEntries) к previous даёт current
+     */
+    public static EntryDelta diffEntries(List<QueueEntryDto> previous, List<QueueEntryDto> current) {
+        Map<Long, Integer> previousRanks = new HashMap<>();
+        Map<Long, Long> previousAppointments = new HashMap<>();
+        for (int i = 0; i < previous.size(); i++) {
+            previousRanks.put(previous.get(i).getPatientId(), i);
+            previousAppointments.put(previous.get(i).getPatientId(), previous.get(i).getAppointmentId());
+        }
+        Set<Long> currentIds = new HashSet<>();
+        current.forEach(e -> currentIds.add(e.getPatientId()));
+
+        List<Long> removed = new ArrayList<>();
+        previous.forEach(e -> {
+            if (!currentIds.contains(e.getPatientId())) {
+                removed.add(e.getPatientId());
+            }
+        });
+
+        // Сначала - только новые и сменившие appointment; если порядок выживших изменился - upsert и их
+        EntryDelta delta = buildEntryDelta(removed, current, previousRanks, previousAppointments, false);
+        if (!applyEntries(patientIds(previous), delta).equals(patientIds(current))) {
+            delta = buildEntryDelta(removed, current, previousRanks, previousAppointments, true);
+        }
+        return delta;
+    }
+
+    private static EntryDelta buildEntryDelta(List<Long> removed, List<QueueEntryDto> current,
+                                              Map<Long, Integer> previousRanks,
+                                              Map<Long, Long> previousAppointments,
+                                              boolean upsertMoved) {
+        List<QueueEntryDto> upserted = new ArrayList<>();
+        Integer shiftedFrom = null;
+        Integer shiftedTo = null;
+        for (int position = 0; position < current.size(); position++) {
+            QueueEntryDto entry = current.get(position);
+            Integer previousRank = previousRanks.get(entry.getPatientId());
+            boolean changed = previousRank == null
+                    || !Objects.equals(previousAppointments.get(entry.getPatientId()), entry.getAppointmentId());
+            if (changed || (upsertMoved && previousRank != position)) {
+                upserted.add(entry);
+            } else if (previousRank != position) {
+                shiftedFrom = shiftedFrom == null ? position : shiftedFrom;
+                shiftedTo = position;
+            }
+        }
+        return new EntryDelta(removed, upserted, shiftedFrom, shiftedTo);
+    }
+
+    /**
+     * Применяет дельту рассылки к порядку пациентов (так же её применяет клиент):
+     * удаляет removed и upserted, затем вставляет upserted по возрастанию позиции
+     *
+     * @param previous Порядок пациентов до изменения
+     * @param delta Дельта
+     * @return Порядок пациентов после изменения
+     */
+    public static List<Long> applyEntries(List<Long> previous, EntryDelta delta) {
+        List<Long> result = new ArrayList<>(previous);
+        result.removeAll(delta.getRemoved());
+        delta.getUpserted().forEach(e -> result.remove(e.getPatientId()));
+        delta.getUpserted().stream()
+                .sorted(Comparator.comparing(QueueEntryDto::getPosition))
+                .forEach(e -> result.add(Math.min(e.getPosition(), result.size()), e.getPatientId()));
+        return result;
+    }
+
+    private static List<Long> patientIds(List<QueueEntryDto> queue) {
+        List<Long> ids = new ArrayList<>();
+        queue.forEach(e -> ids.add(e.getPatientId()));
+        return ids;
+    }
+
+    /**
+     * Дельта рассылки очереди: удалённые пациенты, upsert записей и диапазон сдвинутых позиций
+     * (позиции shiftedFrom..shiftedTo изменились только из-за удалений/вставок перед ними)
+     */
+    public static class EntryDelta {
+        private final List<Long> removed;
+        private final List<QueueEntryDto> upserted;
+        private final Integer shiftedFrom;
+        private final Integer shiftedTo;
+
+        public EntryDelta(List<Long> removed, List<QueueEntryDto> upserted, Integer shiftedFrom, Integer shiftedTo) {
+            this.removed = removed;
+            this.upserted = upserted;
+            this.shiftedFrom = shiftedFrom;
+            this.shiftedTo = shiftedTo;
+        }
+
+        public List<Long> getRemoved() { return removed; }
+        public List<QueueEntryDto> getUpserted() { return upserted; }
+        public Integer getShiftedFrom() { return shiftedFrom; }
+        public Integer getShiftedTo() { return shiftedTo; }
+    }
+
+    /**
+     * Дельта очереди: кого удалить (ZREM) и кому выставить новый score (ZADD)
+     */
+    public static class QueueDelta {
+        private final Set<String> removed;
+        private final Map<String, Double> updates;
+
+        public QueueDelta(Set<String> removed, Map<String, Double> updates) {
+            this.removed = removed;
+            this.updates = updates;
+        }
+
+        public Set<String> getRemoved() { return removed; }
+        public Map<String, Double> getUpdates() { return updates; }
+
+        public boolean isEmpty() {
+            return removed.isEmpty() && updates.isEmpty();
+        }
+
+        public int size() {
+            return removed.size() + updates.size();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package pin122.kursovaya.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import pin122.kursovaya.config.QueuePayloadEncodingInterceptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Рассылка WebSocket сообщений, инициированных сервером (обновления очередей, персональные уведомления)
+ *
+ * Режимы (app.websocket.relay):
+ * local - сообщение отправляется в SimpleBroker этого узла (один экземпляр приложения)
+ * redis - сообщение публикуется в канал Redis pub/sub (app.websocket.relay-channel), каждый узел
+ *         получает его и отправляет своим подключённым клиентам. Узел-отправитель получает
+ *         сообщение так же, через подписку, поэтому клиенты любого узла видят один и тот же поток.
+ *         Для convertAndSendToUser пользователь без сессий на узле просто пропускается
+ *
+ * Ответы на запросы клиента (/app/queue/*) идут напрямую: сессия запросившего всегда на этом узле
+ *
+ * Тип события очереди (snapshot/delta) передаётся в заголовке event-type при отправке в брокер,
+ * поэтому interceptors clientOutboundChannel не зависят от порядка полей в JSON
+ */
+@Component
+public class QueueMessageRelay implements MessageListener {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final String mode;
+    private final String channel;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public QueueMessageRelay(SimpMessagingTemplate messagingTemplate,
+                             RedisTemplate<String, String> redisTemplate,
+                             RedisMessageListenerContainer listenerContainer,
+                             ObjectMapper objectMapper,
+                             @Value("${app.websocket.relay:local}") String mode,
+                             @Value("${app.websocket.relay-channel:ws:relay}") String channel) {
+        this.messagingTemplate = messagingTemplate;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = objectMapper;
+        this.mode = mode;
+        this.channel = channel;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        if (isRedisMode()) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+            System.out.println("DEBUG Relay: Подписка на канал " + channel);
+        }
+    }
+
+    /**
+     * Отправляет сообщение всем подписчикам destination на всех узлах
+     * @param destination Destination (например /topic/queue/doctor/1)
+     * @param payload Сообщение
+     */
+    public void send(String destination, Object payload) {
+        if (!isRedisMode()) {
+            sendLocal(null, destination, payload);
+            return;
+        }
+        publish(null, destination, payload);
+    }
+
+    /**
+     * Отправляет персональное сообщение пользователю на том узле, где он подключён
+     * @param user Имя пользователя (email)
+     * @param destination Destination без префикса /user (например /queue/user)
+     * @param payload Сообщение
+     */
+    public void sendToUser(String user, String destination, Object payload) {
+        if (!isRedisMode()) {
+            sendLocal(user, destination, payload);
+            return;
+        }
+        publish(user, destination, payload);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        deliver(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Отправляет полученное из канала сообщение клиентам этого узла
+     * Payload передаётся как JSON дерево - конвертер брокера сериализует его без изменений
+     * @param raw Конверт {"u": пользователь или null, "d": destination, "p": payload}
+     */
+    void deliver(String raw) {
+        try {
+            JsonNode envelope = objectMapper.readTree(raw);
+            String destination = envelope.path("d").asText();
+            JsonNode payload = envelope.path("p");
+            JsonNode user = envelope.get("u");
+
+            sendLocal(user != null && !user.isNull() ? user.asText() : null, destination, payload);
+            delivered.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("DEBUG Relay: Ошибка доставки сообщения: " + e.getMessage());
+        }
+    }
+
+    private void publish(String user, String destination, Object payload) {
+        try {
+            ObjectNode envelope = objectMapper.createObjectNode();
+            envelope.put("u", user);
+            envelope.put("d", destination);
+            envelope.set("p", objectMapper.valueToTree(payload));
+            redisTemplate.convertAndSend(channel, objectMapper.writeValueAsString(envelope));
+            published.incrementAndGet();
+        } catch (Exception e) {
+            // Redis недоступен - клиенты этого узла всё равно получают сообщение
+            failed.incrementAndGet();
+            System.err.println("DEBUG Relay: Ошибка публикации в " + channel + ", отправка локально: " + e.getMessage());
+            sendLocal(user, destination, payload);
+        }
+    }
+
+    /**
+     * Отправляет сообщение в брокер этого узла; событию очереди добавляется заголовок event-type
+     * @param user Имя пользователя или null для рассылки подписчикам destination
+     */
+    private void sendLocal(String user, String destination, Object payload) {
+        String eventType = eventType(payload);
+        Map<String, Object> headers = eventType != null
+                ? Map.of(QueuePayloadEncodingInterceptor.EVENT_TYPE_HEADER, eventType)
+                : null;
+        if (user != null) {
+            if (headers != null) {
+                messagingTemplate.convertAndSendToUser(user, destination, payload, headers);
+            } else {
+                messagingTemplate.convertAndSendToUser(user, destination, payload);
+            }
+        } else if (headers != null) {
+            messagingTemplate.convertAndSend(destination, payload, headers);
+        } else {
+            messagingTemplate.convertAndSend(destination, payload);
+        }
+    }
+
+    /**
+     * Тип события очереди: из DTO или из поля type JSON дерева, полученного из канала
+     * @return snapshot, delta или null для остальных сообщений
+     */
+    private static String eventType(Object payload) {
+        if (payload instanceof RedisQueueService.QueueUpdateEvent event) {
+            return event.getType();
+        }
+        if (payload instanceof RedisQueueService.QueueDeltaEvent event) {
+            return event.getType();
+        }
+        if (payload instanceof JsonNode node && node.path("type").isTextual()) {
+            String type = node.path("type").asText();
+            return "snapshot".equals(type) || "delta".equals(type) ? type : null;
+        }
+        return null;
+    }
+
+    private boolean isRedisMode() {
+        return "redis".equals(mode);
+    }
+
+    /**
+     * Счётчики: опубликовано в канал, доставлено локально из канала, ошибок
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "mode", mode,
+                "published", published.get(),
+                "delivered", delivered.get(),
+                "failed", failed.get()
+        );
+    }
+}
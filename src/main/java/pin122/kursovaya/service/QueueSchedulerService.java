@@ -1,17 +1,27 @@
 package pin122.kursovaya.service;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import pin122.kursovaya.dto.QueueEntryDto;
 import pin122.kursovaya.dto.WebSocketSessionData;
 
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Scheduled сервис для проверки и очистки просроченных appointments из очереди
- * Запускается каждую минуту и проверяет все активные сессии
+ * Запускается каждую минуту и обрабатывает только истёкшие записи из time-индекса очереди
  * 
  * @EnableScheduling уже включен в KursovayaApplication
  */
@@ -20,13 +30,30 @@ public class QueueSchedulerService {
 
     private final RedisQueueService redisQueueService;
 
-    public QueueSchedulerService(RedisQueueService redisQueueService) {
+    // Пересчёт очередей врачей: виртуальный поток на врача, параллельность ограничена семафором
+    private final int parallelism;
+    private final ExecutorService rebuildExecutor;
+    private final Semaphore rebuildPermits;
+
+    private final AtomicLong recalculationRuns = new AtomicLong();
+    private final AtomicLong recalculationFailures = new AtomicLong();
+    private volatile long lastRecalculationMs;
+    private volatile int lastRecalculationDoctors;
+    private volatile long lastRecalculationMaxDoctorMs;
+
+    public QueueSchedulerService(RedisQueueService redisQueueService,
+                                 @Value("${app.queue.rebuild-parallelism:8}") int parallelism) {
         this.redisQueueService = redisQueueService;
+        this.parallelism = Math.max(1, parallelism);
+        this.rebuildExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.rebuildPermits = new Semaphore(this.parallelism);
     }
 
     /**
-     * Проверяет все активные сессии и удаляет из очереди Redis appointments,
-     * время которых уже прошло
+     * Удаляет из очередей Redis appointments, время которых уже прошло
+     * Истёкшие записи берутся из time-индекса queue:expiry одним ZRANGEBYSCORE -inf..now,
+     * поэтому стоимость тика зависит только от числа действительно истёкших записей,
+     * а не от числа подключённых пользователей
      * 
      * Запускается каждую минуту (60000 мс)
      * 
@@ -34,48 +61,32 @@ public class QueueSchedulerService {
      */
     @Scheduled(fixedRate = 60000)
     public void checkExpiredAppointments() {
-        System.out.println("DEBUG Scheduler: Начало проверки просроченных appointments");
-        
         try {
-            // Получаем все активные сессии
-            List<WebSocketSessionData> activeSessions = redisQueueService.getAllActiveSessions();
+            // Врачам рассылка уходит из removeFromQueue, здесь - только персональные уведомления
+            Set<Long> patientIds = redisQueueService.removeExpiredEntries(OffsetDateTime.now());
             
-            if (activeSessions.isEmpty()) {
-                System.out.println("DEBUG Scheduler: Нет активных сессий, пропускаем проверку");
+            if (patientIds.isEmpty()) {
                 return;
             }
             
-            System.out.println("DEBUG Scheduler: Найдено активных сессий: " + activeSessions.size());
-            
-            int totalRemoved = 0;
-            Set<Long> affectedDoctorIds = new java.util.HashSet<>();
-            
-            for (WebSocketSessionData session : activeSessions) {
-                // Удаляем просроченные appointments для каждой сессии
-                int removed = redisQueueService.removeExpiredAppointments(session.getSessionId());
-                totalRemoved += removed;
-                
-                if (removed > 0 && session.getEmail() != null) {
-                    // Получаем обновленные очереди для пациента
-                    List<QueueEntryDto> updatedQueues = redisQueueService.getQueuesByPatient(session.getPatientId());
-                    
-                    // Собираем ID врачей для последующего уведомления
-                    updatedQueues.forEach(q -> affectedDoctorIds.add(q.getDoctorId()));
-                    
-                    // Отправляем обновление пользователю
-                    redisQueueService.notifyUserQueueUpdate(session.getEmail(), updatedQueues);
-                    
-                    System.out.println("DEBUG Scheduler: Удалено " + removed + 
-                            " просроченных записей для сессии " + session.getSessionId());
+            for (Long patientId : patientIds) {
+                Set<String> sessionIds = redisQueueService.getPatientSessions(patientId);
+                if (sessionIds == null || sessionIds.isEmpty()) {
+                    continue;
                 }
+                
+                // Получаем обновленные очереди для пациента (только Redis)
+                List<QueueEntryDto> updatedQueues = redisQueueService.getQueuesByPatient(patientId);
+                
+                // Отправляем обновление пользователю (один раз на email, даже при нескольких устройствах)
+                redisQueueService.getSessions(sessionIds).stream()
+                        .filter(session -> session.getEmail() != null)
+                        .map(WebSocketSessionData::getEmail)
+                        .distinct()
+                        .forEach(email -> redisQueueService.notifyUserQueueUpdate(email, updatedQueues));
             }
             
-            // Уведомляем всех подписчиков об изменениях в очередях врачей
-            for (Long doctorId : affectedDoctorIds) {
-                redisQueueService.notifyQueueUpdated(doctorId);
-            }
-            
-            System.out.println("DEBUG Scheduler: Проверка завершена, всего удалено записей: " + totalRemoved);
+            System.out.println("DEBUG Scheduler: Удалены истёкшие записи пациентов: " + patientIds.size());
             
         } catch (Exception e) {
             System.err.println("DEBUG Scheduler: Ошибка при проверке просроченных appointments: " + e.getMessage());
@@ -85,34 +96,82 @@ public class QueueSchedulerService {
 
     /**
      * Пересчитывает позиции во всех активных очередях
+     * Врачи берутся из реестра queue:doctors:active (без обращения к БД), пересчёты выполняются
+     * параллельно на виртуальных потоках, не более app.queue.rebuild-parallelism одновременно.
+     * Пересчёт врача берёт его блокировку в RedisQueueService и не пересекается с пересчётом по событию
      * Запускается каждые 5 минут для синхронизации
      */
     @Scheduled(fixedRate = 300000)
     public void recalculateAllQueues() {
-        System.out.println("DEBUG Scheduler: Начало пересчета всех очередей");
+        long started = System.currentTimeMillis();
         
         try {
-            List<WebSocketSessionData> activeSessions = redisQueueService.getAllActiveSessions();
-            
-            // Собираем уникальные ID врачей из всех сессий
-            Set<Long> doctorIds = activeSessions.stream()
-                    .filter(s -> s.getPatientId() != null)
-                    .flatMap(s -> redisQueueService.getQueuesByPatient(s.getPatientId()).stream())
-                    .map(QueueEntryDto::getDoctorId)
-                    .filter(id -> id != null)
-                    .collect(Collectors.toSet());
+            Set<Long> doctorIds = redisQueueService.getActiveDoctorIds();
+            AtomicLong maxDoctorMs = new AtomicLong();
+            AtomicInteger failed = new AtomicInteger();
             
-            // Пересчитываем очередь для каждого врача
+            List<Future<?>> tasks = new ArrayList<>();
             for (Long doctorId : doctorIds) {
-                redisQueueService.recalculateQueueForDoctor(doctorId);
+                tasks.add(rebuildExecutor.submit(() -> {
+                    try {
+                        rebuildPermits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed.incrementAndGet();
+                        return;
+                    }
+                    long doctorStarted = System.currentTimeMillis();
+                    try {
+                        redisQueueService.recalculateQueueForDoctor(doctorId);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        System.err.println("DEBUG Scheduler: Ошибка пересчета очереди врача " + doctorId + ": " + e.getMessage());
+                    } finally {
+                        rebuildPermits.release();
+                        maxDoctorMs.accumulateAndGet(System.currentTimeMillis() - doctorStarted, Math::max);
+                    }
+                }));
             }
             
-            System.out.println("DEBUG Scheduler: Пересчет завершен для " + doctorIds.size() + " врачей");
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            
+            long durationMs = System.currentTimeMillis() - started;
+            recalculationRuns.incrementAndGet();
+            lastRecalculationMs = durationMs;
+            lastRecalculationDoctors = doctorIds.size();
+            lastRecalculationMaxDoctorMs = maxDoctorMs.get();
+            recalculationFailures.addAndGet(failed.get());
+            
+            System.out.println("DEBUG Scheduler: Пересчет завершен для " + doctorIds.size() + " врачей за " +
+                    durationMs + " мс (максимум на врача " + maxDoctorMs.get() + " мс, ошибок " + failed.get() + ")");
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             System.err.println("DEBUG Scheduler: Ошибка при пересчете очередей: " + e.getMessage());
             e.printStackTrace();
         }
     }
-}
 
+    /**
+     * Метрики пересчёта всех очередей: число запусков, длительность последнего запуска,
+     * число врачей, максимальное время на одного врача и число ошибок
+     */
+    public Map<String, Object> getRecalculationStats() {
+        return Map.of(
+                "runs", recalculationRuns.get(),
+                "lastDurationMs", lastRecalculationMs,
+                "lastDoctors", lastRecalculationDoctors,
+                "lastMaxDoctorMs", lastRecalculationMaxDoctorMs,
+                "failures", recalculationFailures.get(),
+                "parallelism", parallelism
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdown();
+    }
+}
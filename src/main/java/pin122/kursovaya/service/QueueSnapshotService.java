@@ -0,0 +1,341 @@
+package pin122.kursovaya.service;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pin122.kursovaya.dto.QueueEntryDto;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.repository.AppointmentRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Общий снимок очередей на текущий день
+ *
+ * Все appointments дня читаются из БД одним запросом при построении снимка (раз в день,
+ * затем по расписанию app.queue.snapshot-refresh-ms), а не при каждом WebSocket подключении.
+ * Снимок хранится в Redis и общий для всех узлов:
+ * - queue:snapshot:{date} - Hash patientId -> "doctorId:appointmentId:startEpoch,..." (активные приёмы пациента на день;
+ *   в очереди врача пациент стоит по ближайшему из них)
+ * - queue:snapshot:{date}:built - отметка о построенном снимке
+ *
+ * Подключение пациента читает только своё поле снимка и позиции (ZRANK) -
+ * стоимость не зависит от размера клиники
+ */
+@Service
+public class QueueSnapshotService {
+
+    private static final String SNAPSHOT_KEY_PREFIX = "queue:snapshot:";
+    private static final String BUILT_SUFFIX = ":built";
+    private static final String LOCK_SUFFIX = ":lock";
+    private static final String STAGING_SUFFIX = ":staging";
+    private static final Duration SNAPSHOT_TTL = Duration.ofDays(2);
+    private static final Duration LOCK_TTL = Duration.ofSeconds(30);
+    private static final long LOCK_WAIT_STEP_MS = 50;
+    private static final Set<String> INACTIVE_STATUSES = Set.of("completed", "cancelled", "no_show");
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisQueueService redisQueueService;
+    private final AppointmentRepository appointmentRepository;
+
+    // День, снимок которого уже построен (чтобы не проверять Redis при каждом подключении)
+    private volatile LocalDate readyFor;
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private volatile long lastBuildMs;
+    private volatile int lastBuildPatients;
+
+    public QueueSnapshotService(RedisTemplate<String, String> redisTemplate,
+                                RedisQueueService redisQueueService,
+                                AppointmentRepository appointmentRepository) {
+        this.redisTemplate = redisTemplate;
+        this.redisQueueService = redisQueueService;
+        this.appointmentRepository = appointmentRepository;
+    }
+
+    /**
+     * Формирует очередь пациента на текущий день из общего снимка
+     * Возвращает пациента в очереди его врачей (если он был удалён при отключении)
+     * и читает позиции без обращения к БД
+     *
+     * @param patientId ID пациента
+     * @return Список записей очереди для пациента
+     */
+    public List<QueueEntryDto> buildQueueForToday(Long patientId) {
+        LocalDate today = LocalDate.now();
+        ensureSnapshot(today);
+        reads.incrementAndGet();
+
+        Object value = redisTemplate.opsForHash().get(getSnapshotKey(today), String.valueOf(patientId));
+        long now = OffsetDateTime.now().toEpochSecond();
+        for (SnapshotEntry entry : nearestByDoctor(decode(value != null ? value.toString() : null), now).values()) {
+            addToQueue(patientId, entry);
+        }
+
+        return redisQueueService.getQueuesByPatient(patientId);
+    }
+
+    /**
+     * Обновляет запись пациента в снимке после записи на приём / отмены / завершения
+     * Затрагивает только поле одного пациента и в нём - только запись изменённого appointment
+     * (у пациента может быть несколько приёмов к одному врачу за день); приёмы не на сегодня игнорируются.
+     * В очередь врача пациент ставится по ближайшему из оставшихся приёмов к этому врачу
+     *
+     * @param appointment Изменённый appointment
+     * @return true, если у пациента остался активный приём к этому врачу и он остаётся в очереди
+     */
+    public boolean onAppointmentChanged(Appointment appointment) {
+        if (appointment.getPatient() == null || appointment.getDoctor() == null || appointment.getStartTime() == null) {
+            return false;
+        }
+        LocalDate day = appointment.getStartTime().atZoneSameInstant(ZoneId.systemDefault()).toLocalDate();
+        String snapshotKey = getSnapshotKey(day);
+        if (!day.equals(LocalDate.now()) || !Boolean.TRUE.equals(redisTemplate.hasKey(snapshotKey + BUILT_SUFFIX))) {
+            return false;
+        }
+
+        Long patientId = appointment.getPatient().getId();
+        Long doctorId = appointment.getDoctor().getId();
+        String field = String.valueOf(patientId);
+        Object value = redisTemplate.opsForHash().get(snapshotKey, field);
+
+        List<SnapshotEntry> entries = new ArrayList<>();
+        for (SnapshotEntry entry : decode(value != null ? value.toString() : null)) {
+            if (!entry.appointmentId.equals(appointment.getId())) {
+                entries.add(entry);
+            }
+        }
+        if (!INACTIVE_STATUSES.contains(appointment.getStatus())) {
+            entries.add(new SnapshotEntry(doctorId, appointment.getId(), appointment.getStartTime().toEpochSecond()));
+        }
+
+        if (entries.isEmpty()) {
+            redisTemplate.opsForHash().delete(snapshotKey, field);
+        } else {
+            redisTemplate.opsForHash().put(snapshotKey, field, encode(entries));
+        }
+
+        // ZADD перезаписывает score участника - передаём ближайший приём, а не изменённый
+        SnapshotEntry nearest = nearestByDoctor(entries, OffsetDateTime.now().toEpochSecond()).get(doctorId);
+        if (nearest == null) {
+            return false;
+        }
+        addToQueue(patientId, nearest);
+        return true;
+    }
+
+    /**
+     * Обновляет снимок по расписанию (и строит его при первом запуске / смене дня)
+     * Один запрос к БД на всю клинику вместо запроса на каждое подключение.
+     * Если снимок сейчас строит другой поток или узел, обновление пропускается
+     */
+    @Scheduled(fixedDelayString = "${app.queue.snapshot-refresh-ms:300000}")
+    public void refreshSnapshot() {
+        try {
+            tryBuild(LocalDate.now());
+        } catch (Exception e) {
+            System.err.println("DEBUG Snapshot: Ошибка обновления снимка очередей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Гарантирует, что снимок на день построен (этим или другим узлом)
+     * Построение выполняет только один поток одного узла (блокировка SET NX),
+     * остальные ждут отметку, не занимая общих блокировок
+     */
+    private void ensureSnapshot(LocalDate day) {
+        if (day.equals(readyFor)) {
+            return;
+        }
+        String builtKey = getSnapshotKey(day) + BUILT_SUFFIX;
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(builtKey))) {
+            readyFor = day;
+            return;
+        }
+        rebuild(day);
+    }
+
+    /**
+     * Строит снимок на день: одно чтение appointments дня, замена очередей всех врачей
+     * и атомарная подмена Hash снимка (RENAME временного ключа)
+     * Если снимок сейчас строит другой поток или узел, ждёт его отметку
+     */
+    public void rebuild(LocalDate day) {
+        if (!tryBuild(day)) {
+            awaitBuilt(getSnapshotKey(day) + BUILT_SUFFIX, day);
+        }
+    }
+
+    /**
+     * Строит снимок на день, если его не строит другой поток или узел
+     * Блокировка SET NX общая для потоков и узлов, поэтому монитор объекта не нужен
+     * @return false, если блокировка построения занята
+     */
+    private boolean tryBuild(LocalDate day) {
+        String snapshotKey = getSnapshotKey(day);
+        String lockKey = snapshotKey + LOCK_SUFFIX;
+
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lockKey, "1", LOCK_TTL))) {
+            return false;
+        }
+
+        try {
+            long started = System.currentTimeMillis();
+            OffsetDateTime startOfDay = day.atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
+            OffsetDateTime endOfDay = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
+            OffsetDateTime now = OffsetDateTime.now();
+
+            Map<Long, List<Appointment>> byDoctor = appointmentRepository.findByStartTimeBetween(startOfDay, endOfDay)
+                    .stream()
+                    .filter(a -> a.getDoctor() != null)
+                    .collect(Collectors.groupingBy(a -> a.getDoctor().getId()));
+
+            // Очереди врачей и записи пациентов снимка
+            Map<Long, List<SnapshotEntry>> byPatient = new LinkedHashMap<>();
+            for (Map.Entry<Long, List<Appointment>> entry : byDoctor.entrySet()) {
+                Long doctorId = entry.getKey();
+                redisQueueService.replaceQueue(doctorId, entry.getValue(), now);
+                entry.getValue().stream()
+                        .filter(a -> a.getPatient() != null && a.getStartTime() != null && a.getStartTime().isAfter(now))
+                        .filter(a -> !INACTIVE_STATUSES.contains(a.getStatus()))
+                        .forEach(a -> byPatient.computeIfAbsent(a.getPatient().getId(), id -> new ArrayList<>())
+                                .add(new SnapshotEntry(doctorId, a.getId(), a.getStartTime().toEpochSecond())));
+            }
+
+            // Очереди врачей, у которых сегодня нет приёмов (остались с прошлого дня), очищаем
+            redisQueueService.getActiveDoctorIds().stream()
+                    .filter(id -> !byDoctor.containsKey(id))
+                    .forEach(redisQueueService::clearQueueWithNotification);
+
+            // Собираем Hash снимка во временном ключе и подменяем одним RENAME
+            Map<String, String> fields = new HashMap<>();
+            byPatient.forEach((patientId, entries) -> fields.put(String.valueOf(patientId), encode(entries)));
+            String stagingKey = snapshotKey + STAGING_SUFFIX;
+            redisTemplate.delete(stagingKey);
+            if (fields.isEmpty()) {
+                redisTemplate.delete(snapshotKey);
+            } else {
+                redisTemplate.opsForHash().putAll(stagingKey, fields);
+                redisTemplate.rename(stagingKey, snapshotKey);
+                redisTemplate.expire(snapshotKey, SNAPSHOT_TTL);
+            }
+            redisTemplate.opsForValue().set(snapshotKey + BUILT_SUFFIX, now.toString(), SNAPSHOT_TTL);
+
+            readyFor = day;
+            builds.incrementAndGet();
+            lastBuildMs = System.currentTimeMillis() - started;
+            lastBuildPatients = fields.size();
+
+            System.out.println("DEBUG Snapshot: Снимок очередей на " + day + " построен: врачей " +
+                    byDoctor.size() + ", пациентов " + fields.size() + ", " + lastBuildMs + " мс");
+            return true;
+        } finally {
+            redisTemplate.delete(lockKey);
+        }
+    }
+
+    private void awaitBuilt(String builtKey, LocalDate day) {
+        long deadline = System.currentTimeMillis() + LOCK_TTL.toMillis();
+        while (System.currentTimeMillis() < deadline) {
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(builtKey))) {
+                readyFor = day;
+                return;
+            }
+            try {
+                Thread.sleep(LOCK_WAIT_STEP_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.err.println("DEBUG Snapshot: Не дождались снимка очередей на " + day);
+    }
+
+    /**
+     * Счётчики снимка: построения, чтения при подключении и последнее построение
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "builds", builds.get(),
+                "reads", reads.get(),
+                "lastBuildMs", lastBuildMs,
+                "lastBuildPatients", lastBuildPatients,
+                "readyFor", readyFor != null ? readyFor.toString() : "-"
+        );
+    }
+
+    private void addToQueue(Long patientId, SnapshotEntry entry) {
+        redisQueueService.addToQueue(patientId, entry.doctorId, entry.appointmentId,
+                OffsetDateTime.ofInstant(Instant.ofEpochSecond(entry.startEpoch), ZoneId.systemDefault()));
+    }
+
+    /**
+     * Ближайший ещё не начавшийся приём пациента к каждому врачу (по нему пациент стоит в очереди)
+     */
+    static Map<Long, SnapshotEntry> nearestByDoctor(List<SnapshotEntry> entries, long nowEpoch) {
+        Map<Long, SnapshotEntry> nearest = new LinkedHashMap<>();
+        for (SnapshotEntry entry : entries) {
+            if (entry.startEpoch > nowEpoch) {
+                nearest.merge(entry.doctorId, entry, (a, b) -> a.startEpoch <= b.startEpoch ? a : b);
+            }
+        }
+        return nearest;
+    }
+
+    private String getSnapshotKey(LocalDate day) {
+        return SNAPSHOT_KEY_PREFIX + day;
+    }
+
+    static String encode(List<SnapshotEntry> entries) {
+        return entries.stream()
+                .map(e -> e.doctorId + ":" + e.appointmentId + ":" + e.startEpoch)
+                .collect(Collectors.joining(","));
+    }
+
+    static List<SnapshotEntry> decode(String value) {
+        List<SnapshotEntry> entries = new ArrayList<>();
+        if (value == null || value.isEmpty()) {
+            return entries;
+        }
+        for (String part : value.split(",")) {
+            String[] fields = part.split(":");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                entries.add(new SnapshotEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                System.err.println("DEBUG Snapshot: Некорректная запись снимка: " + part);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Запись снимка: активный приём пациента к врачу
+     */
+    static class SnapshotEntry {
+        private final Long doctorId;
+        private final Long appointmentId;
+        private final long startEpoch;
+
+        SnapshotEntry(Long doctorId, Long appointmentId, long startEpoch) {
+            this.doctorId = doctorId;
+            this.appointmentId = appointmentId;
+            this.startEpoch = startEpoch;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package pin122.kursovaya.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Реестр подписок на /topic/queue/doctor/{id}
+ *
+ * Строится по событиям SUBSCRIBE/UNSUBSCRIBE/DISCONNECT: для каждого врача хранится число подписок
+ * на этом узле. RedisQueueService не вычисляет и не рассылает очередь врача без подписчиков.
+ *
+ * В режиме app.websocket.relay=redis подписчики могут быть на других узлах: узел с хотя бы одной
+ * подпиской на врача добавляет свой ID в множество queue:subscribers:{doctorId} (только при
+ * переходах 0 -> 1 и 1 -> 0). Узел, упавший без отписки, оставляет лишний ID - это приводит
+ * только к лишней рассылке, но не к потере обновлений
+ */
+@Component
+public class QueueSubscriptionRegistry {
+
+    private static final String TOPIC_PREFIX = "/topic/queue/doctor/";
+    private static final String SUBSCRIBERS_PREFIX = "queue:subscribers:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final boolean clusterMode;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // STOMP session ID -> (subscription ID -> doctor ID)
+    private final Map<String, Map<String, Long>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    // Doctor ID -> число подписок на этом узле
+    private final Map<Long, Integer> subscriberCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    public QueueSubscriptionRegistry(RedisTemplate<String, String> redisTemplate,
+                                     @Value("${app.websocket.relay:local}") String relayMode) {
+        this.redisTemplate = redisTemplate;
+        this.clusterMode = "redis".equals(relayMode);
+    }
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Long doctorId = parseDoctorId(accessor.getDestination());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        if (doctorId == null || sessionId == null || subscriptionId == null) {
+            return;
+        }
+
+        Long previous = sessionSubscriptions
+                .computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscriptionId, doctorId);
+        if (previous != null) {
+            decrement(previous);
+        }
+        increment(doctorId);
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+
+        Map<String, Long> subscriptions = sessionSubscriptions.get(sessionId);
+        Long doctorId = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+        if (doctorId != null) {
+            decrement(doctorId);
+        }
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        Map<String, Long> subscriptions = sessionSubscriptions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::decrement);
+        }
+    }
+
+    /**
+     * Есть ли подписчики на очередь врача (на этом узле или, в режиме redis, на любом узле)
+     * @param doctorId ID врача
+     */
+    public boolean hasSubscribers(Long doctorId) {
+        if (subscriberCounts.containsKey(doctorId)) {
+            return true;
+        }
+        if (!clusterMode) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(SUBSCRIBERS_PREFIX + doctorId));
+        } catch (Exception e) {
+            // Redis недоступен - лучше разослать лишний раз, чем потерять обновление
+            return true;
+        }
+    }
+
+    /**
+     * Фиксирует пропущенное вычисление очереди врача без подписчиков
+     */
+    public void recordSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * Метрики: врачей с подписчиками на этом узле, подписок, пропущенных вычислений очереди
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "subscribedDoctors", subscriberCounts.size(),
+                "subscriptions", subscriberCounts.values().stream().mapToInt(Integer::intValue).sum(),
+                "skippedComputations", skipped.get()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (clusterMode) {
+            subscriberCounts.keySet().forEach(this::unregisterNode);
+        }
+    }
+
+    private void increment(Long doctorId) {
+        Integer count = subscriberCounts.merge(doctorId, 1, Integer::sum);
+        if (count == 1 && clusterMode) {
+            try {
+                redisTemplate.opsForSet().add(SUBSCRIBERS_PREFIX + doctorId, nodeId);
+            } catch (Exception e) {
+                System.err.println("DEBUG Subscriptions: Ошибка регистрации подписки врача " + doctorId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void decrement(Long doctorId) {
+        Integer count = subscriberCounts.computeIfPresent(doctorId, (id, value) -> value > 1 ? value - 1 : null);
+        if (count == null && clusterMode) {
+            unregisterNode(doctorId);
+        }
+    }
+
+    private void unregisterNode(Long doctorId) {
+        try {
+            redisTemplate.opsForSet().remove(SUBSCRIBERS_PREFIX + doctorId, nodeId);
+        } catch (Exception e) {
+            System.err.println("DEBUG Subscriptions: Ошибка снятия подписки врача " + doctorId + ": " + e.getMessage());
+        }
+    }
+
+    private static Long parseDoctorId(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(destination.substring(TOPIC_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,36 +1,64 @@
 package pin122.kursovaya.service;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.SetOperations;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import pin122.kursovaya.dto.QueueEntryDto;
 import pin122.kursovaya.dto.WebSocketSessionData;
 import pin122.kursovaya.model.Appointment;
 import pin122.kursovaya.repository.AppointmentRepository;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
  * Сервис для работы с очередью в Redis
  * Использует Sorted Set для хранения очереди: queue:doctor:{doctorId}
- * Score = позиция в очереди, Member = patient:{patientId}
+ * Score = время начала приёма (epoch seconds), Member = patient:{patientId}
+ * Позиция в очереди не хранится, а вычисляется через ZRANK, поэтому удаление - один ZREM
+ * queue:doctor:{doctorId}:appointments - Hash patient:{patientId} -> appointmentId (чтение очереди без SQL)
+ * queue:doctor:{doctorId}:version - версия очереди, увеличивается при каждой рассылке
+ * patient:queues:{patientId} - Set ID врачей, в очередях которых стоит пациент (обратный индекс,
+ *   обновляется в тех же Lua-скриптах, что и ZADD/ZREM очереди; при полной подмене - pipeline следом за ней)
+ * queue:doctors:active - Set ID врачей с непустой очередью (реестр для пересчёта всех очередей)
+ * queue:expiry - Sorted Set "{doctorId}:patient:{patientId}" -> время начала приёма,
+ *   по нему scheduler находит истёкшие записи одним ZRANGEBYSCORE
  * 
  * Также управляет WebSocket сессиями:
- * - ws:session:{sessionId} - JSON с данными сессии
+ * - ws:session:{sessionId} - Hash с полями сессии (sessionId, userId, patientId, email, appointmentIds, connectedAt)
+ * - ws:session:{sessionId}:alive - ключ с TTL, продлевается heartbeat'ами STOMP; сессии без него - осиротевшие
  * - ws:sessions:active - Set активных sessionId
  * - patient:sessions:{patientId} - Set сессий пациента (для multi-device)
  */
@@ -41,21 +69,81 @@ public class RedisQueueService {
     private static final String SESSION_KEY_PREFIX = "ws:session:";
     private static final String ACTIVE_SESSIONS_KEY = "ws:sessions:active";
     private static final String PATIENT_SESSIONS_PREFIX = "patient:sessions:";
+    private static final String PATIENT_QUEUES_PREFIX = "patient:queues:";
+    private static final String EXPIRY_KEY = "queue:expiry";
+    private static final String ACTIVE_DOCTORS_KEY = "queue:doctors:active";
+    private static final String STAGING_SUFFIX = ":staging";
+    private static final String APPOINTMENTS_SUFFIX = ":appointments";
+    private static final String VERSION_SUFFIX = ":version";
+    private static final String ALIVE_SUFFIX = ":alive";
+    private static final int SESSION_BATCH_SIZE = 500;
+    // Попыток подмены очереди, если во время пересборки в неё добавили участников
+    private static final int SWAP_ATTEMPTS = 5;
     
     private final RedisTemplate<String, String> redisTemplate;
-    private final DefaultRedisScript<Long> removeAndShiftScript;
+    @SuppressWarnings("rawtypes")
+    private final DefaultRedisScript<List> rebuildQueueScript;
+    private final DefaultRedisScript<Long> queueAddScript;
+    private final DefaultRedisScript<Long> queueRemoveScript;
+    private final DefaultRedisScript<Long> sessionSaveScript;
+    private final DefaultRedisScript<Long> sessionDeleteScript;
     private final AppointmentRepository appointmentRepository;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final QueueMessageRelay messageRelay;
+    private final QueueBroadcastDispatcher broadcastDispatcher;
+    private final QueueSubscriptionRegistry subscriptionRegistry;
     private final ObjectMapper objectMapper;
 
+    /**
+     * Режим полного пересчёта очереди:
+     * swap - очередь собирается во временном ключе и атомарно подменяется (RENAME в Lua-скрипте),
+     *        один round trip, читатели никогда не видят пустую или частично собранную очередь
+     * diff - записываются только участники, чья позиция изменилась (меньше записей, но не атомарно)
+     */
+    @Value("${app.queue.rebuild-mode:swap}")
+    private String rebuildMode = "swap";
+
+    /**
+     * Протокол рассылки в /topic/queue/doctor/{id}:
+     * full  - каждое событие содержит всю очередь (type = snapshot)
+     * delta - события содержат только изменения (type = delta) с версией queue:doctor:{id}:version
+     */
+    @Value("${app.queue.protocol:full}")
+    private String protocolMode = "full";
+
+    /**
+     * TTL ключа ws:session:{id}:alive (секунды): если узел не продлил его (падение, перезапуск),
+     * сессия считается осиротевшей и удаляется SessionLivenessService
+     */
+    @Value("${app.websocket.session-ttl-seconds:90}")
+    private long sessionTtlSeconds = 90;
+
+    // Последние рассылки по врачам (для протокола delta)
+    private final Map<Long, BroadcastState> lastBroadcasts = new ConcurrentHashMap<>();
+
+    // Блокировки очередей по врачам: пересчёт по расписанию не пересекается с пересчётом по событию
+    private final Map<Long, ReentrantLock> doctorLocks = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("rawtypes")
     public RedisQueueService(RedisTemplate<String, String> redisTemplate,
-                            DefaultRedisScript<Long> removeAndShiftScript,
+                            DefaultRedisScript<List> rebuildQueueScript,
+                            DefaultRedisScript<Long> queueAddScript,
+                            DefaultRedisScript<Long> queueRemoveScript,
+                            DefaultRedisScript<Long> sessionSaveScript,
+                            DefaultRedisScript<Long> sessionDeleteScript,
                             AppointmentRepository appointmentRepository,
-                            SimpMessagingTemplate messagingTemplate) {
+                            QueueMessageRelay messageRelay,
+                            QueueBroadcastDispatcher broadcastDispatcher,
+                            QueueSubscriptionRegistry subscriptionRegistry) {
         this.redisTemplate = redisTemplate;
-        this.removeAndShiftScript = removeAndShiftScript;
+        this.rebuildQueueScript = rebuildQueueScript;
+        this.queueAddScript = queueAddScript;
+        this.queueRemoveScript = queueRemoveScript;
+        this.sessionSaveScript = sessionSaveScript;
+        this.sessionDeleteScript = sessionDeleteScript;
         this.appointmentRepository = appointmentRepository;
-        this.messagingTemplate = messagingTemplate;
+        this.messageRelay = messageRelay;
+        this.broadcastDispatcher = broadcastDispatcher;
+        this.subscriptionRegistry = subscriptionRegistry;
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
     }
@@ -71,30 +159,28 @@ public class RedisQueueService {
 
     /**
      * Сохраняет данные сессии в Redis
+     * Hash сессии, Set активных сессий и Set сессий пациента записываются одним Lua-скриптом
      * @param sessionId ID сессии
      * @param sessionData Данные сессии
      */
     public void saveSession(String sessionId, WebSocketSessionData sessionData) {
-        try {
-            String sessionKey = SESSION_KEY_PREFIX + sessionId;
-            String jsonData = objectMapper.writeValueAsString(sessionData);
-            
-            // Сохраняем данные сессии
-            redisTemplate.opsForValue().set(sessionKey, jsonData);
-            
-            // Добавляем в Set активных сессий
-            redisTemplate.opsForSet().add(ACTIVE_SESSIONS_KEY, sessionId);
-            
-            // Добавляем в Set сессий пациента (для multi-device)
-            if (sessionData.getPatientId() != null) {
-                String patientSessionsKey = PATIENT_SESSIONS_PREFIX + sessionData.getPatientId();
-                redisTemplate.opsForSet().add(patientSessionsKey, sessionId);
-            }
-            
-            System.out.println("DEBUG Redis: Сессия сохранена: " + sessionId);
-        } catch (JsonProcessingException e) {
-            System.err.println("DEBUG Redis: Ошибка сериализации сессии: " + e.getMessage());
+        List<String> keys = new ArrayList<>(List.of(
+                SESSION_KEY_PREFIX + sessionId, ACTIVE_SESSIONS_KEY, SESSION_KEY_PREFIX + sessionId + ALIVE_SUFFIX));
+        if (sessionData.getPatientId() != null) {
+            // Set сессий пациента (для multi-device)
+            keys.add(PATIENT_SESSIONS_PREFIX + sessionData.getPatientId());
         }
+        
+        List<String> args = new ArrayList<>();
+        args.add(sessionId);
+        args.add(String.valueOf(sessionTtlSeconds));
+        toSessionHash(sessionData).forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        
+        redisTemplate.execute(sessionSaveScript, keys, args.toArray());
+        System.out.println("DEBUG Redis: Сессия сохранена: " + sessionId);
     }
 
     /**
@@ -103,70 +189,153 @@ public class RedisQueueService {
      * @return Данные сессии или null если не найдена
      */
     public WebSocketSessionData getSession(String sessionId) {
+        String sessionKey = SESSION_KEY_PREFIX + sessionId;
         try {
-            String sessionKey = SESSION_KEY_PREFIX + sessionId;
-            String jsonData = redisTemplate.opsForValue().get(sessionKey);
-            
-            if (jsonData == null) {
-                return null;
+            return fromSessionHash(redisTemplate.opsForHash().entries(sessionKey));
+        } catch (DataAccessException e) {
+            // Сессия старого формата (JSON-строка)
+            return getLegacySession(sessionKey);
+        }
+    }
+
+    /**
+     * Получает данные нескольких сессий одним pipeline (HGETALL пачками по SESSION_BATCH_SIZE)
+     * @param sessionIds ID сессий
+     * @return Данные найденных сессий
+     */
+    public List<WebSocketSessionData> getSessions(Collection<String> sessionIds) {
+        List<WebSocketSessionData> sessions = new ArrayList<>();
+        if (sessionIds == null || sessionIds.isEmpty()) {
+            return sessions;
+        }
+        
+        List<String> ids = new ArrayList<>(sessionIds);
+        for (int from = 0; from < ids.size(); from += SESSION_BATCH_SIZE) {
+            List<String> batch = ids.subList(from, Math.min(from + SESSION_BATCH_SIZE, ids.size()));
+            List<Object> results;
+            try {
+                results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        batch.forEach(id -> ops.opsForHash().entries(SESSION_KEY_PREFIX + id));
+                        return null;
+                    }
+                });
+            } catch (DataAccessException e) {
+                // В пачке есть сессии старого формата - читаем её по одной
+                batch.stream().map(this::getSession).filter(Objects::nonNull).forEach(sessions::add);
+                continue;
             }
             
-            return objectMapper.readValue(jsonData, WebSocketSessionData.class);
-        } catch (JsonProcessingException e) {
-            System.err.println("DEBUG Redis: Ошибка десериализации сессии: " + e.getMessage());
-            return null;
+            for (Object result : results) {
+                if (result instanceof Map<?, ?> hash) {
+                    WebSocketSessionData session = fromSessionHash(hash);
+                    if (session != null) {
+                        sessions.add(session);
+                    }
+                }
+            }
         }
+        return sessions;
     }
 
     /**
      * Удаляет сессию и связанные данные из Redis
+     * Hash сессии, Set активных сессий и Set сессий пациента обновляются одним Lua-скриптом;
+     * пациент читается из сессии заранее, чтобы передать ключ его сессий в KEYS скрипта
      * @param sessionId ID сессии
      */
     public void deleteSession(String sessionId) {
         WebSocketSessionData sessionData = getSession(sessionId);
+        Long patientId = sessionData != null ? sessionData.getPatientId() : null;
         
-        if (sessionData != null) {
-            // Удаляем из Set сессий пациента
-            if (sessionData.getPatientId() != null) {
-                String patientSessionsKey = PATIENT_SESSIONS_PREFIX + sessionData.getPatientId();
-                redisTemplate.opsForSet().remove(patientSessionsKey, sessionId);
-                
-                // Проверяем, остались ли у пациента другие сессии
-                Long remainingSessions = redisTemplate.opsForSet().size(patientSessionsKey);
-                if (remainingSessions == null || remainingSessions == 0) {
-                    // Если нет других сессий - удаляем пациента из всех очередей
-                    removePatientFromAllQueues(sessionData.getPatientId());
-                    // Удаляем пустой Set сессий пациента
-                    redisTemplate.delete(patientSessionsKey);
-                }
-            }
+        List<String> keys = new ArrayList<>(List.of(
+                SESSION_KEY_PREFIX + sessionId, ACTIVE_SESSIONS_KEY, SESSION_KEY_PREFIX + sessionId + ALIVE_SUFFIX));
+        if (patientId != null) {
+            keys.add(PATIENT_SESSIONS_PREFIX + patientId);
         }
+        Long lastSession = redisTemplate.execute(sessionDeleteScript, keys, sessionId);
         
-        // Удаляем данные сессии
-        String sessionKey = SESSION_KEY_PREFIX + sessionId;
-        redisTemplate.delete(sessionKey);
-        
-        // Удаляем из Set активных сессий
-        redisTemplate.opsForSet().remove(ACTIVE_SESSIONS_KEY, sessionId);
+        if (patientId != null && lastSession != null && lastSession > 0) {
+            // Если нет других сессий - удаляем пациента из всех очередей
+            removePatientFromAllQueues(patientId);
+        }
         
         System.out.println("DEBUG Redis: Сессия удалена: " + sessionId);
     }
 
+    /**
+     * Продлевает TTL ключей alive для сессий одним pipeline
+     * @param sessionIds ID сессий, активных на этом узле
+     */
+    public void touchSessions(Collection<String> sessionIds) {
+        if (sessionIds == null || sessionIds.isEmpty()) {
+            return;
+        }
+        Duration ttl = Duration.ofSeconds(sessionTtlSeconds);
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                sessionIds.forEach(id -> ops.opsForValue().set(SESSION_KEY_PREFIX + id + ALIVE_SUFFIX, "1", ttl));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Находит осиротевшие сессии: есть в ws:sessions:active, но ключ alive истёк
+     * ws:sessions:active обходится курсором SSCAN, EXISTS проверяется пачками в pipeline
+     * @return ID осиротевших сессий
+     */
+    public List<String> findOrphanedSessions() {
+        List<String> orphaned = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().count(SESSION_BATCH_SIZE).build();
+        try (Cursor<String> cursor = redisTemplate.opsForSet().scan(ACTIVE_SESSIONS_KEY, options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SESSION_BATCH_SIZE) {
+                    orphaned.addAll(filterExpired(batch));
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            orphaned.addAll(filterExpired(batch));
+        }
+        return orphaned;
+    }
+
+    private List<String> filterExpired(List<String> sessionIds) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                sessionIds.forEach(id -> ops.hasKey(SESSION_KEY_PREFIX + id + ALIVE_SUFFIX));
+                return null;
+            }
+        });
+        List<String> expired = new ArrayList<>();
+        for (int i = 0; i < sessionIds.size(); i++) {
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                expired.add(sessionIds.get(i));
+            }
+        }
+        return expired;
+    }
+
     /**
      * Получает все активные сессии
+     * SMEMBERS и HGETALL сессий пачками в pipeline - несколько round trip вместо одного на сессию
      * @return Список данных всех активных сессий
      */
     public List<WebSocketSessionData> getAllActiveSessions() {
-        Set<String> sessionIds = redisTemplate.opsForSet().members(ACTIVE_SESSIONS_KEY);
-        
-        if (sessionIds == null || sessionIds.isEmpty()) {
-            return List.of();
-        }
-        
-        return sessionIds.stream()
-                .map(this::getSession)
-                .filter(session -> session != null)
-                .collect(Collectors.toList());
+        return getSessions(redisTemplate.opsForSet().members(ACTIVE_SESSIONS_KEY));
     }
 
     /**
@@ -192,98 +361,13 @@ public class RedisQueueService {
 
     // ==================== QUEUE MANAGEMENT FOR TODAY ====================
 
-    /**
-     * Формирует очередь для пациента на текущий день
-     * Получает все appointments на сегодня, группирует по врачам,
-     * проверяет позицию пользователя и добавляет в очередь Redis
-     * 
-     * @param patientId ID пациента
-     * @return Список записей очереди для пациента
-     */
-    public List<QueueEntryDto> buildQueueForToday(Long patientId) {
-        LocalDate today = LocalDate.now();
-        OffsetDateTime startOfDay = today.atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
-        OffsetDateTime endOfDay = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
-        OffsetDateTime now = OffsetDateTime.now();
-        
-        System.out.println("DEBUG Redis: Построение очереди на сегодня для пациента " + patientId);
-        System.out.println("DEBUG Redis: Диапазон: " + startOfDay + " - " + endOfDay);
-        
-        // Получаем все appointments на сегодня для всех врачей
-        List<Appointment> allTodayAppointments = appointmentRepository.findByStartTimeBetween(startOfDay, endOfDay)
-                .stream()
-                .filter(a -> a.getPatient() != null)
-                .filter(a -> !"completed".equals(a.getStatus()) && !"cancelled".equals(a.getStatus()))
-                .filter(a -> a.getStartTime().isAfter(now)) // Только будущие приемы
-                .collect(Collectors.toList());
-        
-        System.out.println("DEBUG Redis: Всего appointments на сегодня: " + allTodayAppointments.size());
-        
-        // Группируем по врачам
-        var appointmentsByDoctor = allTodayAppointments.stream()
-                .collect(Collectors.groupingBy(a -> a.getDoctor().getId()));
-        
-        List<QueueEntryDto> patientQueueEntries = new ArrayList<>();
-        
-        for (var entry : appointmentsByDoctor.entrySet()) {
-            Long doctorId = entry.getKey();
-            List<Appointment> doctorAppointments = entry.getValue();
-            
-            // Сортируем по времени начала
-            doctorAppointments.sort((a1, a2) -> a1.getStartTime().compareTo(a2.getStartTime()));
-            
-            // Проверяем, есть ли текущий пациент в этих appointments
-            Appointment patientAppointment = doctorAppointments.stream()
-                    .filter(a -> patientId.equals(a.getPatient().getId()))
-                    .findFirst()
-                    .orElse(null);
-            
-            if (patientAppointment != null) {
-                // Рассчитываем позицию: сколько appointments перед текущим пациентом
-                int position = 0;
-                for (Appointment appointment : doctorAppointments) {
-                    if (appointment.getId().equals(patientAppointment.getId())) {
-                        break;
-                    }
-                    position++;
-                }
-                
-                // Добавляем пациента в очередь Redis
-                addToQueue(patientId, doctorId, position);
-                
-                // Создаем DTO для возврата
-                QueueEntryDto queueEntry = new QueueEntryDto(
-                        null,
-                        doctorId,
-                        patientAppointment.getId(),
-                        patientId,
-                        position,
-                        OffsetDateTime.now()
-                );
-                patientQueueEntries.add(queueEntry);
-                
-                System.out.println("DEBUG Redis: Пациент " + patientId + " добавлен в очередь к врачу " + 
-                        doctorId + " на позицию " + position);
-            }
-        }
-        
-        return patientQueueEntries;
-    }
-
     /**
      * Удаляет пациента из всех очередей
+     * Врачи берутся из обратного индекса patient:queues:{patientId}, без обращения к БД
      * @param patientId ID пациента
      */
     public void removePatientFromAllQueues(Long patientId) {
-        // Получаем все appointments пациента для определения врачей
-        List<Appointment> appointments = appointmentRepository.findByPatientId(patientId);
-        
-        Set<Long> doctorIds = appointments.stream()
-                .filter(a -> a.getDoctor() != null)
-                .map(a -> a.getDoctor().getId())
-                .collect(Collectors.toSet());
-        
-        for (Long doctorId : doctorIds) {
+        for (Long doctorId : getPatientDoctorIds(patientId)) {
             removeFromQueue(patientId, doctorId);
         }
         
@@ -291,138 +375,185 @@ public class RedisQueueService {
     }
 
     /**
-     * Удаляет просроченные appointments из очереди
-     * Вызывается scheduled задачей каждую минуту
+     * Удаляет из очередей записи, время приёма которых уже наступило
+     * Вызывается scheduled задачей каждую минуту: один ZRANGEBYSCORE -inf..now по queue:expiry,
+     * обрабатываются только действительно истёкшие записи, без обращения к БД
      * 
-     * @param sessionId ID сессии для обновления
-     * @return Количество удаленных записей
+     * @param now Текущее время
+     * @return ID пациентов, удалённых хотя бы из одной очереди
      */
-    public int removeExpiredAppointments(String sessionId) {
-        WebSocketSessionData session = getSession(sessionId);
-        if (session == null || session.getAppointmentIds() == null) {
-            return 0;
-        }
+    public Set<Long> removeExpiredEntries(OffsetDateTime now) {
+        Set<String> expired = redisTemplate.opsForZSet()
+                .rangeByScore(EXPIRY_KEY, Double.NEGATIVE_INFINITY, now.toEpochSecond());
         
-        OffsetDateTime now = OffsetDateTime.now();
-        int removedCount = 0;
-        List<Long> activeAppointmentIds = new ArrayList<>();
+        Set<Long> patientIds = new HashSet<>();
+        if (expired == null || expired.isEmpty()) {
+            return patientIds;
+        }
         
-        for (Long appointmentId : session.getAppointmentIds()) {
-            Appointment appointment = appointmentRepository.findById(appointmentId).orElse(null);
-            
-            if (appointment == null) {
+        for (String entry : expired) {
+            int separator = entry.indexOf(':');
+            Long doctorId = separator > 0 ? parseId(entry.substring(0, separator)) : null;
+            Long patientId = separator > 0 ? extractPatientId(entry.substring(separator + 1)) : null;
+            if (doctorId == null || patientId == null) {
+                redisTemplate.opsForZSet().remove(EXPIRY_KEY, entry);
                 continue;
             }
             
-            // Если время приема прошло - удаляем из очереди
-            if (appointment.getStartTime().isBefore(now)) {
-                if (appointment.getPatient() != null && appointment.getDoctor() != null) {
-                    removeFromQueue(appointment.getPatient().getId(), appointment.getDoctor().getId());
-                    removedCount++;
-                    System.out.println("DEBUG Redis: Удален просроченный appointment " + appointmentId + 
-                            " из очереди к врачу " + appointment.getDoctor().getId());
-                }
-            } else {
-                activeAppointmentIds.add(appointmentId);
+            // Скрипт удаления убирает и запись queue:expiry; повторная обработка (другим узлом) - no-op
+            if (removeFromQueue(patientId, doctorId)) {
+                patientIds.add(patientId);
+                System.out.println("DEBUG Redis: Удалена истёкшая запись пациента " + patientId + 
+                        " из очереди к врачу " + doctorId);
             }
         }
         
-        // Обновляем список appointments в сессии
-        if (removedCount > 0) {
-            session.setAppointmentIds(activeAppointmentIds);
-            saveSession(sessionId, session);
-        }
-        
-        return removedCount;
+        return patientIds;
     }
 
     /**
      * Пересчитывает очередь для врача после изменения статуса appointment
+     * Полный путь: берёт appointments врача только за сегодня, вычисляет целевой порядок
+     * и записывает его в Redis в зависимости от app.queue.rebuild-mode (swap или diff)
      * @param doctorId ID врача
      */
     public void recalculateQueueForDoctor(Long doctorId) {
         LocalDate today = LocalDate.now();
         OffsetDateTime startOfDay = today.atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
         OffsetDateTime endOfDay = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
-        OffsetDateTime now = OffsetDateTime.now();
         
-        // Получаем все активные appointments к врачу на сегодня
-        List<Appointment> doctorAppointments = appointmentRepository.findByDoctorId(doctorId)
-                .stream()
-                .filter(a -> a.getPatient() != null)
-                .filter(a -> a.getStartTime().isAfter(startOfDay) && a.getStartTime().isBefore(endOfDay))
-                .filter(a -> a.getStartTime().isAfter(now))
-                .filter(a -> !"completed".equals(a.getStatus()) && !"cancelled".equals(a.getStatus()))
-                .sorted((a1, a2) -> a1.getStartTime().compareTo(a2.getStartTime()))
-                .collect(Collectors.toList());
-        
-        // Очищаем текущую очередь к врачу
-        clearQueue(doctorId);
-        
-        // Добавляем всех пациентов с новыми позициями
-        int position = 0;
-        for (Appointment appointment : doctorAppointments) {
-            addToQueueWithoutNotification(appointment.getPatient().getId(), doctorId, position);
-            position++;
+        ReentrantLock lock = getDoctorLock(doctorId);
+        lock.lock();
+        try {
+            // Получаем appointments к врачу только на сегодня
+            List<Appointment> doctorAppointments = appointmentRepository.findByDoctorIdAndDate(doctorId, startOfDay, endOfDay);
+            replaceQueue(doctorId, doctorAppointments, OffsetDateTime.now());
+        } finally {
+            lock.unlock();
         }
-        
-        // Отправляем одно уведомление об обновлении очереди
-        notifyQueueUpdated(doctorId);
-        
-        System.out.println("DEBUG Redis: Очередь к врачу " + doctorId + " пересчитана, " + 
-                doctorAppointments.size() + " пациентов");
     }
 
-    // ==================== QUEUE OPERATIONS ====================
+    /**
+     * Заменяет очередь врача целевой, вычисленной по уже загруженным appointments
+     * (используется и пересчётом одного врача, и общим снимком очередей на день)
+     * @param doctorId ID врача
+     * @param doctorAppointments appointments врача на сегодня
+     * @param now Текущее время
+     */
+    public void replaceQueue(Long doctorId, List<Appointment> doctorAppointments, OffsetDateTime now) {
+        ReentrantLock lock = getDoctorLock(doctorId);
+        lock.lock();
+        try {
+            Map<String, Appointment> members = QueueDeltaEngine.buildMembers(doctorAppointments, now);
+            
+            String queueKey = getQueueKey(doctorId);
+            int written;
+            if ("diff".equals(rebuildMode)) {
+                // Применяем только разницу между текущей и целевой очередью
+                Map<String, Double> target = new LinkedHashMap<>();
+                members.forEach((member, a) -> target.put(member, QueueDeltaEngine.score(a.getStartTime())));
+                QueueDeltaEngine.QueueDelta delta = QueueDeltaEngine.diff(readScores(redisTemplate, queueKey), target);
+                if (!delta.isEmpty()) {
+                    redisTemplate.executePipelined(new SessionCallback<Object>() {
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public <K, V> Object execute(RedisOperations<K, V> operations) {
+                            applyDelta((RedisOperations<String, String>) operations, doctorId, delta, members);
+                            return null;
+                        }
+                    });
+                }
+                written = delta.size();
+            } else {
+                swapQueue(doctorId, members);
+                written = members.size();
+            }
+            
+            // Отправляем одно уведомление об обновлении очереди
+            notifyQueueUpdated(doctorId);
+            
+            System.out.println("DEBUG Redis: Очередь к врачу " + doctorId + " пересчитана, " + 
+                    members.size() + " пациентов, записано: " + written + " (режим " + rebuildMode + ")");
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
-     * Добавляет пациента в очередь к врачу
+     * Инкрементально удаляет пациента из очереди после завершения/отмены приёма
+     * Один ZREM (позиции остальных выводятся через ZRANK и не меняются) и проверка
+     * первого score на рассинхронизацию - в одном Lua-скрипте, без обращения к БД.
+     * Полный пересчёт выполняется только для очереди в старом формате. Если пациента нет в очереди
+     * (например, удалён при отключении), очередь не меняется и рассылки нет
+     *
      * @param patientId ID пациента
      * @param doctorId ID врача
-     * @param position Позиция в очереди (score в Sorted Set)
      */
-    public void addToQueue(Long patientId, Long doctorId, Integer position) {
-        String queueKey = getQueueKey(doctorId);
-        String patientKey = "patient:" + patientId;
-        
-        ZSetOperations<String, String> zSetOps = redisTemplate.opsForZSet();
-        zSetOps.add(queueKey, patientKey, position);
+    public void removeFromQueueIncremental(Long patientId, Long doctorId) {
+        ReentrantLock lock = getDoctorLock(doctorId);
+        lock.lock();
+        try {
+            Long removed = executeRemove(patientId, doctorId);
+            
+            if (removed != null && removed < 0) {
+                System.out.println("DEBUG Redis: Очередь к врачу " + doctorId + 
+                        " в старом формате, выполняем полный пересчёт");
+                recalculateQueueForDoctor(doctorId);
+                return;
+            }
+            if (removed == null || removed == 0) {
+                System.out.println("DEBUG Redis: Пациента " + patientId + " нет в очереди к врачу " + doctorId);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
         
-        // Отправляем уведомление об обновлении очереди
         notifyQueueUpdated(doctorId);
+        System.out.println("DEBUG Redis: Пациент " + patientId + " инкрементально удалён из очереди к врачу " + doctorId);
     }
 
+    // ==================== QUEUE OPERATIONS ====================
+
     /**
-     * Добавляет пациента в очередь без отправки уведомления
-     * Используется при массовом обновлении очереди
+     * Добавляет пациента в очередь к врачу
+     * Вместе с участником сохраняет appointmentId в хеше queue:doctor:{id}:appointments
+     * и врача в обратном индексе patient:queues:{patientId}
+     * Повторное добавление того же пациента идемпотентно и не вызывает рассылку
+     * @param patientId ID пациента
+     * @param doctorId ID врача
+     * @param appointmentId ID приёма
+     * @param startTime Время начала приёма (score в Sorted Set)
      */
-    private void addToQueueWithoutNotification(Long patientId, Long doctorId, Integer position) {
-        String queueKey = getQueueKey(doctorId);
-        String patientKey = "patient:" + patientId;
+    public void addToQueue(Long patientId, Long doctorId, Long appointmentId, OffsetDateTime startTime) {
+        Long added = redisTemplate.execute(
+            queueAddScript,
+            List.of(getQueueKey(doctorId), getAppointmentsKey(doctorId), getPatientQueuesKey(patientId),
+                    EXPIRY_KEY, ACTIVE_DOCTORS_KEY),
+            String.valueOf((long) QueueDeltaEngine.score(startTime)),
+            QueueDeltaEngine.MEMBER_PREFIX + patientId,
+            String.valueOf(appointmentId),
+            String.valueOf(doctorId)
+        );
         
-        ZSetOperations<String, String> zSetOps = redisTemplate.opsForZSet();
-        zSetOps.add(queueKey, patientKey, position);
+        // Отправляем уведомление, только если пациент действительно появился в очереди
+        if (added != null && added > 0) {
+            notifyQueueUpdated(doctorId);
+        }
     }
 
     /**
-     * Удаляет пациента из очереди с автоматическим сдвигом позиций
-     * Использует Lua-скрипт для атомарной операции
+     * Удаляет пациента из очереди
+     * Один ZREM за O(log N): позиции остальных пациентов выводятся через ZRANK и сдвигаются сами
      * 
      * @param patientId ID пациента
      * @param doctorId ID врача
      * @return true если пациент был удален, false если не найден
      */
     public boolean removeFromQueue(Long patientId, Long doctorId) {
-        String queueKey = getQueueKey(doctorId);
-        String patientKey = "patient:" + patientId;
+        Long result = executeRemove(patientId, doctorId);
         
-        Long result = redisTemplate.execute(
-            removeAndShiftScript,
-            List.of(queueKey),
-            patientKey
-        );
-        
-        if (result != null && result > 0) {
+        if (result != null && result != 0) {
             // Отправляем уведомление об обновлении очереди
             notifyQueueUpdated(doctorId);
             return true;
@@ -433,38 +564,89 @@ public class RedisQueueService {
 
     /**
      * Получает очередь к врачу
+     * ZRANGE и appointmentId из хеша читаются одним pipeline, без обращения к БД
      * @param doctorId ID врача
      * @return Список записей очереди
      */
     public List<QueueEntryDto> getQueueByDoctor(Long doctorId) {
         String queueKey = getQueueKey(doctorId);
-        ZSetOperations<String, String> zSetOps = redisTemplate.opsForZSet();
+        String appointmentsKey = getAppointmentsKey(doctorId);
         
-        // Получаем все элементы с их позициями (score)
-        Set<ZSetOperations.TypedTuple<String>> members = zSetOps.rangeWithScores(queueKey, 0, -1);
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                // Все элементы в порядке очереди, позиция = индекс (ZRANK)
+                ops.opsForZSet().range(queueKey, 0, -1);
+                ops.opsForHash().entries(appointmentsKey);
+                return null;
+            }
+        });
         
+        @SuppressWarnings("unchecked")
+        Set<String> members = (Set<String>) results.get(0);
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> appointmentIds = (Map<Object, Object>) results.get(1);
+        return toQueueEntries(doctorId, members, appointmentIds);
+    }
+
+    /**
+     * Очередь врача и её версия, прочитанные атомарно (MULTI/EXEC)
+     * @param doctorId ID врача
+     * @param increment true - версия увеличивается (рассылка), false - только читается
+     * @return Версия и очередь в состоянии на момент одной и той же команды EXEC
+     */
+    private VersionedQueue getVersionedQueue(Long doctorId, boolean increment) {
+        String queueKey = getQueueKey(doctorId);
+        String appointmentsKey = getAppointmentsKey(doctorId);
+        String versionKey = getVersionKey(doctorId);
+
+        List<Object> results = redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.multi();
+                ops.opsForZSet().range(queueKey, 0, -1);
+                ops.opsForHash().entries(appointmentsKey);
+                if (increment) {
+                    ops.opsForValue().increment(versionKey);
+                } else {
+                    ops.opsForValue().get(versionKey);
+                }
+                return ops.exec();
+            }
+        });
+
+        if (results == null || results.size() < 3) {
+            return new VersionedQueue(0L, List.of());
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> members = (Set<String>) results.get(0);
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> appointmentIds = (Map<Object, Object>) results.get(1);
+        Object version = results.get(2);
+        return new VersionedQueue(
+                version != null ? Long.parseLong(version.toString()) : 0L,
+                toQueueEntries(doctorId, members, appointmentIds));
+    }
+
+    private List<QueueEntryDto> toQueueEntries(Long doctorId, Set<String> members, Map<Object, Object> appointmentIds) {
         if (members == null) {
             return List.of();
         }
         
+        AtomicInteger rank = new AtomicInteger();
         return members.stream()
-                .map(tuple -> {
-                    String patientKey = tuple.getValue();
-                    Long patientId = extractPatientId(patientKey);
-                    Integer position = tuple.getScore() != null ? tuple.getScore().intValue() : 0;
-                    
-                    // Получаем appointment для этого пациента и врача
-                    Appointment appointment = findAppointment(patientId, doctorId);
-                    
-                    return new QueueEntryDto(
-                            null, // ID не используется в Redis
-                            doctorId,
-                            appointment != null ? appointment.getId() : null,
-                            patientId,
-                            position,
-                            OffsetDateTime.now()
-                    );
-                })
+                .map(patientKey -> new QueueEntryDto(
+                        null, // ID не используется в Redis
+                        doctorId,
+                        parseId(appointmentIds != null ? appointmentIds.get(patientKey) : null),
+                        extractPatientId(patientKey),
+                        rank.getAndIncrement(),
+                        null
+                ))
                 .collect(Collectors.toList());
     }
 
@@ -476,36 +658,23 @@ public class RedisQueueService {
      */
     public Integer getPatientPosition(Long patientId, Long doctorId) {
         String queueKey = getQueueKey(doctorId);
-        String patientKey = "patient:" + patientId;
+        String patientKey = QueueDeltaEngine.MEMBER_PREFIX + patientId;
         
         ZSetOperations<String, String> zSetOps = redisTemplate.opsForZSet();
-        Double score = zSetOps.score(queueKey, patientKey);
+        Long rank = zSetOps.rank(queueKey, patientKey);
         
-        return score != null ? score.intValue() : null;
+        return rank != null ? rank.intValue() : null;
     }
 
     /**
      * Проверяет, является ли пациент следующим в очереди
      * @param patientId ID пациента
      * @param doctorId ID врача
-     * @return true если пациент следующий (позиция 0 или нет пациентов перед ним)
+     * @return true если пациент следующий (ZRANK = 0, перед ним нет пациентов)
      */
     public boolean isPatientNextInQueue(Long patientId, Long doctorId) {
         Integer position = getPatientPosition(patientId, doctorId);
-        if (position == null) {
-            return false;
-        }
-        
-        if (position == 0) {
-            return true;
-        }
-        
-        // Проверяем, есть ли пациенты с позицией меньше текущей
-        String queueKey = getQueueKey(doctorId);
-        ZSetOperations<String, String> zSetOps = redisTemplate.opsForZSet();
-        Long count = zSetOps.count(queueKey, 0, position - 1);
-        
-        return count == null || count == 0;
+        return position != null && position == 0;
     }
 
     /**
@@ -519,13 +688,32 @@ public class RedisQueueService {
         return zSetOps.zCard(queueKey);
     }
 
+    /**
+     * Получает ID врачей с непустой очередью (реестр queue:doctors:active)
+     * Реестр обновляется теми же Lua-скриптами, что и очереди, без обращения к БД
+     * @return Set ID врачей
+     */
+    public Set<Long> getActiveDoctorIds() {
+        Set<String> members = redisTemplate.opsForSet().members(ACTIVE_DOCTORS_KEY);
+        Set<Long> doctorIds = new HashSet<>();
+        if (members != null) {
+            members.forEach(member -> {
+                Long doctorId = parseId(member);
+                if (doctorId != null) {
+                    doctorIds.add(doctorId);
+                }
+            });
+        }
+        return doctorIds;
+    }
+
     /**
      * Очищает очередь к врачу
+     * Подмена пустой очередью: врач убирается из обратного индекса всех пациентов, стоявших в ней
      * @param doctorId ID врача
      */
     public void clearQueue(Long doctorId) {
-        String queueKey = getQueueKey(doctorId);
-        redisTemplate.delete(queueKey);
+        swapQueue(doctorId, Map.of());
     }
 
     /**
@@ -539,16 +727,65 @@ public class RedisQueueService {
 
     /**
      * Отправляет WebSocket уведомление об обновлении очереди
+     * Уведомления по одному врачу в пределах окна объединяются в одну рассылку (QueueBroadcastDispatcher)
      * @param doctorId ID врача
      */
     public void notifyQueueUpdated(Long doctorId) {
-        List<QueueEntryDto> queue = getQueueByDoctor(doctorId);
+        broadcastDispatcher.schedule(doctorId, this::broadcastQueue);
+    }
+
+    /**
+     * Вычисляет очередь врача и сразу отправляет её подписчикам
+     * Без подписчиков очередь не вычисляется: увеличивается только версия, а база дельты сбрасывается,
+     * поэтому следующая рассылка будет полным снимком
+     * @param doctorId ID врача
+     * @return true, если сообщение отправлено
+     */
+    private boolean broadcastQueue(Long doctorId) {
+        if (!subscriptionRegistry.hasSubscribers(doctorId)) {
+            redisTemplate.opsForValue().increment(getVersionKey(doctorId));
+            lastBroadcasts.remove(doctorId);
+            subscriptionRegistry.recordSkipped();
+            return false;
+        }
+        
+        // Очередь читается в одной транзакции с увеличением версии: рассылка с большей версией
+        // никогда не содержит более старую очередь
+        VersionedQueue current = getVersionedQueue(doctorId, true);
+        List<QueueEntryDto> queue = current.queue();
+        Long version = current.version();
+        String destination = "/topic/queue/doctor/" + doctorId;
+        
+        // Протокол delta: отправляем только изменения относительно предыдущей рассылки этого узла.
+        // Если предыдущей рассылки нет или версию увеличил кто-то другой - отправляем полный снимок
+        if ("delta".equals(protocolMode) && version != null) {
+            BroadcastState previous = lastBroadcasts.put(doctorId, new BroadcastState(version, queue));
+            if (previous != null && previous.version + 1 == version) {
+                messageRelay.send(destination, new QueueDeltaEvent(
+                    doctorId,
+                    previous.version,
+                    version,
+                    QueueDeltaEngine.diffEntries(previous.queue, queue)
+                ));
+                return true;
+            }
+        }
         
         // Отправляем обновление всем подписчикам на очередь этого врача
-        messagingTemplate.convertAndSend(
-            "/topic/queue/doctor/" + doctorId,
-            new QueueUpdateEvent(doctorId, queue)
-        );
+        messageRelay.send(destination, new QueueUpdateEvent(doctorId, version, queue));
+        return true;
+    }
+
+    /**
+     * Получает полный снимок очереди врача с текущей версией
+     * Используется клиентом протокола delta при обнаружении пропуска версии
+     * Версия и очередь читаются в одной транзакции, как при рассылке
+     * @param doctorId ID врача
+     * @return Снимок очереди
+     */
+    public QueueUpdateEvent getQueueSnapshot(Long doctorId) {
+        VersionedQueue current = getVersionedQueue(doctorId, false);
+        return new QueueUpdateEvent(doctorId, current.version(), current.queue());
     }
 
     /**
@@ -557,7 +794,7 @@ public class RedisQueueService {
      * @param queueEntries Записи очереди
      */
     public void notifyUserQueueUpdate(String email, List<QueueEntryDto> queueEntries) {
-        messagingTemplate.convertAndSendToUser(
+        messageRelay.sendToUser(
             email,
             "/queue/user",
             new QueueInitResponse(true, "Очередь обновлена", queueEntries)
@@ -566,87 +803,329 @@ public class RedisQueueService {
 
     /**
      * Получает все очереди для конкретного пациента
+     * Врачи берутся из обратного индекса patient:queues:{patientId}, позиции (ZRANK)
+     * и appointmentId читаются одним pipeline - O(число активных очередей), без обращения к БД
      * @param patientId ID пациента
      * @return Список записей очереди для всех врачей
      */
     public List<QueueEntryDto> getQueuesByPatient(Long patientId) {
-        // Получаем все appointments пациента
-        List<Appointment> appointments = appointmentRepository.findByPatientId(patientId);
+        List<Long> doctorIds = new ArrayList<>(getPatientDoctorIds(patientId));
+        if (doctorIds.isEmpty()) {
+            return List.of();
+        }
         
-        // Группируем по врачам и получаем очереди
-        return appointments.stream()
-                .filter(a -> a.getDoctor() != null)
-                .filter(a -> !"completed".equals(a.getStatus()) && !"cancelled".equals(a.getStatus()))
-                .collect(Collectors.groupingBy(Appointment::getDoctor))
-                .entrySet().stream()
-                .flatMap(entry -> {
-                    Long doctorId = entry.getKey().getId();
-                    Integer position = getPatientPosition(patientId, doctorId);
-                    if (position != null) {
-                        // Получаем очередь к врачу и фильтруем по пациенту
-                        List<QueueEntryDto> queue = getQueueByDoctor(doctorId);
-                        return queue.stream()
-                                .filter(e -> patientId.equals(e.getPatientId()));
-                    }
-                    return java.util.stream.Stream.empty();
-                })
-                .collect(Collectors.toList());
+        String patientKey = QueueDeltaEngine.MEMBER_PREFIX + patientId;
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Long doctorId : doctorIds) {
+                    ops.opsForZSet().rank(getQueueKey(doctorId), patientKey);
+                    ops.opsForHash().get(getAppointmentsKey(doctorId), patientKey);
+                }
+                return null;
+            }
+        });
+        
+        List<QueueEntryDto> entries = new ArrayList<>();
+        for (int i = 0; i < doctorIds.size(); i++) {
+            Object rank = results.get(i * 2);
+            if (rank == null) {
+                // Индекс устарел (очередь удалена вне скриптов) - запись пропускается
+                continue;
+            }
+            entries.add(new QueueEntryDto(
+                    null,
+                    doctorIds.get(i),
+                    parseId(results.get(i * 2 + 1)),
+                    patientId,
+                    ((Number) rank).intValue(),
+                    null
+            ));
+        }
+        return entries;
+    }
+
+    // ==================== PRIVATE HELPERS ====================
+
+    private String getQueueKey(Long doctorId) {
+        return QUEUE_KEY_PREFIX + doctorId;
+    }
+
+    private String getAppointmentsKey(Long doctorId) {
+        return QUEUE_KEY_PREFIX + doctorId + APPOINTMENTS_SUFFIX;
+    }
+
+    private String getVersionKey(Long doctorId) {
+        return QUEUE_KEY_PREFIX + doctorId + VERSION_SUFFIX;
+    }
+
+    private ReentrantLock getDoctorLock(Long doctorId) {
+        return doctorLocks.computeIfAbsent(doctorId, id -> new ReentrantLock());
+    }
+
+    private String getPatientQueuesKey(Long patientId) {
+        return PATIENT_QUEUES_PREFIX + patientId;
     }
 
     /**
-     * Строит очередь из appointments для пациента (legacy метод)
-     * @deprecated Используйте buildQueueForToday вместо этого метода
+     * ID врачей из обратного индекса patient:queues:{patientId}
      */
-    @Deprecated
-    public void buildQueueFromAppointments(Long patientId) {
-        buildQueueForToday(patientId);
+    private Set<Long> getPatientDoctorIds(Long patientId) {
+        Set<String> members = redisTemplate.opsForSet().members(getPatientQueuesKey(patientId));
+        Set<Long> doctorIds = new HashSet<>();
+        if (members != null) {
+            members.forEach(member -> {
+                Long doctorId = parseId(member);
+                if (doctorId != null) {
+                    doctorIds.add(doctorId);
+                }
+            });
+        }
+        return doctorIds;
     }
 
-    // ==================== PRIVATE HELPERS ====================
+    /**
+     * Атомарно заменяет очередь целевой: собирает её (вместе с хешем appointmentId)
+     * во временных ключах :staging и переименовывает поверх живых одним Lua-скриптом (один round trip)
+     * Тот же скрипт обновляет queue:expiry, обратный индекс patient:queues:{patientId} выбывших
+     * и новых участников и реестр queue:doctors:active.
+     * Скрипт обращается только к ключам из KEYS (требование Redis Cluster), поэтому обратные индексы
+     * объявляются для текущих и целевых участников. Если участника добавили после чтения очереди,
+     * скрипт ничего не меняет и возвращает его - вызов повторяется с его ключом
+     */
+    private void swapQueue(Long doctorId, Map<String, Appointment> members) {
+        String queueKey = getQueueKey(doctorId);
+        String appointmentsKey = getAppointmentsKey(doctorId);
 
-    private String getQueueKey(Long doctorId) {
-        return QUEUE_KEY_PREFIX + doctorId;
+        Set<String> declared = new LinkedHashSet<>(members.keySet());
+        Set<String> current = redisTemplate.opsForZSet().range(queueKey, 0, -1);
+        if (current != null) {
+            declared.addAll(current);
+        }
+        declared.removeIf(member -> extractPatientId(member) == null);
+
+        for (int attempt = 1; ; attempt++) {
+            List<String> keys = new ArrayList<>(List.of(queueKey, queueKey + STAGING_SUFFIX, appointmentsKey,
+                    appointmentsKey + STAGING_SUFFIX, EXPIRY_KEY, ACTIVE_DOCTORS_KEY));
+            Object[] args = new Object[2 + declared.size() + members.size() * 3];
+            int i = 0;
+            args[i++] = String.valueOf(doctorId);
+            args[i++] = String.valueOf(declared.size());
+            for (String member : declared) {
+                keys.add(getPatientQueuesKey(extractPatientId(member)));
+                args[i++] = member;
+            }
+            for (Map.Entry<String, Appointment> entry : members.entrySet()) {
+                args[i++] = String.valueOf((long) QueueDeltaEngine.score(entry.getValue().getStartTime()));
+                args[i++] = entry.getKey();
+                args[i++] = String.valueOf(entry.getValue().getId());
+            }
+
+            List<?> missing = redisTemplate.execute(rebuildQueueScript, keys, args);
+            if (missing == null || missing.isEmpty()) {
+                return;
+            }
+            if (attempt >= SWAP_ATTEMPTS) {
+                throw new IllegalStateException("Очередь врача " + doctorId
+                        + " меняется быстрее, чем пересобирается: " + missing);
+            }
+            System.out.println("DEBUG Redis: Очередь врача " + doctorId + " изменилась во время пересборки, повтор: " + missing);
+            missing.forEach(member -> declared.add(String.valueOf(member)));
+        }
     }
 
-    private Long extractPatientId(String patientKey) {
-        if (patientKey != null && patientKey.startsWith("patient:")) {
+    /**
+     * Удаляет участника из очереди и хеша appointmentId одним Lua-скриптом
+     * @return 1 - удалён, 0 - не найден, -1 - удалён, но очередь в старом формате
+     */
+    private Long executeRemove(Long patientId, Long doctorId) {
+        return redisTemplate.execute(
+            queueRemoveScript,
+            List.of(getQueueKey(doctorId), getAppointmentsKey(doctorId), getPatientQueuesKey(patientId),
+                    EXPIRY_KEY, ACTIVE_DOCTORS_KEY),
+            QueueDeltaEngine.MEMBER_PREFIX + patientId,
+            String.valueOf((long) QueueDeltaEngine.MIN_EPOCH_SCORE),
+            String.valueOf(doctorId)
+        );
+    }
+
+    /**
+     * Читает score участников очереди в порядке возрастания
+     */
+    private Map<String, Double> readScores(RedisOperations<String, String> operations, String queueKey) {
+        Set<ZSetOperations.TypedTuple<String>> members = operations.opsForZSet().rangeWithScores(queueKey, 0, -1);
+        Map<String, Double> scores = new LinkedHashMap<>();
+        if (members != null) {
+            members.forEach(tuple -> scores.put(tuple.getValue(), tuple.getScore()));
+        }
+        return scores;
+    }
+
+    /**
+     * Записывает дельту очереди: ZREM/HDEL удалённых и один ZADD/HSET для изменённых score
+     * вместе с обратным индексом patient:queues:{patientId}, queue:expiry и реестром
+     * queue:doctors:active в том же pipeline
+     */
+    private void applyDelta(RedisOperations<String, String> operations, Long doctorId,
+                            QueueDeltaEngine.QueueDelta delta, Map<String, Appointment> members) {
+        String queueKey = getQueueKey(doctorId);
+        String appointmentsKey = getAppointmentsKey(doctorId);
+        if (!delta.getRemoved().isEmpty()) {
+            operations.opsForZSet().remove(queueKey, delta.getRemoved().toArray());
+            operations.opsForHash().delete(appointmentsKey, delta.getRemoved().toArray());
+            delta.getRemoved().forEach(member -> operations.opsForSet()
+                    .remove(getPatientQueuesKey(extractPatientId(member)), String.valueOf(doctorId)));
+            operations.opsForZSet().remove(EXPIRY_KEY, delta.getRemoved().stream()
+                    .map(member -> doctorId + ":" + member).toArray());
+        }
+        if (!delta.getUpdates().isEmpty()) {
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+            Set<ZSetOperations.TypedTuple<String>> expiry = new HashSet<>();
+            Map<String, String> appointmentIds = new HashMap<>();
+            delta.getUpdates().forEach((member, score) -> {
+                tuples.add(new DefaultTypedTuple<>(member, score));
+                expiry.add(new DefaultTypedTuple<>(doctorId + ":" + member, score));
+                appointmentIds.put(member, String.valueOf(members.get(member).getId()));
+            });
+            operations.opsForZSet().add(queueKey, tuples);
+            operations.opsForHash().putAll(appointmentsKey, appointmentIds);
+            operations.opsForZSet().add(EXPIRY_KEY, expiry);
+            delta.getUpdates().keySet().forEach(member -> operations.opsForSet()
+                    .add(getPatientQueuesKey(extractPatientId(member)), String.valueOf(doctorId)));
+        }
+        if (members.isEmpty()) {
+            operations.opsForSet().remove(ACTIVE_DOCTORS_KEY, String.valueOf(doctorId));
+        } else {
+            operations.opsForSet().add(ACTIVE_DOCTORS_KEY, String.valueOf(doctorId));
+        }
+    }
+
+    private Map<String, String> toSessionHash(WebSocketSessionData sessionData) {
+        Map<String, String> hash = new LinkedHashMap<>();
+        hash.put("sessionId", sessionData.getSessionId() != null ? sessionData.getSessionId() : "");
+        if (sessionData.getUserId() != null) {
+            hash.put("userId", String.valueOf(sessionData.getUserId()));
+        }
+        if (sessionData.getPatientId() != null) {
+            hash.put("patientId", String.valueOf(sessionData.getPatientId()));
+        }
+        if (sessionData.getEmail() != null) {
+            hash.put("email", sessionData.getEmail());
+        }
+        if (sessionData.getAppointmentIds() != null) {
+            hash.put("appointmentIds", sessionData.getAppointmentIds().stream()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(",")));
+        }
+        if (sessionData.getConnectedAt() != null) {
+            hash.put("connectedAt", sessionData.getConnectedAt().toString());
+        }
+        return hash;
+    }
+
+    private WebSocketSessionData fromSessionHash(Map<?, ?> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        WebSocketSessionData session = new WebSocketSessionData();
+        Object sessionId = hash.get("sessionId");
+        session.setSessionId(sessionId != null && !sessionId.toString().isEmpty() ? sessionId.toString() : null);
+        session.setUserId(parseId(hash.get("userId")));
+        session.setPatientId(parseId(hash.get("patientId")));
+        Object email = hash.get("email");
+        session.setEmail(email != null ? email.toString() : null);
+        Object appointmentIds = hash.get("appointmentIds");
+        if (appointmentIds != null) {
+            List<Long> ids = new ArrayList<>();
+            for (String id : appointmentIds.toString().split(",")) {
+                Long parsed = parseId(id);
+                if (parsed != null) {
+                    ids.add(parsed);
+                }
+            }
+            session.setAppointmentIds(ids);
+        }
+        Object connectedAt = hash.get("connectedAt");
+        if (connectedAt != null) {
             try {
-                return Long.parseLong(patientKey.substring("patient:".length()));
-            } catch (NumberFormatException e) {
-                return null;
+                session.setConnectedAt(LocalDateTime.parse(connectedAt.toString()));
+            } catch (DateTimeParseException e) {
+                session.setConnectedAt(null);
             }
         }
-        return null;
+        return session;
     }
 
-    private Appointment findAppointment(Long patientId, Long doctorId) {
-        if (patientId == null || doctorId == null) {
+    private WebSocketSessionData getLegacySession(String sessionKey) {
+        try {
+            String jsonData = redisTemplate.opsForValue().get(sessionKey);
+            return jsonData != null ? objectMapper.readValue(jsonData, WebSocketSessionData.class) : null;
+        } catch (JsonProcessingException | DataAccessException e) {
+            System.err.println("DEBUG Redis: Ошибка чтения сессии " + sessionKey + ": " + e.getMessage());
             return null;
         }
-        
-        return appointmentRepository
-                .findByPatientId(patientId)
-                .stream()
-                .filter(a -> doctorId.equals(a.getDoctor().getId()))
-                .filter(a -> !"completed".equals(a.getStatus()) && !"cancelled".equals(a.getStatus()))
-                .findFirst()
-                .orElse(null);
+    }
+
+    private Long parseId(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Long extractPatientId(String patientKey) {
+        if (patientKey != null && patientKey.startsWith(QueueDeltaEngine.MEMBER_PREFIX)) {
+            try {
+                return Long.parseLong(patientKey.substring(QueueDeltaEngine.MEMBER_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
     }
 
     // ==================== DTO CLASSES ====================
 
     /**
      * DTO для WebSocket уведомлений об обновлении очереди
+     * type сериализуется первым - по началу JSON interceptors определяют тип события
      */
+    @JsonPropertyOrder({"type", "doctorId", "version", "queue", "timestamp"})
     public static class QueueUpdateEvent {
+        private final String type = "snapshot";
         private Long doctorId;
+        private Long version;
         private List<QueueEntryDto> queue;
+        private final OffsetDateTime timestamp = OffsetDateTime.now();
 
-        public QueueUpdateEvent(Long doctorId, List<QueueEntryDto> queue) {
+        public QueueUpdateEvent(Long doctorId, Long version, List<QueueEntryDto> queue) {
             this.doctorId = doctorId;
+            this.version = version;
             this.queue = queue;
         }
 
+        public OffsetDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public Long getVersion() {
+            return version;
+        }
+
+        public void setVersion(Long version) {
+            this.version = version;
+        }
+
         public Long getDoctorId() {
             return doctorId;
         }
@@ -664,6 +1143,64 @@ public class RedisQueueService {
         }
     }
 
+    /**
+     * DTO для WebSocket уведомлений протокола delta
+     * Клиент применяет изменения, только если его версия равна baseVersion,
+     * иначе запрашивает полный снимок через /app/queue/snapshot
+     */
+    @JsonPropertyOrder({"type", "doctorId", "baseVersion", "version", "removed", "upserted",
+            "shiftedFrom", "shiftedTo", "timestamp"})
+    public static class QueueDeltaEvent {
+        private final String type = "delta";
+        private final Long doctorId;
+        private final Long baseVersion;
+        private final Long version;
+        private final List<Long> removed;
+        private final List<QueueEntryDto> upserted;
+        private final Integer shiftedFrom;
+        private final Integer shiftedTo;
+        private final OffsetDateTime timestamp = OffsetDateTime.now();
+
+        public QueueDeltaEvent(Long doctorId, Long baseVersion, Long version, QueueDeltaEngine.EntryDelta delta) {
+            this.doctorId = doctorId;
+            this.baseVersion = baseVersion;
+            this.version = version;
+            this.removed = delta.getRemoved();
+            this.upserted = delta.getUpserted();
+            this.shiftedFrom = delta.getShiftedFrom();
+            this.shiftedTo = delta.getShiftedTo();
+        }
+
+        public String getType() { return type; }
+        public Long getDoctorId() { return doctorId; }
+        public Long getBaseVersion() { return baseVersion; }
+        public Long getVersion() { return version; }
+        public List<Long> getRemoved() { return removed; }
+        public List<QueueEntryDto> getUpserted() { return upserted; }
+        public Integer getShiftedFrom() { return shiftedFrom; }
+        public Integer getShiftedTo() { return shiftedTo; }
+        public OffsetDateTime getTimestamp() { return timestamp; }
+    }
+
+    /**
+     * Последняя отправленная этим узлом очередь врача (база для вычисления дельты)
+     */
+    private static class BroadcastState {
+        private final long version;
+        private final List<QueueEntryDto> queue;
+
+        private BroadcastState(long version, List<QueueEntryDto> queue) {
+            this.version = version;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Очередь врача и её версия из одной транзакции Redis
+     */
+    private record VersionedQueue(long version, List<QueueEntryDto> queue) {
+    }
+
     /**
      * DTO для ответа инициализации очереди
      */
@@ -671,6 +1208,7 @@ public class RedisQueueService {
         private boolean success;
         private String message;
         private List<QueueEntryDto> data;
+        private final OffsetDateTime timestamp = OffsetDateTime.now();
 
         public QueueInitResponse(boolean success, String message, List<QueueEntryDto> data) {
             this.success = success;
@@ -684,5 +1222,6 @@ public class RedisQueueService {
         public void setMessage(String message) { this.message = message; }
         public List<QueueEntryDto> getData() { return data; }
         public void setData(List<QueueEntryDto> data) { this.data = data; }
+        public OffsetDateTime getTimestamp() { return timestamp; }
     }
 }
@@ -34,15 +34,18 @@ public class ScheduleService {
     private final AppointmentRepository appointmentRepository;
     private final DoctorRepository doctorRepository;
     private final RoomRepository roomRepository;
+    private final SlotAvailabilityIndex slotAvailabilityIndex;
 
     public ScheduleService(ScheduleRepository scheduleRepository, 
                           AppointmentRepository appointmentRepository,
                           DoctorRepository doctorRepository,
-                          RoomRepository roomRepository) {
+                          RoomRepository roomRepository,
+                          SlotAvailabilityIndex slotAvailabilityIndex) {
         this.scheduleRepository = scheduleRepository;
         this.appointmentRepository = appointmentRepository;
         this.doctorRepository = doctorRepository;
         this.roomRepository = roomRepository;
+        this.slotAvailabilityIndex = slotAvailabilityIndex;
     }
 
     public List<ScheduleDto> getSchedulesByDoctor(Long doctorId) {
@@ -184,12 +187,17 @@ public class ScheduleService {
         
         // Сохраняем все appointments
         if (!appointments.isEmpty()) {
-            appointmentRepository.saveAll(appointments);
+            List<Appointment> saved = appointmentRepository.saveAll(appointments);
+            // Новые слоты сразу видны в индексе свободных слотов (если день уже загружен)
+            slotAvailabilityIndex.onScheduleCreated(schedule, saved);
         }
     }
 
     public void deleteSchedule(Long id) {
+        Optional<Schedule> schedule = scheduleRepository.findById(id);
         scheduleRepository.deleteById(id);
+        schedule.ifPresent(s -> slotAvailabilityIndex.invalidate(
+                s.getDoctor() != null ? s.getDoctor().getId() : null, s.getDateAt()));
     }
 
     private ScheduleDto mapToDto(Schedule schedule) {
@@ -0,0 +1,84 @@
+package pin122.kursovaya.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pin122.kursovaya.config.WebSocketEventListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Жизненный цикл WebSocket сессий в Redis
+ *
+ * - Продлевает TTL ключей ws:session:{id}:alive для всех сессий, открытых на этом узле,
+ *   одним pipeline на тик. Активность клиента здесь не проверяется: клиент без heartbeat может
+ *   долго молчать при открытом соединении. Оборванные соединения закрывает брокер по STOMP heartbeat,
+ *   и сессия удаляется по событию отключения
+ * - Удаляет осиротевшие сессии: есть в ws:sessions:active, но ключ alive истёк
+ *   (узел упал или перезапустился, не получив события отключения). Удаление идёт через
+ *   обычный deleteSession - пациент без других сессий удаляется из очередей
+ */
+@Service
+public class SessionLivenessService {
+
+    private final RedisQueueService redisQueueService;
+    private final WebSocketEventListener webSocketEventListener;
+
+    private final AtomicLong touched = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
+
+    public SessionLivenessService(RedisQueueService redisQueueService,
+                                  WebSocketEventListener webSocketEventListener) {
+        this.redisQueueService = redisQueueService;
+        this.webSocketEventListener = webSocketEventListener;
+    }
+
+    /**
+     * Продлевает ключи alive всех сессий этого узла
+     * Период должен быть заметно меньше TTL (по умолчанию 30 с при TTL 90 с)
+     */
+    @Scheduled(fixedDelayString = "${app.websocket.session-refresh-ms:30000}")
+    public void refreshAliveSessions() {
+        List<String> alive = List.copyOf(webSocketEventListener.getSessionMappings().values());
+
+        try {
+            redisQueueService.touchSessions(alive);
+            touched.addAndGet(alive.size());
+        } catch (Exception e) {
+            System.err.println("DEBUG Liveness: Ошибка продления сессий: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Удаляет осиротевшие сессии (без ключа alive)
+     */
+    @Scheduled(fixedDelayString = "${app.websocket.session-sweep-ms:60000}")
+    public void sweepOrphanedSessions() {
+        try {
+            List<String> orphaned = redisQueueService.findOrphanedSessions();
+            for (String sessionId : orphaned) {
+                webSocketEventListener.forgetRedisSession(sessionId);
+                redisQueueService.deleteSession(sessionId);
+            }
+            swept.addAndGet(orphaned.size());
+
+            if (!orphaned.isEmpty()) {
+                System.out.println("DEBUG Liveness: Удалено осиротевших сессий: " + orphaned.size());
+            }
+        } catch (Exception e) {
+            System.err.println("DEBUG Liveness: Ошибка очистки сессий: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Счётчики: продлено ключей alive и удалено осиротевших сессий
+     */
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "touched", touched.get(),
+                "swept", swept.get(),
+                "localSessions", (long) webSocketEventListener.getSessionMappings().size()
+        );
+    }
+}
@@ -0,0 +1,325 @@
+package pin122.kursovaya.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import pin122.kursovaya.dto.SlotAvailabilityDto;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.model.Schedule;
+import pin122.kursovaya.repository.AppointmentRepository;
+import pin122.kursovaya.repository.ScheduleRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Индекс свободных слотов в памяти: битовая маска занятости на врача и день
+ *
+ * День врача - набор расписаний (doctor_schedules), у каждого расписания BitSet занятости
+ * и массив ID записей по смещению слота от начала расписания. Индекс строится при первом запросе дня
+ * двумя лёгкими запросами (раскладка расписаний и занятость слотов, без загрузки сущностей),
+ * дальше поддерживается при записи, отмене, изменении записи и создании расписания.
+ * Через app.availability.ttl-ms день перечитывается из БД - так подхватываются изменения
+ * с других узлов и прямые изменения в БД; сама запись на слот атомарна (claimFreeSlot),
+ * поэтому устаревший индекс приводит только к ответу 409
+ *
+ * Изменения индекса публикуются событием и применяются после фиксации транзакции (IndexChange):
+ * откат не оставляет слот занятым или свободным, а загрузка дня не читает незафиксированные данные.
+ * День загружается внутри days.compute - изменение, пришедшее во время загрузки, ждёт её
+ * и применяется к загруженному дню, а не затирается им
+ */
+@Service
+public class SlotAvailabilityIndex {
+
+    private final ScheduleRepository scheduleRepository;
+    private final AppointmentRepository appointmentRepository;
+    private final long ttlMs;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Map<DoctorDay, DayAvailability> days = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+
+    private record DoctorDay(Long doctorId, LocalDate date) {
+    }
+
+    /**
+     * Слоты одного расписания: бит i в booked - слот i занят
+     */
+    private static final class ScheduleSlots {
+        private final Long scheduleId;
+        private final Long roomId;
+        private final LocalTime startTime;
+        private final int slotMinutes;
+        private final long[] appointmentIds;
+        private final BitSet booked;
+
+        private ScheduleSlots(Long scheduleId, Long roomId, LocalTime startTime, LocalTime endTime, int slotMinutes) {
+            this.scheduleId = scheduleId;
+            this.roomId = roomId;
+            this.startTime = startTime;
+            this.slotMinutes = slotMinutes;
+            int slotCount = 0;
+            if (slotMinutes > 0 && endTime != null && endTime.isAfter(startTime)) {
+                slotCount = (int) (Duration.between(startTime, endTime).toMinutes() / slotMinutes);
+            }
+            this.appointmentIds = new long[slotCount];
+            this.booked = new BitSet(slotCount);
+        }
+
+        /**
+         * @return Смещение слота от начала расписания или -1, если время не совпадает с сеткой слотов
+         */
+        private int offsetOf(LocalTime slotStart) {
+            long minutes = Duration.between(startTime, slotStart).toMinutes();
+            if (minutes < 0 || slotMinutes <= 0 || minutes % slotMinutes != 0 || minutes / slotMinutes >= appointmentIds.length) {
+                return -1;
+            }
+            return (int) (minutes / slotMinutes);
+        }
+    }
+
+    private static final class DayAvailability {
+        private final Map<Long, ScheduleSlots> schedules = new LinkedHashMap<>();
+        private final long loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Изменение индекса, применяемое после фиксации транзакции
+     */
+    public sealed interface IndexChange permits SlotChanged, ScheduleAdded, DayInvalidated {
+    }
+
+    /**
+     * Слот записи занят или освобождён
+     */
+    public record SlotChanged(Long doctorId, LocalDate date, Long scheduleId, LocalTime startTime,
+                              Long appointmentId, boolean booked) implements IndexChange {
+    }
+
+    /**
+     * Создано расписание со слотами (слоты собраны из сохранённых записей)
+     */
+    public record ScheduleAdded(Long doctorId, LocalDate date, Long scheduleId, Long roomId, LocalTime startTime,
+                                LocalTime endTime, int slotMinutes, Map<LocalTime, Long> appointmentIds,
+                                Map<LocalTime, Boolean> booked) implements IndexChange {
+    }
+
+    /**
+     * День врача нужно перечитать из БД
+     */
+    public record DayInvalidated(Long doctorId, LocalDate date) implements IndexChange {
+    }
+
+    public SlotAvailabilityIndex(ScheduleRepository scheduleRepository,
+                                 AppointmentRepository appointmentRepository,
+                                 @Value("${app.availability.ttl-ms:600000}") long ttlMs,
+                                 ApplicationEventPublisher eventPublisher) {
+        this.scheduleRepository = scheduleRepository;
+        this.appointmentRepository = appointmentRepository;
+        this.ttlMs = ttlMs;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Свободные слоты врача на день; прошедшие слоты считаются занятыми (как в AppointmentService.mapToDto)
+     */
+    public SlotAvailabilityDto getAvailability(Long doctorId, LocalDate date) {
+        DayAvailability day = getDay(new DoctorDay(doctorId, date));
+        LocalDateTime nowLocal = LocalDateTime.now();
+        List<SlotAvailabilityDto.ScheduleSlotsDto> result = new ArrayList<>();
+
+        synchronized (day) {
+            for (ScheduleSlots slots : day.schedules.values()) {
+                int slotCount = slots.appointmentIds.length;
+                BitSet free = new BitSet(slotCount);
+                for (int i = 0; i < slotCount; i++) {
+                    LocalDateTime slotStart = LocalDateTime.of(date, slots.startTime).plusMinutes((long) i * slots.slotMinutes);
+                    if (slots.appointmentIds[i] != 0 && !slots.booked.get(i) && !slotStart.isBefore(nowLocal)) {
+                        free.set(i);
+                    }
+                }
+                result.add(new SlotAvailabilityDto.ScheduleSlotsDto(
+                        slots.scheduleId,
+                        slots.roomId,
+                        slots.startTime,
+                        slots.slotMinutes,
+                        slotCount,
+                        free.cardinality(),
+                        Base64.getEncoder().encodeToString(free.toByteArray()),
+                        slots.appointmentIds.clone()
+                ));
+            }
+        }
+        return new SlotAvailabilityDto(doctorId, date, result);
+    }
+
+    /**
+     * Обновляет занятость слота после записи, отмены или изменения пациента записи
+     * (после фиксации транзакции). Если день ещё не загружен в индекс, ничего не делает -
+     * он будет прочитан из БД при первом запросе
+     */
+    public void onAppointmentChanged(Appointment appointment) {
+        Schedule schedule = appointment.getSchedule();
+        if (schedule == null || schedule.getDoctor() == null || schedule.getDateAt() == null
+                || appointment.getStartTime() == null) {
+            return;
+        }
+        eventPublisher.publishEvent(new SlotChanged(schedule.getDoctor().getId(), schedule.getDateAt(), schedule.getId(),
+                appointment.getStartTime().toLocalTime(), appointment.getId(), appointment.getPatient() != null));
+    }
+
+    /**
+     * Добавляет слоты созданного расписания в уже загруженный день (после фиксации транзакции, без запросов к БД)
+     * @param appointments Сохранённые записи расписания (с ID)
+     */
+    public void onScheduleCreated(Schedule schedule, List<Appointment> appointments) {
+        if (schedule.getDoctor() == null || schedule.getDateAt() == null) {
+            return;
+        }
+        Map<LocalTime, Long> appointmentIds = new LinkedHashMap<>();
+        Map<LocalTime, Boolean> booked = new LinkedHashMap<>();
+        for (Appointment appointment : appointments) {
+            LocalTime startTime = appointment.getStartTime().toLocalTime();
+            appointmentIds.put(startTime, appointment.getId());
+            booked.put(startTime, appointment.getPatient() != null);
+        }
+        eventPublisher.publishEvent(new ScheduleAdded(
+                schedule.getDoctor().getId(),
+                schedule.getDateAt(),
+                schedule.getId(),
+                schedule.getRoom() != null ? schedule.getRoom().getId() : null,
+                schedule.getStartTime(),
+                schedule.getEndTime(),
+                schedule.getSlotDurationMinutes(),
+                appointmentIds,
+                booked));
+    }
+
+    /**
+     * Сбрасывает день врача (удаление записи, расписания или пациента) - после фиксации транзакции
+     * при следующем запросе он будет прочитан из БД
+     */
+    public void invalidate(Long doctorId, LocalDate date) {
+        if (doctorId != null && date != null) {
+            eventPublisher.publishEvent(new DayInvalidated(doctorId, date));
+        }
+    }
+
+    /**
+     * Применяет изменение после фиксации транзакции (вне транзакции - сразу)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCommitted(IndexChange change) {
+        if (change instanceof SlotChanged slot) {
+            days.computeIfPresent(new DoctorDay(slot.doctorId(), slot.date()), (key, day) -> {
+                synchronized (day) {
+                    ScheduleSlots slots = day.schedules.get(slot.scheduleId());
+                    int offset = slots != null ? slots.offsetOf(slot.startTime()) : -1;
+                    if (offset >= 0) {
+                        slots.appointmentIds[offset] = slot.appointmentId();
+                        slots.booked.set(offset, slot.booked());
+                        updates.incrementAndGet();
+                    }
+                }
+                return day;
+            });
+        } else if (change instanceof ScheduleAdded added) {
+            days.computeIfPresent(new DoctorDay(added.doctorId(), added.date()), (key, day) -> {
+                ScheduleSlots slots = new ScheduleSlots(
+                        added.scheduleId(), added.roomId(), added.startTime(), added.endTime(), added.slotMinutes());
+                added.appointmentIds().forEach((startTime, appointmentId) -> {
+                    int offset = slots.offsetOf(startTime);
+                    if (offset >= 0) {
+                        slots.appointmentIds[offset] = appointmentId;
+                        slots.booked.set(offset, added.booked().get(startTime));
+                    }
+                });
+                synchronized (day) {
+                    day.schedules.put(added.scheduleId(), slots);
+                }
+                updates.incrementAndGet();
+                return day;
+            });
+        } else if (change instanceof DayInvalidated invalidated) {
+            days.remove(new DoctorDay(invalidated.doctorId(), invalidated.date()));
+        }
+    }
+
+    /**
+     * Удаляет из индекса прошедшие и устаревшие дни
+     */
+    @Scheduled(fixedRate = 3600000)
+    public void evictExpired() {
+        LocalDate today = LocalDate.now();
+        long now = System.currentTimeMillis();
+        days.entrySet().removeIf(entry -> entry.getKey().date().isBefore(today)
+                || now - entry.getValue().loadedAt >= ttlMs);
+    }
+
+    private DayAvailability getDay(DoctorDay key) {
+        DayAvailability day = days.get(key);
+        if (day != null && System.currentTimeMillis() - day.loadedAt < ttlMs) {
+            hits.incrementAndGet();
+            return day;
+        }
+        // Загрузка под блокировкой ключа: изменения дня (computeIfPresent) ждут её завершения
+        return days.compute(key, (k, current) ->
+                current != null && System.currentTimeMillis() - current.loadedAt < ttlMs ? current : load(k));
+    }
+
+    /**
+     * Читает раскладку расписаний и занятость слотов дня из БД (только скалярные поля)
+     */
+    private DayAvailability load(DoctorDay key) {
+        loads.incrementAndGet();
+        DayAvailability day = new DayAvailability();
+
+        for (Object[] row : scheduleRepository.findSlotLayout(key.doctorId(), key.date())) {
+            ScheduleSlots slots = new ScheduleSlots(
+                    (Long) row[0], (Long) row[4], (LocalTime) row[1], (LocalTime) row[2], (Integer) row[3]);
+            day.schedules.put(slots.scheduleId, slots);
+        }
+        if (day.schedules.isEmpty()) {
+            return day;
+        }
+
+        for (Object[] row : appointmentRepository.findSlotStates(new ArrayList<>(day.schedules.keySet()))) {
+            ScheduleSlots slots = day.schedules.get((Long) row[1]);
+            int offset = slots != null ? slots.offsetOf(((OffsetDateTime) row[2]).toLocalTime()) : -1;
+            if (offset >= 0) {
+                slots.appointmentIds[offset] = (Long) row[0];
+                slots.booked.set(offset, (Boolean) row[3]);
+            }
+        }
+        return day;
+    }
+
+    /**
+     * Метрики индекса: загруженные дни, попадания, чтения из БД и инкрементальные обновления
+     */
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "days", days.size(),
+                "hits", hits.get(),
+                "loads", loads.get(),
+                "updates", updates.get(),
+                "ttlMs", ttlMs
+        );
+    }
+}
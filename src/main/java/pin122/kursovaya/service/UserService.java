@@ -1,6 +1,7 @@
 package pin122.kursovaya.service;
 
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import pin122.kursovaya.dto.CreateUserDto;
 import pin122.kursovaya.dto.CreateUserWithPatientDto;
 import pin122.kursovaya.dto.CurrentUserDto;
@@ -14,6 +15,7 @@ import pin122.kursovaya.repository.QueueEntryRepository;
 import pin122.kursovaya.repository.ReviewRepository;
 import pin122.kursovaya.repository.RoleRepository;
 import pin122.kursovaya.repository.UserRepository;
+import pin122.kursovaya.security.TokenRevocationService;
 import pin122.kursovaya.utils.EncryptPassword;
 import pin122.kursovaya.utils.FormatUtils;
 import pin122.kursovaya.utils.SecurityUtils;
@@ -30,16 +32,22 @@ public class UserService {
     private final AppointmentRepository appointmentRepository;
     private final ReviewRepository reviewRepository;
     private final QueueEntryRepository queueEntryRepository;
+    private final TokenRevocationService tokenRevocationService;
+    private final DoctorPhotoService doctorPhotoService;
 
     public UserService(UserRepository userRepository, RoleRepository roleRepository,
                        AppointmentRepository appointmentRepository,
                        ReviewRepository reviewRepository,
-                       QueueEntryRepository queueEntryRepository) {
+                       QueueEntryRepository queueEntryRepository,
+                       TokenRevocationService tokenRevocationService,
+                       DoctorPhotoService doctorPhotoService) {
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
         this.appointmentRepository = appointmentRepository;
         this.reviewRepository = reviewRepository;
         this.queueEntryRepository = queueEntryRepository;
+        this.tokenRevocationService = tokenRevocationService;
+        this.doctorPhotoService = doctorPhotoService;
     }
 
     public List<UserDto> getAllUsers() {
@@ -118,8 +126,46 @@ public class UserService {
         return userRepository.save(new User(user));
     }
 
+    /**
+     * Обновляет данные пользователя
+     * При деактивации или смене email ранее выданные токены пользователя отзываются
+     * @param id ID пользователя
+     * @param userUpdate Новые данные пользователя
+     * @return Обновлённый пользователь или пустой Optional, если пользователь не найден
+     */
+    @Transactional
+    public Optional<User> updateUser(Long id, UserDto userUpdate) {
+        return userRepository.findById(id).map(existingUser -> {
+            boolean revokeTokens = existingUser.isActive() && !userUpdate.isActive();
+            if (userUpdate.getEmail() != null && !userUpdate.getEmail().equals(existingUser.getEmail())) {
+                existingUser.setEmail(userUpdate.getEmail());
+                revokeTokens = true;
+            }
+            existingUser.setPhone(userUpdate.getPhone());
+            existingUser.setFirstName(userUpdate.getFirstName());
+            existingUser.setLastName(userUpdate.getLastName());
+            existingUser.setMiddleName(userUpdate.getMiddleName());
+            existingUser.setActive(userUpdate.isActive());
+            existingUser.setUpdatedAt(java.time.OffsetDateTime.now());
+
+            User saved = userRepository.save(existingUser);
+
+            // Деактивация или смена email: ранее выданные токены больше не принимаются
+            if (revokeTokens) {
+                tokenRevocationService.revokeUser(saved.getId());
+            }
+            return saved;
+        });
+    }
+
+    @Transactional
     public void deleteUser(Long id) {
+        // Врач удаляется каскадом от пользователя, а фото ссылается на врача внешним ключом
+        userRepository.findById(id)
+                .map(User::getDoctor)
+                .ifPresent(doctorPhotoService::deletePhoto);
         userRepository.deleteById(id);
+        tokenRevocationService.revokeUser(id);
     }
 
     public Optional<PatientDto> createUserWithPatient(CreateUserWithPatientDto dto) {
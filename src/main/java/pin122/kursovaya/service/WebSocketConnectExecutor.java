@@ -0,0 +1,120 @@
+package pin122.kursovaya.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Исполнитель инициализации WebSocket подключений
+ *
+ * Инициализация (поиск пользователя и пациента в БД, чтение снимка очереди, запись сессии в Redis)
+ * выполняется вне потоков clientInboundChannel: виртуальный поток на подключение, одновременно
+ * не более app.websocket.connect-parallelism. Если ожидающих инициализаций больше
+ * app.websocket.connect-max-pending, новое подключение не принимается в очередь (admission control) -
+ * клиент получает ответ "очередь формируется" и запрашивает её позже через /app/queue/init
+ */
+@Component
+public class WebSocketConnectExecutor {
+
+    private final int parallelism;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    // Принятые, но ещё не завершённые инициализации
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Задержка от подключения до отправки первого снимка очереди
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong snapshotTotalMicros = new AtomicLong();
+    private final AtomicLong snapshotMaxMicros = new AtomicLong();
+
+    public WebSocketConnectExecutor(@Value("${app.websocket.connect-parallelism:16}") int parallelism,
+                                    @Value("${app.websocket.connect-max-pending:1000}") int maxPending) {
+        this.parallelism = Math.max(1, parallelism);
+        this.maxPending = Math.max(1, maxPending);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(this.parallelism);
+    }
+
+    /**
+     * Ставит инициализацию подключения в очередь
+     * @param task Инициализация
+     * @return false, если очередь инициализаций переполнена и задача не принята
+     */
+    public boolean submit(Runnable task) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.decrementAndGet();
+                failed.incrementAndGet();
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.err.println("DEBUG WebSocket: Ошибка инициализации подключения: " + e.getMessage());
+            } finally {
+                permits.release();
+                pending.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Фиксирует отправку первого снимка очереди после подключения
+     * @param connectedAtNanos Время подключения (System.nanoTime())
+     */
+    public void recordFirstSnapshot(long connectedAtNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - connectedAtNanos);
+        snapshots.incrementAndGet();
+        snapshotTotalMicros.addAndGet(micros);
+        snapshotMaxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Метрики инициализации подключений: принято, отклонено, ошибок, в ожидании,
+     * средняя и максимальная задержка от подключения до первого снимка очереди
+     */
+    public Map<String, Object> getStats() {
+        long count = snapshots.get();
+        return Map.of(
+                "accepted", accepted.get(),
+                "rejected", rejected.get(),
+                "failed", failed.get(),
+                "pending", pending.get(),
+                "parallelism", parallelism,
+                "firstSnapshots", count,
+                "firstSnapshotAvgMs", count == 0 ? 0.0 : snapshotTotalMicros.get() / 1000.0 / count,
+                "firstSnapshotMaxMs", snapshotMaxMicros.get() / 1000.0
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -1,30 +1,75 @@
 package pin122.kursovaya.utils;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
+import pin122.kursovaya.model.User;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 @Component
 public class JwtTokenProvider {
 
+    // Подписанные claims для аутентификации без обращения к БД (JwtUserPrincipal)
+    public static final String CLAIM_USER_ID = "uid";
+    public static final String CLAIM_ROLES = "roles";
+    public static final String CLAIM_PATIENT_ID = "pid";
+    public static final String CLAIM_DOCTOR_ID = "did";
+
     @Value("${jwt.secret:mySecretKeyForJWTTokenGenerationAndValidationMustBeAtLeast256BitsLong}")
     private String secret;
 
     @Value("${jwt.expiration:86400000}") // 24 часа по умолчанию
     private Long expiration;
 
+    // Ключ и парсер строятся один раз при первом обращении (секрет не меняется во время работы)
+    private volatile SecretKey signingKey;
+    private volatile JwtParser parser;
+
     private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        SecretKey key = signingKey;
+        if (key == null) {
+            key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+            signingKey = key;
+        }
+        return key;
+    }
+
+    private JwtParser getParser() {
+        JwtParser jwtParser = parser;
+        if (jwtParser == null) {
+            jwtParser = Jwts.parser()
+                    .verifyWith(getSigningKey())
+                    .build();
+            parser = jwtParser;
+        }
+        return jwtParser;
+    }
+
+    /**
+     * Разбирает токен один раз: проверка подписи и срока действия выполняются парсером
+     * Используется JwtAuthenticationFilter и WebSocketAuthInterceptor вместо цепочки
+     * validateToken -> extractUsername -> validateToken(token, userDetails), каждая из которых
+     * заново проверяла подпись
+     * @return Проверенные claims или null, если токен невалидный или истёк
+     */
+    public Claims parseValidClaims(String token) {
+        try {
+            return extractAllClaims(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
     }
 
     public String extractUsername(String token) {
@@ -41,9 +86,7 @@ public class JwtTokenProvider {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
+        return getParser()
                 .parseSignedClaims(token)
                 .getPayload();
     }
@@ -57,6 +100,27 @@ public class JwtTokenProvider {
         return createToken(claims, userDetails.getUsername());
     }
 
+    /**
+     * Токен с ролями и id пользователя/пациента/врача в claims
+     * Роли в формате authorities (ROLE_PATIENT), как у CustomUserDetailsService
+     * @param user Пользователь с загруженными ролями
+     */
+    public String generateToken(User user) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLAIM_USER_ID, user.getId());
+        List<String> roles = user.getRoles().stream()
+                .map(role -> "ROLE_" + role.getCode().toUpperCase())
+                .toList();
+        claims.put(CLAIM_ROLES, roles);
+        if (user.getPatient() != null) {
+            claims.put(CLAIM_PATIENT_ID, user.getPatient().getId());
+        }
+        if (user.getDoctor() != null) {
+            claims.put(CLAIM_DOCTOR_ID, user.getDoctor().getId());
+        }
+        return createToken(claims, user.getEmail());
+    }
+
     public String generateToken(String username) {
         Map<String, Object> claims = new HashMap<>();
         return createToken(claims, username);
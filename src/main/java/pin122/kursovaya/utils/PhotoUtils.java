@@ -0,0 +1,158 @@
+package pin122.kursovaya.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Утилиты для фото врачей: хэш содержимого (ETag и версия в URL), тип изображения, миниатюры и URL фото
+ */
+public class PhotoUtils {
+
+    /**
+     * Сторона малой миниатюры (строки списков записей)
+     */
+    public static final int THUMBNAIL_SMALL = 64;
+
+    /**
+     * Сторона средней миниатюры (карточки врачей)
+     */
+    public static final int THUMBNAIL_MEDIUM = 256;
+
+    /**
+     * Сколько символов хэша попадает в параметр версии URL фото
+     */
+    private static final int URL_VERSION_LENGTH = 16;
+
+    /**
+     * SHA-256 содержимого фото в hex (64 символа)
+     *
+     * @param photo Байты фото
+     * @return Хэш или null, если фото нет
+     */
+    public static String hash(byte[] photo) {
+        if (photo == null || photo.length == 0) {
+            return null;
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(photo));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    /**
+     * URL фото врача с версией по хэшу содержимого - при смене фото меняется URL,
+     * поэтому клиент может кэшировать ответ без повторной проверки
+     *
+     * @param doctorId ID врача
+     * @param photoHash Хэш фото (Doctor.photoHash)
+     * @return URL или null, если у врача нет фото
+     */
+    public static String photoUrl(Long doctorId, String photoHash) {
+        if (doctorId == null || photoHash == null || photoHash.isEmpty()) {
+            return null;
+        }
+        return "/api/doctors/" + doctorId + "/photo?v=" + versionOf(photoHash);
+    }
+
+    /**
+     * URL миниатюры фото врача (THUMBNAIL_SMALL или THUMBNAIL_MEDIUM)
+     */
+    public static String photoUrl(Long doctorId, String photoHash, int size) {
+        String url = photoUrl(doctorId, photoHash);
+        return url != null ? url + "&size=" + size : null;
+    }
+
+    /**
+     * Версия фото для URL - префикс хэша содержимого
+     */
+    public static String versionOf(String photoHash) {
+        return photoHash.length() > URL_VERSION_LENGTH ? photoHash.substring(0, URL_VERSION_LENGTH) : photoHash;
+    }
+
+    /**
+     * Определяет тип изображения по сигнатуре (фото загружаются как Base64 без типа)
+     *
+     * @return MIME-тип или application/octet-stream, если формат не распознан
+     */
+    public static String detectContentType(byte[] photo) {
+        if (photo == null || photo.length < 4) {
+            return "application/octet-stream";
+        }
+        if ((photo[0] & 0xFF) == 0xFF && (photo[1] & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        if ((photo[0] & 0xFF) == 0x89 && photo[1] == 'P' && photo[2] == 'N' && photo[3] == 'G') {
+            return "image/png";
+        }
+        if (photo[0] == 'G' && photo[1] == 'I' && photo[2] == 'F') {
+            return "image/gif";
+        }
+        if (photo.length >= 12 && photo[0] == 'R' && photo[1] == 'I' && photo[2] == 'F' && photo[3] == 'F'
+                && photo[8] == 'W' && photo[9] == 'E' && photo[10] == 'B' && photo[11] == 'P') {
+            return "image/webp";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Квадратная миниатюра JPEG: центральный квадрат изображения, уменьшенный до size x size
+     * Изображения меньше size не увеличиваются; прозрачность заливается белым
+     *
+     * @param photo Исходное изображение
+     * @param size Сторона миниатюры в пикселях
+     * @return JPEG или null, если формат не удалось декодировать (например, WebP)
+     */
+    public static byte[] thumbnail(byte[] photo, int size) {
+        if (photo == null || photo.length == 0) {
+            return null;
+        }
+        try {
+            BufferedImage source = ImageIO.read(new ByteArrayInputStream(photo));
+            if (source == null) {
+                return null;
+            }
+            int side = Math.min(source.getWidth(), source.getHeight());
+            BufferedImage current = source.getSubimage(
+                    (source.getWidth() - side) / 2, (source.getHeight() - side) / 2, side, side);
+            int target = Math.min(size, side);
+
+            // Уменьшение в несколько шагов (не более чем вдвое за шаг), иначе билинейная интерполяция даёт "лесенку"
+            int currentSide = side;
+            do {
+                currentSide = Math.max(target, currentSide / 2);
+                current = scale(current, currentSide);
+            } while (currentSide > target);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(current, "jpg", out)) {
+                return null;
+            }
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int side) {
+        BufferedImage scaled = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, side, side, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,17 @@
+-- KEYS[1] = queue key, e.g. "queue:doctor:123"
+-- KEYS[2] = appointments hash key, e.g. "queue:doctor:123:appointments"
+-- KEYS[3] = patient queues key, e.g. "patient:queues:456"
+-- KEYS[4] = expiry key, "queue:expiry"
+-- KEYS[5] = active doctors key, "queue:doctors:active"
+-- ARGV[1] = score (время начала приёма, epoch seconds)
+-- ARGV[2] = member, e.g. "patient:456"
+-- ARGV[3] = appointmentId
+-- ARGV[4] = doctorId
+
+-- CH: считаем и новых участников, и изменившийся score (перенос приёма)
+local added = redis.call('ZADD', KEYS[1], 'CH', ARGV[1], ARGV[2])
+redis.call('HSET', KEYS[2], ARGV[2], ARGV[3])
+redis.call('SADD', KEYS[3], ARGV[4])
+redis.call('ZADD', KEYS[4], ARGV[1], ARGV[4] .. ':' .. ARGV[2])
+redis.call('SADD', KEYS[5], ARGV[4])
+return added
@@ -0,0 +1,26 @@
+-- KEYS[1] = queue key, e.g. "queue:doctor:123"
+-- KEYS[2] = appointments hash key, e.g. "queue:doctor:123:appointments"
+-- KEYS[3] = patient queues key, e.g. "patient:queues:456"
+-- KEYS[4] = expiry key, "queue:expiry"
+-- KEYS[5] = active doctors key, "queue:doctors:active"
+-- ARGV[1] = member, e.g. "patient:456"
+-- ARGV[2] = минимальный допустимый score (меньшие - позиции старого формата)
+-- ARGV[3] = doctorId
+
+local removed = redis.call('ZREM', KEYS[1], ARGV[1])
+redis.call('HDEL', KEYS[2], ARGV[1])
+redis.call('SREM', KEYS[3], ARGV[3])
+redis.call('ZREM', KEYS[4], ARGV[3] .. ':' .. ARGV[1])
+
+-- Врач с пустой очередью выбывает из реестра активных
+if redis.call('ZCARD', KEYS[1]) == 0 then
+    redis.call('SREM', KEYS[5], ARGV[3])
+end
+
+-- Проверяем первого в очереди на рассинхронизацию
+local head = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+if head[2] and tonumber(head[2]) < tonumber(ARGV[2]) then
+    return -1
+end
+
+return removed
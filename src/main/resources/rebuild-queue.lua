@@ -0,0 +1,88 @@
+-- KEYS[1] = queue key, e.g. "queue:doctor:123"
+-- KEYS[2] = staging key, e.g. "queue:doctor:123:staging"
+-- KEYS[3] = appointments hash key, e.g. "queue:doctor:123:appointments"
+-- KEYS[4] = appointments staging key, e.g. "queue:doctor:123:appointments:staging"
+-- KEYS[5] = expiry key, "queue:expiry" (время начала приёма по "{doctorId}:patient:{id}")
+-- KEYS[6] = active doctors key, "queue:doctors:active"
+-- KEYS[7..6+N] = обратные индексы "patient:queues:{patientId}" участников из ARGV[3..2+N]
+-- ARGV[1] = doctorId
+-- ARGV[2] = N - число объявленных обратных индексов
+-- ARGV[3..2+N] = участники ("patient:{id}"), чьи обратные индексы переданы в KEYS[7..6+N]
+-- ARGV[3+N..] = score1, member1, appointmentId1, score2, member2, appointmentId2, ... (целевая очередь)
+-- Возвращает пустой список, если очередь заменена. Если у выбывшего участника обратный индекс
+-- не объявлен (его добавили после чтения очереди вызывающим кодом), ничего не меняет и возвращает
+-- таких участников - вызывающий код повторяет вызов, объявив их ключи
+
+local doctorId = ARGV[1]
+local declaredCount = tonumber(ARGV[2])
+local first = 3 + declaredCount
+
+local patientKeys = {}
+for k = 1, declaredCount do
+    patientKeys[ARGV[2 + k]] = KEYS[6 + k]
+end
+
+local target = {}
+for j = first, #ARGV, 3 do
+    target[ARGV[j + 1]] = ARGV[j]
+end
+
+-- Выбывшие участники; без объявленного обратного индекса очередь не трогаем
+local departed = {}
+local missing = {}
+for _, member in ipairs(redis.call('ZRANGE', KEYS[1], 0, -1)) do
+    if not target[member] then
+        table.insert(departed, member)
+        if string.match(member, '^patient:%d+$') and not patientKeys[member] then
+            table.insert(missing, member)
+        end
+    end
+end
+if #missing > 0 then
+    return missing
+end
+
+-- Собираем очередь во временных ключах, живую очередь не трогаем
+redis.call('DEL', KEYS[2], KEYS[4])
+
+local chunk = 1000
+for i = first, #ARGV, chunk * 3 do
+    local last = math.min(i + chunk * 3 - 1, #ARGV)
+    local scores = {}
+    local ids = {}
+    for j = i, last, 3 do
+        table.insert(scores, ARGV[j])
+        table.insert(scores, ARGV[j + 1])
+        table.insert(ids, ARGV[j + 1])
+        table.insert(ids, ARGV[j + 2])
+    end
+    redis.call('ZADD', KEYS[2], unpack(scores))
+    redis.call('HSET', KEYS[4], unpack(ids))
+end
+
+-- Обновляем очередь истечения и обратные индексы: выбывшие участники удаляются, новые - добавляются
+for _, member in ipairs(departed) do
+    redis.call('ZREM', KEYS[5], doctorId .. ':' .. member)
+    if patientKeys[member] then
+        redis.call('SREM', patientKeys[member], doctorId)
+    end
+end
+for member, score in pairs(target) do
+    redis.call('ZADD', KEYS[5], score, doctorId .. ':' .. member)
+    if patientKeys[member] then
+        redis.call('SADD', patientKeys[member], doctorId)
+    end
+end
+
+-- Атомарно подменяем очередь: читатели видят либо старую, либо новую
+if next(target) == nil then
+    redis.call('DEL', KEYS[1], KEYS[3])
+    redis.call('SREM', KEYS[6], doctorId)
+    return {}
+end
+
+redis.call('SADD', KEYS[6], doctorId)
+
+redis.call('RENAME', KEYS[2], KEYS[1])
+redis.call('RENAME', KEYS[4], KEYS[3])
+return {}
@@ -0,0 +1,20 @@
+-- KEYS[1] = session key, e.g. "ws:session:{sessionId}"
+-- KEYS[2] = active sessions key, "ws:sessions:active"
+-- KEYS[3] = session alive key, e.g. "ws:session:{sessionId}:alive"
+-- KEYS[4] = patient sessions key, e.g. "patient:sessions:456" (если сессия пациента)
+-- ARGV[1] = sessionId
+-- Возвращает 1, если это была последняя сессия пациента, иначе 0
+
+redis.call('DEL', KEYS[1], KEYS[3])
+redis.call('SREM', KEYS[2], ARGV[1])
+
+if not KEYS[4] then
+    return 0
+end
+
+redis.call('SREM', KEYS[4], ARGV[1])
+if redis.call('SCARD', KEYS[4]) == 0 then
+    redis.call('DEL', KEYS[4])
+    return 1
+end
+return 0
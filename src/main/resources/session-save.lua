@@ -0,0 +1,19 @@
+-- KEYS[1] = session key, e.g. "ws:session:{sessionId}"
+-- KEYS[2] = active sessions key, "ws:sessions:active"
+-- KEYS[3] = session alive key, e.g. "ws:session:{sessionId}:alive" (TTL, продлевается heartbeat)
+-- KEYS[4] = patient sessions key, e.g. "patient:sessions:456" (если сессия пациента)
+-- ARGV[1] = sessionId
+-- ARGV[2] = TTL ключа alive в секундах
+-- ARGV[3..] = field1, value1, field2, value2, ... (поля Hash сессии)
+
+-- DEL: перезапись сессии целиком (в том числе JSON-строки старого формата)
+redis.call('DEL', KEYS[1])
+if #ARGV > 2 then
+    redis.call('HSET', KEYS[1], unpack(ARGV, 3))
+end
+redis.call('SADD', KEYS[2], ARGV[1])
+redis.call('SET', KEYS[3], '1', 'EX', ARGV[2])
+if KEYS[4] then
+    redis.call('SADD', KEYS[4], ARGV[1])
+end
+return 1
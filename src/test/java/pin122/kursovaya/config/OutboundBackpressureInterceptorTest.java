@@ -0,0 +1,187 @@
+package pin122.kursovaya.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для OutboundBackpressureInterceptor - очереди исходящих сообщений сессий
+ * Сообщения проходят через многопоточный ExecutorSubscribableChannel, как clientOutboundChannel;
+ * первое сообщение сессии обрабатывается, пока тест не отпустит обработчик
+ */
+@DisplayName("OutboundBackpressureInterceptor - тесты очередей исходящих сообщений")
+class OutboundBackpressureInterceptorTest {
+
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private final CountDownLatch handlerReleased = new CountDownLatch(1);
+
+    // session ID -> payload в порядке передачи в WebSocket
+    private final Map<String, List<String>> received = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        handlerReleased.countDown();
+        executor.shutdown();
+    }
+
+    private ExecutorSubscribableChannel channel(OutboundBackpressureInterceptor interceptor, boolean blockFirst) {
+        executor.setCorePoolSize(4);
+        executor.initialize();
+        ExecutorSubscribableChannel channel = new ExecutorSubscribableChannel(executor);
+        channel.addInterceptor(interceptor);
+        channel.subscribe(message -> {
+            String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+            List<String> payloads = received.computeIfAbsent(sessionId, id -> Collections.synchronizedList(new ArrayList<>()));
+            if (blockFirst && payloads.isEmpty()) {
+                try {
+                    handlerReleased.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            payloads.add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+        });
+        return channel;
+    }
+
+    private static Message<byte[]> message(String sessionId, String destination, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> snapshot(String sessionId, long doctorId, long version) {
+        return message(sessionId, "/topic/queue/doctor/" + doctorId,
+                "{\"type\":\"snapshot\",\"doctorId\":" + doctorId + ",\"version\":" + version + ",\"queue\":[]}");
+    }
+
+    // Снимок, в JSON которого type не первое поле: тип передан заголовком event-type
+    private static Message<byte[]> headerSnapshot(String sessionId, long doctorId, long version) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/queue/doctor/" + doctorId);
+        accessor.setNativeHeader(QueuePayloadEncodingInterceptor.EVENT_TYPE_HEADER, "snapshot");
+        String body = "{\"doctorId\":" + doctorId + ",\"version\":" + version + ",\"type\":\"snapshot\",\"queue\":[]}";
+        return MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> delta(String sessionId, long doctorId, long version) {
+        return message(sessionId, "/topic/queue/doctor/" + doctorId,
+                "{\"type\":\"delta\",\"doctorId\":" + doctorId + ",\"version\":" + version + "}");
+    }
+
+    private static Message<byte[]> personal(String sessionId, String text) {
+        return message(sessionId, "/user/queue/user", "{\"message\":\"" + text + "\"}");
+    }
+
+    private List<String> awaitReceived(String sessionId, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.getOrDefault(sessionId, List.of()).size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        return List.copyOf(received.getOrDefault(sessionId, List.of()));
+    }
+
+    @Test
+    @DisplayName("Пока сессия занята, в очереди остаётся только последний снимок очереди врача")
+    void send_slowSession_dropsSupersededSnapshots() throws InterruptedException {
+        OutboundBackpressureInterceptor interceptor = new OutboundBackpressureInterceptor("drop-oldest-snapshot");
+        ExecutorSubscribableChannel channel = channel(interceptor, true);
+
+        channel.send(personal("s1", "first"));
+        channel.send(snapshot("s1", 1, 1));
+        channel.send(delta("s1", 1, 2));
+        channel.send(snapshot("s1", 1, 3));
+        channel.send(snapshot("s1", 2, 1));
+        channel.send(snapshot("s1", 1, 4));
+
+        // В executor одно сообщение, в очереди сессии: дельта, снимок врача 2, последний снимок врача 1
+        assertEquals(4, interceptor.getDepth("s1"));
+        assertEquals(2L, interceptor.getStats().get("droppedSnapshots"));
+        assertEquals(4, interceptor.getStats().get("bufferedMessages"));
+
+        handlerReleased.countDown();
+        List<String> payloads = awaitReceived("s1", 4);
+
+        assertEquals(4, payloads.size());
+        assertTrue(payloads.get(0).contains("first"));
+        assertTrue(payloads.get(1).contains("\"type\":\"delta\""));
+        assertTrue(payloads.get(2).contains("\"doctorId\":2"));
+        assertTrue(payloads.get(3).contains("\"doctorId\":1,\"version\":4"));
+        assertEquals(0, interceptor.getDepth("s1"));
+        assertEquals(4, interceptor.getStats().get("maxDepth"));
+    }
+
+    @Test
+    @DisplayName("Сообщения каждой сессии передаются в порядке публикации при нескольких потоках канала")
+    void send_manyMessages_preservesPublishOrderPerSession() throws InterruptedException {
+        OutboundBackpressureInterceptor interceptor = new OutboundBackpressureInterceptor("drop-oldest-snapshot");
+        ExecutorSubscribableChannel channel = channel(interceptor, false);
+
+        for (int version = 1; version <= 200; version++) {
+            channel.send(delta("s1", 1, version));
+            channel.send(delta("s2", 1, version));
+        }
+
+        for (String sessionId : List.of("s1", "s2")) {
+            List<String> payloads = awaitReceived(sessionId, 200);
+            assertEquals(200, payloads.size());
+            for (int i = 0; i < payloads.size(); i++) {
+                assertTrue(payloads.get(i).contains("\"version\":" + (i + 1) + "}"), payloads.get(i));
+            }
+            assertEquals(0, interceptor.getDepth(sessionId));
+        }
+        assertEquals(0L, interceptor.getStats().get("droppedSnapshots"));
+    }
+
+    @Test
+    @DisplayName("Снимок распознаётся по заголовку event-type независимо от порядка полей JSON")
+    void send_snapshotByHeader_dropsSuperseded() throws InterruptedException {
+        OutboundBackpressureInterceptor interceptor = new OutboundBackpressureInterceptor("drop-oldest-snapshot");
+        ExecutorSubscribableChannel channel = channel(interceptor, true);
+
+        channel.send(personal("s1", "first"));
+        channel.send(headerSnapshot("s1", 1, 1));
+        channel.send(headerSnapshot("s1", 1, 2));
+        assertEquals(2, interceptor.getDepth("s1"));
+        assertEquals(1L, interceptor.getStats().get("droppedSnapshots"));
+
+        handlerReleased.countDown();
+        List<String> payloads = awaitReceived("s1", 2);
+        assertTrue(payloads.get(1).contains("\"version\":2"));
+    }
+
+    @Test
+    @DisplayName("Политика none отправляет все снимки")
+    void nonePolicy_keepsAllSnapshots() throws InterruptedException {
+        OutboundBackpressureInterceptor interceptor = new OutboundBackpressureInterceptor("none");
+        ExecutorSubscribableChannel channel = channel(interceptor, true);
+
+        channel.send(personal("s1", "first"));
+        channel.send(snapshot("s1", 1, 1));
+        channel.send(snapshot("s1", 1, 2));
+        assertEquals(3, interceptor.getDepth("s1"));
+
+        handlerReleased.countDown();
+        assertEquals(3, awaitReceived("s1", 3).size());
+        assertEquals(0L, interceptor.getStats().get("droppedSnapshots"));
+    }
+}
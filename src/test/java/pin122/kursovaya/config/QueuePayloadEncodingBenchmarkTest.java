@@ -0,0 +1,128 @@
+package pin122.kursovaya.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import pin122.kursovaya.dto.QueueEntryDto;
+import pin122.kursovaya.service.RedisQueueService;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сравнение форматов рассылки очереди врача: прежний JSON (время в каждой записи),
+ * JSON с одним временем снимка и CBOR
+ *
+ * Замер времени сериализации - бенчмарк, запускается отдельно: mvn test -Pbenchmark
+ */
+@DisplayName("QueuePayloadEncoding - размер и время сериализации рассылки очереди")
+class QueuePayloadEncodingBenchmarkTest {
+
+    private static final int QUEUE_SIZE = 40;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory())
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final QueuePayloadEncodingInterceptor encoder = new QueuePayloadEncodingInterceptor();
+
+    private static RedisQueueService.QueueUpdateEvent currentEvent() {
+        List<QueueEntryDto> queue = new ArrayList<>();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queue.add(new QueueEntryDto(null, 12L, 1000L + i, 500L + i, i, null));
+        }
+        return new RedisQueueService.QueueUpdateEvent(12L, 42L, queue);
+    }
+
+    /**
+     * Прежний формат: id = null и lastUpdated = now() в каждой записи, без времени снимка
+     */
+    private static Map<String, Object> legacyEvent() {
+        List<Map<String, Object>> queue = new ArrayList<>();
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", null);
+            entry.put("doctorId", 12L);
+            entry.put("appointmentId", 1000L + i);
+            entry.put("patientId", 500L + i);
+            entry.put("position", i);
+            entry.put("lastUpdated", OffsetDateTime.now());
+            queue.add(entry);
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "snapshot");
+        event.put("doctorId", 12L);
+        event.put("version", 42L);
+        event.put("queue", queue);
+        return event;
+    }
+
+    @Test
+    @DisplayName("Одно время снимка и CBOR уменьшают размер сообщения")
+    void payloadSize_compactFormatsAreSmaller() throws Exception {
+        byte[] legacy = jsonMapper.writeValueAsBytes(legacyEvent());
+        byte[] json = jsonMapper.writeValueAsBytes(currentEvent());
+        byte[] cbor = encoder.toCbor(json);
+
+        System.out.println("DEBUG Benchmark: очередь " + QUEUE_SIZE + " записей: прежний JSON " + legacy.length +
+                " байт, JSON " + json.length + " байт, CBOR " + cbor.length + " байт");
+
+        assertTrue(json.length < legacy.length * 2 / 3);
+        assertTrue(cbor.length < json.length);
+        assertEquals(jsonMapper.readTree(json), cborMapper.readTree(cbor));
+        assertEquals("snapshot", QueuePayloadEncodingInterceptor.eventType(json));
+    }
+
+    @Test
+    @Tag("benchmark")
+    @DisplayName("Бенчмарк: время сериализации рассылки очереди")
+    void serializationTime() throws Exception {
+        RedisQueueService.QueueUpdateEvent event = currentEvent();
+        int iterations = 200_000;
+
+        for (int i = 0; i < iterations; i++) {
+            jsonMapper.writeValueAsBytes(legacyEvent());
+            encoder.toCbor(jsonMapper.writeValueAsBytes(event));
+            cborMapper.writeValueAsBytes(event);
+        }
+
+        long started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            jsonMapper.writeValueAsBytes(legacyEvent());
+        }
+        long legacyNs = (System.nanoTime() - started) / iterations;
+
+        started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            jsonMapper.writeValueAsBytes(event);
+        }
+        long jsonNs = (System.nanoTime() - started) / iterations;
+
+        byte[] json = jsonMapper.writeValueAsBytes(event);
+        started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encoder.toCbor(json);
+        }
+        long transcodeNs = (System.nanoTime() - started) / iterations;
+
+        started = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            cborMapper.writeValueAsBytes(event);
+        }
+        long cborNs = (System.nanoTime() - started) / iterations;
+
+        System.out.println("DEBUG Benchmark: прежний JSON (с построением записей) " + legacyNs + " нс, JSON " + jsonNs +
+                " нс, JSON -> CBOR " + transcodeNs + " нс (один раз на рассылку), CBOR напрямую " + cborNs + " нс");
+        assertTrue(jsonNs > 0 && transcodeNs > 0);
+    }
+}
@@ -0,0 +1,162 @@
+package pin122.kursovaya.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import pin122.kursovaya.model.Patient;
+import pin122.kursovaya.model.User;
+import pin122.kursovaya.repository.PatientRepository;
+import pin122.kursovaya.repository.UserRepository;
+import pin122.kursovaya.service.QueueSnapshotService;
+import pin122.kursovaya.service.RedisQueueService;
+import pin122.kursovaya.service.WebSocketConnectExecutor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для WebSocketEventListener - доставка ответов подключения в /user/queue/user
+ * Используются настоящие SimpleBroker и UserDestinationMessageHandler на синхронных каналах:
+ * клиент получает только то, что брокер отправил в clientOutboundChannel
+ */
+@DisplayName("WebSocketEventListener - тесты доставки ответов подключения")
+class WebSocketEventListenerTest {
+
+    private static final String SESSION_ID = "stomp-1";
+    private static final String EMAIL = "patient@example.com";
+
+    // Сообщения, отправленные клиенту (clientOutboundChannel)
+    private final List<Message<?>> outbound = new ArrayList<>();
+
+    private ExecutorSubscribableChannel clientInboundChannel;
+    private DefaultSimpUserRegistry userRegistry;
+    private WebSocketConnectExecutor connectExecutor;
+    private WebSocketEventListener listener;
+    private UsernamePasswordAuthenticationToken principal;
+
+    @BeforeEach
+    void setUp() {
+        clientInboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        clientOutboundChannel.subscribe(outbound::add);
+
+        new SimpleBrokerMessageHandler(clientInboundChannel, clientOutboundChannel, brokerChannel,
+                List.of("/queue", "/topic")).start();
+        userRegistry = new DefaultSimpUserRegistry();
+        new UserDestinationMessageHandler(clientInboundChannel, brokerChannel,
+                new DefaultUserDestinationResolver(userRegistry)).start();
+
+        User user = new User();
+        user.setId(1L);
+        user.setEmail(EMAIL);
+        Patient patient = new Patient();
+        patient.setId(7L);
+
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByEmail(EMAIL)).thenReturn(user);
+        PatientRepository patientRepository = mock(PatientRepository.class);
+        when(patientRepository.findByUserId(1L)).thenReturn(Optional.of(patient));
+        RedisQueueService redisQueueService = mock(RedisQueueService.class);
+        when(redisQueueService.generateSessionId()).thenReturn("redis-1");
+        QueueSnapshotService queueSnapshotService = mock(QueueSnapshotService.class);
+        when(queueSnapshotService.buildQueueForToday(anyLong())).thenReturn(List.of());
+
+        // Инициализация выполняется сразу в вызывающем потоке
+        connectExecutor = mock(WebSocketConnectExecutor.class);
+        when(connectExecutor.submit(any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return true;
+        });
+
+        listener = new WebSocketEventListener(new SimpMessagingTemplate(brokerChannel), redisQueueService,
+                queueSnapshotService, userRepository, patientRepository, connectExecutor);
+        clientInboundChannel.addInterceptor(new UserQueueSubscriptionInterceptor(listener));
+        principal = new UsernamePasswordAuthenticationToken(EMAIL, null, List.of());
+    }
+
+    private Message<byte[]> frame(SimpMessageType type, String destination) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(SESSION_ID);
+        accessor.setUser(principal);
+        if (destination != null) {
+            accessor.setDestination(destination);
+            accessor.setSubscriptionId("sub-0");
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    // CONNECT от клиента и SessionConnectedEvent, как их публикует StompSubProtocolHandler
+    private void connect() {
+        clientInboundChannel.send(frame(SimpMessageType.CONNECT, null));
+        SessionConnectedEvent event = new SessionConnectedEvent(this,
+                frame(SimpMessageType.CONNECT_ACK, null), principal);
+        userRegistry.onApplicationEvent(event);
+        listener.handleWebSocketConnectListener(event);
+    }
+
+    private void subscribe() {
+        clientInboundChannel.send(frame(SimpMessageType.SUBSCRIBE, UserQueueSubscriptionInterceptor.USER_QUEUE_DESTINATION));
+    }
+
+    // Тексты ответов, доставленных клиенту
+    private List<String> received() {
+        return outbound.stream()
+                .filter(message -> SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE)
+                .map(message -> new String((byte[]) message.getPayload(), StandardCharsets.UTF_8))
+                .toList();
+    }
+
+    @Test
+    @DisplayName("Ответы подключения доставляются после подписки: сначала 'Очередь формируется', затем снимок")
+    void connect_repliesDeliveredAfterSubscribe() {
+        connect();
+        assertTrue(received().isEmpty());
+
+        subscribe();
+
+        List<String> received = received();
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).contains("Очередь формируется"));
+        assertTrue(received.get(1).contains("Нет активных записей на сегодня"));
+        verify(connectExecutor).recordFirstSnapshot(anyLong());
+
+        // Повторная подписка не отправляет ответы ещё раз
+        subscribe();
+        assertEquals(2, received().size());
+    }
+
+    @Test
+    @DisplayName("Переполненная очередь инициализаций: клиент получает сообщение о перегрузке")
+    void connect_overloaded_overloadReplyDelivered() {
+        when(connectExecutor.submit(any())).thenReturn(false);
+
+        connect();
+        subscribe();
+
+        List<String> received = received();
+        assertEquals(2, received.size());
+        assertTrue(received.get(0).contains("Очередь формируется"));
+        assertTrue(received.get(1).contains("Сервер перегружен"));
+        verify(connectExecutor, never()).recordFirstSnapshot(anyLong());
+    }
+}
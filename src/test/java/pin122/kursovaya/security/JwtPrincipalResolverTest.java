@@ -0,0 +1,115 @@
+package pin122.kursovaya.security;
+
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+import pin122.kursovaya.model.Patient;
+import pin122.kursovaya.model.Role;
+import pin122.kursovaya.utils.JwtTokenProvider;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для JwtPrincipalResolver - пользователь из claims токена без обращения к БД
+ */
+@DisplayName("JwtPrincipalResolver - аутентификация по claims")
+class JwtPrincipalResolverTest {
+
+    private JwtTokenProvider jwtTokenProvider;
+    private UserDetailsService userDetailsService;
+    private TokenRevocationService tokenRevocationService;
+
+    @BeforeEach
+    void setUp() {
+        jwtTokenProvider = new JwtTokenProvider();
+        ReflectionTestUtils.setField(jwtTokenProvider, "secret",
+            "mySecretKeyForJWTTokenGenerationAndValidationMustBeAtLeast256BitsLong");
+        ReflectionTestUtils.setField(jwtTokenProvider, "expiration", 3600000L);
+        userDetailsService = mock(UserDetailsService.class);
+        tokenRevocationService = mock(TokenRevocationService.class);
+    }
+
+    private pin122.kursovaya.model.User patientUser() {
+        Role role = new Role();
+        role.setCode("patient");
+        Patient patient = new Patient();
+        patient.setId(7L);
+
+        pin122.kursovaya.model.User user = new pin122.kursovaya.model.User();
+        user.setId(3L);
+        user.setEmail("patient@clinic.com");
+        user.getRoles().add(role);
+        user.setPatient(patient);
+        return user;
+    }
+
+    @Test
+    @DisplayName("Роли и id берутся из claims, БД не используется")
+    void resolve_claimsToken_noDatabaseLookup() {
+        JwtPrincipalResolver resolver = new JwtPrincipalResolver(userDetailsService, tokenRevocationService, "claims");
+        Claims claims = jwtTokenProvider.parseValidClaims(jwtTokenProvider.generateToken(patientUser()));
+
+        UserDetails userDetails = resolver.resolve(claims);
+
+        JwtUserPrincipal principal = assertInstanceOf(JwtUserPrincipal.class, userDetails);
+        assertEquals("patient@clinic.com", principal.getUsername());
+        assertEquals(3L, principal.getUserId());
+        assertEquals(7L, principal.getPatientId());
+        assertNull(principal.getDoctorId());
+        assertEquals("ROLE_PATIENT", principal.getAuthorities().iterator().next().getAuthority());
+        verify(userDetailsService, never()).loadUserByUsername(anyString());
+    }
+
+    @Test
+    @DisplayName("Отозванный токен не принимается")
+    void resolve_revokedToken_returnsNull() {
+        JwtPrincipalResolver resolver = new JwtPrincipalResolver(userDetailsService, tokenRevocationService, "claims");
+        when(tokenRevocationService.isRevoked(eq(3L), any())).thenReturn(true);
+        Claims claims = jwtTokenProvider.parseValidClaims(jwtTokenProvider.generateToken(patientUser()));
+
+        assertNull(resolver.resolve(claims));
+        verify(userDetailsService, never()).loadUserByUsername(anyString());
+    }
+
+    @Test
+    @DisplayName("Токен старого формата без ролей загружается из БД")
+    void resolve_legacyToken_fallsBackToDatabase() {
+        JwtPrincipalResolver resolver = new JwtPrincipalResolver(userDetailsService, tokenRevocationService, "claims");
+        UserDetails stored = User.builder()
+                .username("old@clinic.com")
+                .password("hash")
+                .authorities(Collections.<GrantedAuthority>emptyList())
+                .build();
+        when(userDetailsService.loadUserByUsername("old@clinic.com")).thenReturn(stored);
+        Claims claims = jwtTokenProvider.parseValidClaims(jwtTokenProvider.generateToken("old@clinic.com"));
+
+        assertSame(stored, resolver.resolve(claims));
+    }
+
+    @Test
+    @DisplayName("Режим database всегда загружает пользователя из БД")
+    void resolve_databaseMode_loadsUser() {
+        JwtPrincipalResolver resolver = new JwtPrincipalResolver(userDetailsService, tokenRevocationService, "database");
+        UserDetails stored = User.builder()
+                .username("patient@clinic.com")
+                .password("hash")
+                .authorities(Collections.<GrantedAuthority>emptyList())
+                .build();
+        when(userDetailsService.loadUserByUsername("patient@clinic.com")).thenReturn(stored);
+        Claims claims = jwtTokenProvider.parseValidClaims(jwtTokenProvider.generateToken(patientUser()));
+
+        assertSame(stored, resolver.resolve(claims));
+        assertEquals(1L, resolver.getStats().get("databaseAuthentications"));
+    }
+}
@@ -9,14 +9,17 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import pin122.kursovaya.dto.AppointmentDto;
+import pin122.kursovaya.dto.AppointmentListRow;
 import pin122.kursovaya.model.*;
 import pin122.kursovaya.repository.AppointmentRepository;
 import pin122.kursovaya.repository.PatientRepository;
+import pin122.kursovaya.utils.PhotoUtils;
 
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
@@ -40,9 +43,15 @@ class AppointmentServiceTest {
     @Mock
     private RedisQueueService redisQueueService;
 
+    @Mock
+    private QueueSnapshotService queueSnapshotService;
+
     @Mock
     private EmailNotificationService emailNotificationService;
 
+    @Mock
+    private SlotAvailabilityIndex slotAvailabilityIndex;
+
     @InjectMocks
     private AppointmentService appointmentService;
 
@@ -66,6 +75,23 @@ class AppointmentServiceTest {
         testDoctor.setUser(doctorUser);
         testDoctor.setDisplayName("Д-р Докторов");
         testDoctor.setExperienceYears(10);
+        testDoctor.getSpecializations().add(doctorSpecialization(5L, "Терапевт"));
+        testDoctor.getSpecializations().add(doctorSpecialization(6L, "Кардиолог"));
+
+        // Кабинет и расписание, по которому создан слот
+        Room room = new Room();
+        room.setId(3L);
+        room.setCode("101");
+        room.setName("Кабинет терапевта");
+
+        Schedule schedule = new Schedule();
+        schedule.setId(4L);
+        schedule.setDoctor(testDoctor);
+        schedule.setRoom(room);
+        schedule.setDateAt(LocalDate.now().plusDays(1));
+
+        User admin = new User();
+        admin.setId(9L);
 
         // Создаём тестового пациента
         User patientUser = new User();
@@ -82,6 +108,9 @@ class AppointmentServiceTest {
         testAppointment = new Appointment();
         testAppointment.setId(1L);
         testAppointment.setDoctor(testDoctor);
+        testAppointment.setSchedule(schedule);
+        testAppointment.setRoom(room);
+        testAppointment.setCreatedBy(admin);
         testAppointment.setPatient(null); // Слот свободен
         testAppointment.setStartTime(OffsetDateTime.now().plusDays(1));
         testAppointment.setEndTime(OffsetDateTime.now().plusDays(1).plusMinutes(30));
@@ -91,6 +120,46 @@ class AppointmentServiceTest {
         testAppointment.setUpdatedAt(OffsetDateTime.now());
     }
 
+    private DoctorSpecialization doctorSpecialization(Long id, String name) {
+        Specialization specialization = new Specialization();
+        specialization.setId(id);
+        specialization.setName(name);
+
+        DoctorSpecialization doctorSpecialization = new DoctorSpecialization();
+        doctorSpecialization.setId(id);
+        doctorSpecialization.setDoctor(testDoctor);
+        doctorSpecialization.setSpecialization(specialization);
+        return doctorSpecialization;
+    }
+
+    /**
+     * Строка проекции с теми же данными, что и сущность (как её вернул бы findListRows):
+     * специализация врача - с наименьшим id, кабинет - из a.room
+     */
+    private static AppointmentListRow row(Appointment a) {
+        Patient p = a.getPatient();
+        User pu = p != null ? p.getUser() : null;
+        Doctor d = a.getDoctor();
+        User du = d.getUser();
+        Room r = a.getRoom();
+        String specialization = d.getSpecializations().stream()
+                .min(Comparator.comparing(DoctorSpecialization::getId))
+                .map(ds -> ds.getSpecialization().getName())
+                .orElse(null);
+        return new AppointmentListRow(
+                a.getId(), a.getSchedule() != null ? a.getSchedule().getId() : null, d.getId(),
+                p != null ? p.getId() : null, r != null ? r.getId() : null,
+                a.getStartTime(), a.getEndTime(), a.getStatus(), a.getSource(),
+                a.getCreatedBy() != null ? a.getCreatedBy().getId() : null,
+                a.getCreatedAt(), a.getUpdatedAt(), a.getCancelReason(), a.getDiagnosis(),
+                p != null ? p.getBirthDate() : null, p != null ? p.getGender() : null, p != null ? p.getInsuranceNumber() : null,
+                pu != null ? pu.getFirstName() : null, pu != null ? pu.getLastName() : null, pu != null ? pu.getMiddleName() : null,
+                pu != null ? pu.getPhone() : null, pu != null ? pu.getEmail() : null,
+                d.getDisplayName(), d.getExperienceYears(), d.getPhotoHash(),
+                du.getFirstName(), du.getLastName(), du.getMiddleName(), specialization,
+                r != null ? r.getCode() : null, r != null ? r.getName() : null);
+    }
+
     @Test
     @DisplayName("Получение всех записей")
     void getAllAppointments_returnsList() {
@@ -104,13 +173,39 @@ class AppointmentServiceTest {
         appointment2.setCreatedAt(OffsetDateTime.now());
         appointment2.setUpdatedAt(OffsetDateTime.now());
 
-        when(appointmentRepository.findAll()).thenReturn(Arrays.asList(testAppointment, appointment2));
+        when(appointmentRepository.findListRows(null, null, null, null, null, false))
+                .thenReturn(Arrays.asList(row(testAppointment), row(appointment2)));
 
         List<AppointmentDto> result = appointmentService.getAllAppointments();
 
         assertNotNull(result);
         assertEquals(2, result.size());
-        verify(appointmentRepository, times(1)).findAll();
+        verify(appointmentRepository, never()).findAll();
+    }
+
+    @Test
+    @DisplayName("Проекция и загрузка сущностей дают одинаковый DTO")
+    void getAppointmentsByPatient_projectionMatchesEntityPath() {
+        testAppointment.setPatient(testPatient);
+        testAppointment.setStatus("scheduled");
+        testPatient.setGender((short) 1);
+        testPatient.setBirthDate(LocalDate.of(1990, 5, 1));
+        when(appointmentRepository.findListRows(null, 1L, null, null, null, true)).thenReturn(List.of(row(testAppointment)));
+        when(appointmentRepository.findByPatientIdWithDetails(1L)).thenReturn(List.of(testAppointment));
+
+        List<AppointmentDto> projected = appointmentService.getAppointmentsByPatient(1L);
+        ReflectionTestUtils.setField(appointmentService, "readPath", "entity");
+        List<AppointmentDto> loaded = appointmentService.getAppointmentsByPatient(1L);
+
+        assertEquals(loaded, projected);
+        // Сравниваются заполненные поля, а не null с null
+        assertEquals(4L, projected.get(0).getScheduleId());
+        assertEquals(9L, projected.get(0).getCreatedBy());
+        assertEquals("101", projected.get(0).getRoom().getCode());
+        assertEquals("Кабинет терапевта", projected.get(0).getRoom().getName());
+        assertEquals("Терапевт", projected.get(0).getDoctor().getSpecialization());
+        assertTrue(projected.get(0).getIsBooked());
+        assertEquals("Мужской", projected.get(0).getPatient().getGender());
     }
 
     @Test
@@ -138,43 +233,48 @@ class AppointmentServiceTest {
     @Test
     @DisplayName("Бронирование записи - успешно")
     void bookAppointment_availableSlot_booksSuccessfully() {
-        when(appointmentRepository.findById(1L)).thenReturn(Optional.of(testAppointment));
         when(patientRepository.findByUserId(2L)).thenReturn(Optional.of(testPatient));
-        when(appointmentRepository.save(any(Appointment.class))).thenAnswer(i -> i.getArgument(0));
+        when(appointmentRepository.claimFreeSlot(eq(1L), eq(testPatient), any(OffsetDateTime.class))).thenReturn(1);
+        when(appointmentRepository.findByIdWithDetails(1L)).thenAnswer(i -> {
+            testAppointment.setPatient(testPatient);
+            testAppointment.setStatus("scheduled");
+            return Optional.of(testAppointment);
+        });
 
         Optional<AppointmentDto> result = appointmentService.bookAppointment(1L, 2L);
 
         assertTrue(result.isPresent());
         assertEquals("scheduled", result.get().getStatus());
         assertNotNull(result.get().getPatientId());
-        verify(appointmentRepository).save(any(Appointment.class));
+        verify(appointmentRepository, never()).save(any(Appointment.class));
     }
 
     @Test
     @DisplayName("Бронирование записи - слот уже занят")
     void bookAppointment_alreadyBooked_returnsEmpty() {
-        testAppointment.setPatient(testPatient); // Слот уже занят
-
-        when(appointmentRepository.findById(1L)).thenReturn(Optional.of(testAppointment));
+        when(patientRepository.findByUserId(3L)).thenReturn(Optional.of(testPatient));
+        when(appointmentRepository.claimFreeSlot(eq(1L), eq(testPatient), any(OffsetDateTime.class))).thenReturn(0);
+        when(appointmentRepository.existsById(1L)).thenReturn(true);
 
-        Optional<AppointmentDto> result = appointmentService.bookAppointment(1L, 3L);
+        AppointmentService.BookingResult result = appointmentService.tryBookAppointment(1L, 3L);
 
-        assertFalse(result.isPresent());
+        assertEquals(AppointmentService.BookingStatus.ALREADY_TAKEN, result.getStatus());
+        assertNull(result.getAppointment());
         verify(appointmentRepository, never()).save(any(Appointment.class));
+        verify(appointmentRepository, never()).findByIdWithDetails(anyLong());
     }
 
     @Test
     @DisplayName("Бронирование записи - пациент не найден")
     void bookAppointment_patientNotFound_returnsEmpty() {
-        when(appointmentRepository.findById(1L)).thenReturn(Optional.of(testAppointment));
         when(patientRepository.findByUserId(999L)).thenReturn(Optional.empty());
 
         Optional<AppointmentDto> result = appointmentService.bookAppointment(1L, 999L);
 
         assertFalse(result.isPresent());
+        verify(appointmentRepository, never()).claimFreeSlot(anyLong(), any(), any());
     }
 
-
     @Test
     @DisplayName("Отмена уже отменённой записи - возврат без изменений")
     void cancelAppointment_alreadyCancelled_returnsUnchanged() {
@@ -219,12 +319,45 @@ class AppointmentServiceTest {
     void getAppointmentsByDoctorAndDate_returnsFilteredList() {
         LocalDate date = LocalDate.now().plusDays(1);
 
-        when(appointmentRepository.findByDoctorIdAndDate(eq(1L), any(OffsetDateTime.class), any(OffsetDateTime.class)))
-                .thenReturn(List.of(testAppointment));
+        when(appointmentRepository.findListRows(eq(1L), isNull(), isNull(), any(OffsetDateTime.class), any(OffsetDateTime.class), eq(false)))
+                .thenReturn(List.of(row(testAppointment)));
 
         List<AppointmentDto> result = appointmentService.getAppointmentsByDoctorAndDate(1L, date);
 
         assertNotNull(result);
         assertEquals(1, result.size());
     }
+
+    @Test
+    @DisplayName("Список записей врача содержит URL фото, а не само фото")
+    void getAppointmentsByDoctor_carriesPhotoUrlOnly() throws Exception {
+        byte[] photo = new byte[200 * 1024];
+        photo[0] = (byte) 0xFF;
+        photo[1] = (byte) 0xD8;
+        testDoctor.setPhotoHash(PhotoUtils.hash(photo));
+
+        List<AppointmentListRow> rows = new java.util.ArrayList<>();
+        for (long i = 1; i <= 50; i++) {
+            Appointment appointment = new Appointment();
+            appointment.setId(i);
+            appointment.setDoctor(testDoctor);
+            appointment.setStatus("available");
+            appointment.setStartTime(OffsetDateTime.now().plusDays(1).plusMinutes(30 * i));
+            rows.add(row(appointment));
+        }
+        when(appointmentRepository.findListRows(1L, null, null, null, null, true)).thenReturn(rows);
+
+        List<AppointmentDto> result = appointmentService.getAppointmentsByDoctor(1L);
+
+        String photoUrl = result.get(0).getDoctor().getPhotoUrl();
+        assertEquals("/api/doctors/1/photo?v=" + testDoctor.getPhotoHash().substring(0, 16), photoUrl);
+        assertEquals(photoUrl + "&size=64", result.get(0).getDoctor().getPhotoThumbnailUrl());
+
+        // Размер ответа против прежнего формата (Base64 фото в каждой строке)
+        com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper().findAndRegisterModules();
+        int currentSize = mapper.writeValueAsBytes(result).length;
+        int legacySize = currentSize + result.size() * java.util.Base64.getEncoder().encodeToString(photo).length();
+        System.out.println("DEBUG Benchmark: 50 записей врача: с Base64 фото ~" + legacySize + " байт, с photoUrl " + currentSize + " байт");
+        assertTrue(currentSize * 100 < legacySize);
+    }
 }
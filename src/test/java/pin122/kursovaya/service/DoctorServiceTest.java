@@ -17,6 +17,7 @@ import pin122.kursovaya.model.DoctorSpecialization;
 import pin122.kursovaya.model.Specialization;
 import pin122.kursovaya.model.User;
 import pin122.kursovaya.repository.*;
+import pin122.kursovaya.security.TokenRevocationService;
 
 import java.time.OffsetDateTime;
 import java.util.*;
@@ -59,6 +60,12 @@ class DoctorServiceTest {
     @Mock
     private QueueEntryRepository queueEntryRepository;
 
+    @Mock
+    private DoctorPhotoService doctorPhotoService;
+
+    @Mock
+    private TokenRevocationService tokenRevocationService;
+
     @InjectMocks
     private DoctorService doctorService;
 
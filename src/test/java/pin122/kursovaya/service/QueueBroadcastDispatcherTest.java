@@ -0,0 +1,90 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для QueueBroadcastDispatcher - объединение рассылок очереди по врачу
+ */
+@DisplayName("QueueBroadcastDispatcher - тесты объединения рассылок")
+class QueueBroadcastDispatcherTest {
+
+    private QueueBroadcastDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Серия изменений одного врача в окне - одна рассылка")
+    void schedule_burstForOneDoctor_sendsOnce() throws InterruptedException {
+        dispatcher = new QueueBroadcastDispatcher(50);
+        List<Long> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+
+        for (int i = 0; i < 10; i++) {
+            dispatcher.schedule(1L, id -> { latch.countDown(); return sent.add(id); });
+        }
+        dispatcher.schedule(2L, id -> { latch.countDown(); return sent.add(id); });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        assertEquals(2, sent.size());
+        assertTrue(sent.containsAll(List.of(1L, 2L)));
+        assertEquals(9, dispatcher.getSuppressedCount());
+        assertEquals(2, dispatcher.getSentCount());
+    }
+
+    @Test
+    @DisplayName("Изменение после отправки планирует новую рассылку")
+    void schedule_afterWindow_sendsAgain() throws InterruptedException {
+        dispatcher = new QueueBroadcastDispatcher(20);
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+
+        dispatcher.schedule(1L, id -> { first.countDown(); return true; });
+        assertTrue(first.await(2, TimeUnit.SECONDS));
+        dispatcher.schedule(1L, id -> { second.countDown(); return true; });
+
+        assertTrue(second.await(2, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getSuppressedCount());
+    }
+
+    @Test
+    @DisplayName("Окно 0 - рассылка сразу в вызывающем потоке")
+    void schedule_zeroWindow_sendsImmediately() {
+        dispatcher = new QueueBroadcastDispatcher(0);
+        List<Long> sent = new CopyOnWriteArrayList<>();
+
+        dispatcher.schedule(1L, sent::add);
+        dispatcher.schedule(1L, sent::add);
+
+        assertEquals(List.of(1L, 1L), sent);
+        assertEquals(0, dispatcher.getSuppressedCount());
+    }
+
+    @Test
+    @DisplayName("Рассылка без отправки сообщения считается пропущенной, а не отправленной")
+    void schedule_nothingSent_countsSkipped() {
+        dispatcher = new QueueBroadcastDispatcher(0);
+
+        dispatcher.schedule(1L, id -> false);
+        dispatcher.schedule(2L, id -> true);
+
+        assertEquals(1, dispatcher.getSentCount());
+        assertEquals(1, dispatcher.getSkippedCount());
+        assertEquals(1L, dispatcher.getStats().get("skipped"));
+    }
+}
@@ -0,0 +1,130 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pin122.kursovaya.dto.QueueEntryDto;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.model.Doctor;
+import pin122.kursovaya.model.Patient;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для QueueDeltaEngine - целевая очередь, дельта пересчёта и дельта рассылки
+ * Совпадение инкрементального удаления с полным пересчётом проверяет RedisQueueServiceTest
+ */
+@DisplayName("QueueDeltaEngine - тесты инкрементального обновления очереди")
+class QueueDeltaEngineTest {
+
+    private OffsetDateTime now;
+    private Doctor doctor;
+
+    @BeforeEach
+    void setUp() {
+        now = OffsetDateTime.now();
+        doctor = new Doctor();
+        doctor.setId(1L);
+    }
+
+    private Appointment appointment(long id, long patientId, int minutesFromNow, String status) {
+        Patient patient = new Patient();
+        patient.setId(patientId);
+
+        Appointment appointment = new Appointment();
+        appointment.setId(id);
+        appointment.setDoctor(doctor);
+        appointment.setPatient(patient);
+        appointment.setStartTime(now.plusMinutes(minutesFromNow));
+        appointment.setEndTime(now.plusMinutes(minutesFromNow + 30));
+        appointment.setStatus(status);
+        return appointment;
+    }
+
+    @Test
+    @DisplayName("Полный пересчёт: порядок по времени, без завершённых, прошедших и повторов")
+    void buildMembers_filtersAndSortsByStartTime() {
+        List<Appointment> appointments = List.of(
+                appointment(1, 10, 90, "scheduled"),
+                appointment(2, 20, 30, "scheduled"),
+                appointment(3, 30, -30, "scheduled"),
+                appointment(4, 40, 60, "cancelled"),
+                appointment(5, 50, 120, "confirmed"),
+                appointment(6, 20, 150, "scheduled")
+        );
+
+        Map<String, Appointment> members = QueueDeltaEngine.buildMembers(appointments, now);
+
+        assertEquals(List.of("patient:20", "patient:10", "patient:50"), List.copyOf(members.keySet()));
+        assertEquals(2L, members.get("patient:20").getId());
+    }
+
+    @Test
+    @DisplayName("Дельта полного пересчёта записывает только изменённые score")
+    void diff_writesOnlyChangedMembers() {
+        Map<String, Double> current = Map.of("patient:1", 100.0, "patient:2", 200.0, "patient:3", 300.0);
+        Map<String, Double> target = Map.of("patient:1", 100.0, "patient:3", 250.0, "patient:4", 400.0);
+
+        QueueDeltaEngine.QueueDelta delta = QueueDeltaEngine.diff(current, target);
+
+        assertEquals(Set.of("patient:2"), delta.getRemoved());
+        assertEquals(Map.of("patient:3", 250.0, "patient:4", 400.0), delta.getUpdates());
+        assertTrue(QueueDeltaEngine.diff(current, current).isEmpty());
+    }
+
+    private static List<QueueEntryDto> queue(long... patientIds) {
+        List<QueueEntryDto> queue = new ArrayList<>();
+        for (int i = 0; i < patientIds.length; i++) {
+            queue.add(new QueueEntryDto(null, 1L, patientIds[i] * 10, patientIds[i], i, null));
+        }
+        return queue;
+    }
+
+    private static List<Long> ids(List<QueueEntryDto> queue) {
+        return queue.stream().map(QueueEntryDto::getPatientId).toList();
+    }
+
+    @Test
+    @DisplayName("Дельта рассылки: удаление первого - только removed и диапазон сдвига")
+    void diffEntries_headRemoved_sendsOnlyRemoval() {
+        List<QueueEntryDto> previous = queue(1, 2, 3, 4);
+        List<QueueEntryDto> current = queue(2, 3, 4);
+
+        QueueDeltaEngine.EntryDelta delta = QueueDeltaEngine.diffEntries(previous, current);
+
+        assertEquals(List.of(1L), delta.getRemoved());
+        assertTrue(delta.getUpserted().isEmpty());
+        assertEquals(0, delta.getShiftedFrom());
+        assertEquals(2, delta.getShiftedTo());
+        assertEquals(ids(current), QueueDeltaEngine.applyEntries(ids(previous), delta));
+    }
+
+    @Test
+    @DisplayName("Дельта рассылки: вставка, удаление и перестановка воспроизводят новую очередь")
+    void diffEntries_mixedChanges_reproduceCurrent() {
+        List<QueueEntryDto> previous = queue(1, 2, 3, 4, 5);
+        List<QueueEntryDto> current = queue(2, 6, 4, 3, 5, 7);
+
+        QueueDeltaEngine.EntryDelta delta = QueueDeltaEngine.diffEntries(previous, current);
+
+        assertEquals(List.of(1L), delta.getRemoved());
+        assertTrue(ids(delta.getUpserted()).containsAll(List.of(6L, 7L)));
+        assertEquals(ids(current), QueueDeltaEngine.applyEntries(ids(previous), delta));
+    }
+
+    @Test
+    @DisplayName("Дельта рассылки: без изменений - пустая дельта")
+    void diffEntries_noChanges_isEmpty() {
+        QueueDeltaEngine.EntryDelta delta = QueueDeltaEngine.diffEntries(queue(1, 2), queue(1, 2));
+
+        assertTrue(delta.getRemoved().isEmpty());
+        assertTrue(delta.getUpserted().isEmpty());
+        assertNull(delta.getShiftedFrom());
+    }
+}
@@ -0,0 +1,124 @@
+package pin122.kursovaya.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import pin122.kursovaya.config.QueuePayloadEncodingInterceptor;
+import pin122.kursovaya.dto.QueueEntryDto;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для QueueMessageRelay - рассылка между несколькими узлами через Redis pub/sub
+ * Вместо Redis используется общая шина в памяти: публикация доставляется всем подписанным узлам
+ */
+@DisplayName("QueueMessageRelay - тесты рассылки между узлами")
+class QueueMessageRelayTest {
+
+    private static final String CHANNEL = "ws:relay";
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<QueueMessageRelay> bus = new CopyOnWriteArrayList<>();
+
+    private SimpMessagingTemplate templateA;
+    private SimpMessagingTemplate templateB;
+    private QueueMessageRelay nodeA;
+    private QueueMessageRelay nodeB;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        doAnswer(invocation -> {
+            String message = invocation.getArgument(1);
+            bus.forEach(node -> node.deliver(message));
+            return (long) bus.size();
+        }).when(redis).convertAndSend(eq(CHANNEL), anyString());
+
+        templateA = mock(SimpMessagingTemplate.class);
+        templateB = mock(SimpMessagingTemplate.class);
+        nodeA = new QueueMessageRelay(templateA, redis, null, objectMapper, "redis", CHANNEL);
+        nodeB = new QueueMessageRelay(templateB, redis, null, objectMapper, "redis", CHANNEL);
+        bus.add(nodeA);
+        bus.add(nodeB);
+    }
+
+    @Test
+    @DisplayName("Обновление очереди с одного узла получают подписчики всех узлов")
+    void send_reachesSubscribersOnEveryNode() {
+        QueueEntryDto entry = new QueueEntryDto(null, 1L, 5L, 7L, 0, OffsetDateTime.parse("2024-01-01T12:00:00Z"));
+        RedisQueueService.QueueUpdateEvent event = new RedisQueueService.QueueUpdateEvent(1L, 3L, List.of(entry));
+
+        nodeA.send("/topic/queue/doctor/1", event);
+
+        JsonNode expected = objectMapper.valueToTree(event);
+        for (SimpMessagingTemplate template : List.of(templateA, templateB)) {
+            ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+            // Тип события передаётся заголовком и на узле-получателе, где payload - JSON дерево
+            verify(template).convertAndSend(eq("/topic/queue/doctor/1"), payload.capture(),
+                    eq(Map.<String, Object>of(QueuePayloadEncodingInterceptor.EVENT_TYPE_HEADER, "snapshot")));
+            assertEquals(expected, payload.getValue());
+        }
+        assertEquals("snapshot", expected.path("type").asText());
+        assertEquals(7L, expected.path("queue").get(0).path("patientId").asLong());
+    }
+
+    @Test
+    @DisplayName("Персональное уведомление доставляется на узел, где подключён пользователь")
+    void sendToUser_fansOutToUserDestinations() {
+        nodeB.sendToUser("patient@example.com", "/queue/user",
+                new RedisQueueService.QueueInitResponse(true, "Очередь обновлена", List.of()));
+
+        for (SimpMessagingTemplate template : List.of(templateA, templateB)) {
+            ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+            verify(template).convertAndSendToUser(eq("patient@example.com"), eq("/queue/user"), payload.capture());
+            assertEquals("Очередь обновлена", ((JsonNode) payload.getValue()).path("message").asText());
+            verify(template, never()).convertAndSend(anyString(), any(Object.class));
+        }
+    }
+
+    @Test
+    @DisplayName("Режим local отправляет напрямую в брокер узла без Redis")
+    @SuppressWarnings("unchecked")
+    void localMode_sendsDirectly() {
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+        QueueMessageRelay relay = new QueueMessageRelay(template, redis, null, objectMapper, "local", CHANNEL);
+        Object payload = Map.of("doctorId", 2L);
+
+        relay.send("/topic/queue/doctor/2", payload);
+
+        verify(template).convertAndSend("/topic/queue/doctor/2", payload);
+        verifyNoInteractions(redis);
+    }
+
+    @Test
+    @DisplayName("Redis недоступен - сообщение доставляется клиентам своего узла")
+    @SuppressWarnings("unchecked")
+    void publishFailure_fallsBackToLocalDelivery() {
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        when(redis.convertAndSend(anyString(), anyString())).thenThrow(new IllegalStateException("connection refused"));
+        SimpMessagingTemplate template = mock(SimpMessagingTemplate.class);
+        QueueMessageRelay relay = new QueueMessageRelay(template, redis, null, objectMapper, "redis", CHANNEL);
+        Object payload = Map.of("doctorId", 2L);
+
+        relay.send("/topic/queue/doctor/3", payload);
+
+        verify(template).convertAndSend("/topic/queue/doctor/3", payload);
+        assertEquals(1L, relay.getStats().get("failed"));
+    }
+}
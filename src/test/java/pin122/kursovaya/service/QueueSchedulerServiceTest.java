@@ -0,0 +1,76 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для QueueSchedulerService - параллельный пересчёт всех очередей
+ */
+@DisplayName("QueueSchedulerService - тесты пересчёта всех очередей")
+class QueueSchedulerServiceTest {
+
+    private QueueSchedulerService schedulerService;
+
+    @AfterEach
+    void tearDown() {
+        if (schedulerService != null) {
+            schedulerService.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Каждый врач из реестра пересчитывается один раз, параллельность ограничена")
+    void recalculateAllQueues_boundedParallelism() {
+        RedisQueueService redisQueueService = mock(RedisQueueService.class);
+        Set<Long> doctorIds = new HashSet<>();
+        for (long id = 1; id <= 20; id++) {
+            doctorIds.add(id);
+        }
+        when(redisQueueService.getActiveDoctorIds()).thenReturn(doctorIds);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return null;
+        }).when(redisQueueService).recalculateQueueForDoctor(anyLong());
+
+        schedulerService = new QueueSchedulerService(redisQueueService, 3);
+        schedulerService.recalculateAllQueues();
+
+        for (Long doctorId : doctorIds) {
+            verify(redisQueueService).recalculateQueueForDoctor(doctorId);
+        }
+        assertTrue(maxRunning.get() <= 3);
+
+        Map<String, Object> stats = schedulerService.getRecalculationStats();
+        assertEquals(1L, stats.get("runs"));
+        assertEquals(20, stats.get("lastDoctors"));
+        assertEquals(0L, stats.get("failures"));
+    }
+
+    @Test
+    @DisplayName("Ошибка пересчёта одного врача не останавливает остальных")
+    void recalculateAllQueues_failureIsCounted() {
+        RedisQueueService redisQueueService = mock(RedisQueueService.class);
+        when(redisQueueService.getActiveDoctorIds()).thenReturn(Set.of(1L, 2L));
+        doThrow(new RuntimeException("redis down")).when(redisQueueService).recalculateQueueForDoctor(1L);
+
+        schedulerService = new QueueSchedulerService(redisQueueService, 2);
+        schedulerService.recalculateAllQueues();
+
+        verify(redisQueueService).recalculateQueueForDoctor(2L);
+        assertEquals(1L, schedulerService.getRecalculationStats().get("failures"));
+    }
+}
@@ -0,0 +1,183 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.model.Doctor;
+import pin122.kursovaya.model.Patient;
+import pin122.kursovaya.repository.AppointmentRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для QueueSnapshotService - обновление снимка очередей при изменении одного приёма
+ * Вместо Redis используется Hash снимка в памяти
+ */
+@DisplayName("QueueSnapshotService - тесты обновления снимка очередей")
+class QueueSnapshotServiceTest {
+
+    private static final Long DOCTOR_ID = 1L;
+    private static final Long PATIENT_ID = 7L;
+
+    // queue:snapshot:{date} - поле пациента -> записи
+    private final Map<Object, Object> snapshot = new HashMap<>();
+
+    private RedisQueueService redisQueueService;
+    private QueueSnapshotService service;
+    private OffsetDateTime now;
+    private long step;
+    private Doctor doctor;
+    private Patient patient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // Приёмы ещё не начались и приходятся на сегодняшний день
+        now = OffsetDateTime.now();
+        OffsetDateTime endOfDay = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
+        step = Math.max(1, Math.min(600, (endOfDay.toEpochSecond() - now.toEpochSecond()) / 4));
+
+        doctor = new Doctor();
+        doctor.setId(DOCTOR_ID);
+        patient = new Patient();
+        patient.setId(PATIENT_ID);
+
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(redis.opsForHash()).thenReturn(hashOps);
+        when(redis.hasKey(anyString())).thenReturn(true);
+        when(hashOps.get(anyString(), any())).thenAnswer(invocation -> snapshot.get(invocation.getArgument(1)));
+        doAnswer(invocation -> {
+            snapshot.put(invocation.getArgument(1), invocation.getArgument(2));
+            return null;
+        }).when(hashOps).put(anyString(), any(), any());
+        doAnswer(invocation -> snapshot.remove(invocation.getArgument(1)) != null ? 1L : 0L)
+                .when(hashOps).delete(anyString(), any());
+
+        redisQueueService = mock(RedisQueueService.class);
+        service = new QueueSnapshotService(redis, redisQueueService, mock(AppointmentRepository.class));
+    }
+
+    private Appointment appointment(long id, int steps, String status) {
+        Appointment appointment = new Appointment();
+        appointment.setId(id);
+        appointment.setDoctor(doctor);
+        appointment.setPatient(patient);
+        appointment.setStartTime(now.plusSeconds(step * steps));
+        appointment.setStatus(status);
+        return appointment;
+    }
+
+    // appointmentId записей пациента в снимке ("doctorId:appointmentId:startEpoch,...")
+    private List<Long> snapshotAppointmentIds() {
+        Object value = snapshot.get(String.valueOf(PATIENT_ID));
+        if (value == null) {
+            return List.of();
+        }
+        return Arrays.stream(value.toString().split(","))
+                .map(part -> Long.parseLong(part.split(":")[1]))
+                .sorted()
+                .toList();
+    }
+
+    @Test
+    @DisplayName("Два приёма к одному врачу: отмена одного сохраняет второй и ставит в очередь по нему")
+    void onAppointmentChanged_cancelOneOfTwo_keepsOther() {
+        Appointment first = appointment(10, 1, "scheduled");
+        Appointment second = appointment(11, 2, "scheduled");
+        service.onAppointmentChanged(first);
+        service.onAppointmentChanged(second);
+        assertEquals(List.of(10L, 11L), snapshotAppointmentIds());
+
+        first.setStatus("cancelled");
+        boolean stillQueued = service.onAppointmentChanged(first);
+
+        assertTrue(stillQueued);
+        assertEquals(List.of(11L), snapshotAppointmentIds());
+        verify(redisQueueService, atLeastOnce()).addToQueue(eq(PATIENT_ID), eq(DOCTOR_ID), eq(11L), any());
+
+        second.setStatus("cancelled");
+        assertFalse(service.onAppointmentChanged(second));
+        assertTrue(snapshotAppointmentIds().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Запись на более поздний приём не перезаписывает score ближайшего")
+    void onAppointmentChanged_laterBooking_keepsNearestScore() {
+        service.onAppointmentChanged(appointment(10, 1, "scheduled"));
+        clearInvocations(redisQueueService);
+
+        service.onAppointmentChanged(appointment(11, 2, "scheduled"));
+
+        assertEquals(List.of(10L, 11L), snapshotAppointmentIds());
+        verify(redisQueueService).addToQueue(eq(PATIENT_ID), eq(DOCTOR_ID), eq(10L), any());
+        verify(redisQueueService, never()).addToQueue(eq(PATIENT_ID), eq(DOCTOR_ID), eq(11L), any());
+    }
+
+    @Test
+    @DisplayName("Пока снимок строится, плановое обновление не ждёт построения и не читает БД повторно")
+    @SuppressWarnings("unchecked")
+    void refreshSnapshot_buildInProgress_returnsWithoutWaiting() throws Exception {
+        // Блокировка построения SET NX
+        AtomicBoolean locked = new AtomicBoolean();
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(valueOps);
+        when(redis.opsForHash()).thenReturn(mock(HashOperations.class));
+        when(valueOps.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenAnswer(invocation -> locked.compareAndSet(false, true));
+        when(redis.delete(anyString())).thenAnswer(invocation -> {
+            if (invocation.<String>getArgument(0).endsWith(":lock")) {
+                locked.set(false);
+            }
+            return true;
+        });
+
+        // Построение висит на чтении appointments дня
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AppointmentRepository appointmentRepository = mock(AppointmentRepository.class);
+        when(appointmentRepository.findByStartTimeBetween(any(), any())).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+        QueueSnapshotService building = new QueueSnapshotService(redis, redisQueueService, appointmentRepository);
+
+        Thread builder = new Thread(building::refreshSnapshot);
+        builder.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+        long started = System.currentTimeMillis();
+        building.refreshSnapshot();
+        assertTrue(System.currentTimeMillis() - started < 1000);
+        verify(appointmentRepository, times(1)).findByStartTimeBetween(any(), any());
+
+        release.countDown();
+        builder.join(5000);
+        assertFalse(locked.get());
+        assertEquals(1L, building.getStats().get("builds"));
+        verify(redisQueueService, never()).replaceQueue(anyLong(), any(), any());
+    }
+}
@@ -0,0 +1,82 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для QueueSubscriptionRegistry - учёт подписок на очереди врачей
+ */
+@DisplayName("QueueSubscriptionRegistry - тесты реестра подписок")
+class QueueSubscriptionRegistryTest {
+
+    private QueueSubscriptionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new QueueSubscriptionRegistry(null, "local");
+    }
+
+    private static Message<byte[]> frame(StompCommand command, String sessionId, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        registry.handleSubscribe(new SessionSubscribeEvent(this,
+                frame(StompCommand.SUBSCRIBE, sessionId, subscriptionId, destination)));
+    }
+
+    @Test
+    @DisplayName("Врач без подписчиков - вычисление очереди не нужно")
+    void hasSubscribers_noSubscriptions_false() {
+        subscribe("s1", "sub-0", "/user/queue/user");
+
+        assertFalse(registry.hasSubscribers(1L));
+    }
+
+    @Test
+    @DisplayName("Подписка учитывается до отписки последнего подписчика")
+    void subscribeAndUnsubscribe_tracksLastSubscriber() {
+        subscribe("s1", "sub-0", "/topic/queue/doctor/1");
+        subscribe("s2", "sub-0", "/topic/queue/doctor/1");
+        assertTrue(registry.hasSubscribers(1L));
+
+        registry.handleUnsubscribe(new SessionUnsubscribeEvent(this,
+                frame(StompCommand.UNSUBSCRIBE, "s1", "sub-0", null)));
+        assertTrue(registry.hasSubscribers(1L));
+
+        registry.handleUnsubscribe(new SessionUnsubscribeEvent(this,
+                frame(StompCommand.UNSUBSCRIBE, "s2", "sub-0", null)));
+        assertFalse(registry.hasSubscribers(1L));
+    }
+
+    @Test
+    @DisplayName("Отключение снимает все подписки сессии")
+    void disconnect_removesAllSessionSubscriptions() {
+        subscribe("s1", "sub-0", "/topic/queue/doctor/1");
+        subscribe("s1", "sub-1", "/topic/queue/doctor/2");
+
+        registry.handleDisconnect(new SessionDisconnectEvent(this,
+                frame(StompCommand.DISCONNECT, "s1", null, null), "s1", CloseStatus.NORMAL));
+
+        assertFalse(registry.hasSubscribers(1L));
+        assertFalse(registry.hasSubscribers(2L));
+        assertEquals(0, registry.getStats().get("subscriptions"));
+    }
+}
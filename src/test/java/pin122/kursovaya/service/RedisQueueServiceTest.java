@@ -0,0 +1,288 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.model.Doctor;
+import pin122.kursovaya.model.Patient;
+import pin122.kursovaya.repository.AppointmentRepository;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для RedisQueueService - инкрементальное удаление из очереди (queue-remove.lua)
+ * и откат на полный пересчёт (recalculateQueueForDoctor)
+ * Вместо Redis используется Sorted Set очереди в памяти: скрипты выполняют над ним те же команды
+ * (ZREM и проверку первого score - queue-remove.lua, подмену очереди целевой - rebuild-queue.lua),
+ * позиции читаются сервисом через ZRANK
+ */
+@DisplayName("RedisQueueService - тесты инкрементального удаления из очереди")
+class RedisQueueServiceTest {
+
+    private static final Long DOCTOR_ID = 1L;
+    private static final String QUEUE_KEY = "queue:doctor:1";
+
+    // queue:doctor:1 - участник -> score
+    private final Map<String, Double> queue = new HashMap<>();
+    // patient:queues:{patientId} - ключ -> ID врачей
+    private final Map<String, Set<String>> patientQueues = new HashMap<>();
+    // Участники, которых ZRANGE перед пересборкой не видит (добавлены после чтения очереди)
+    private final Set<String> addedAfterRead = new HashSet<>();
+    private final List<Appointment> appointments = new ArrayList<>();
+
+    private AppointmentRepository appointmentRepository;
+    private QueueBroadcastDispatcher broadcastDispatcher;
+    private DefaultRedisScript<Long> queueRemoveScript;
+    private RedisQueueService service;
+    private OffsetDateTime now;
+    private Doctor doctor;
+
+    @BeforeEach
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void setUp() {
+        now = OffsetDateTime.now();
+        doctor = new Doctor();
+        doctor.setId(DOCTOR_ID);
+
+        RedisTemplate<String, String> redis = mock(RedisTemplate.class);
+        DefaultRedisScript<List> rebuildQueueScript = new DefaultRedisScript<>();
+        queueRemoveScript = new DefaultRedisScript<>();
+
+        // queue-remove.lua: ZREM участника, -1 если score первого в очереди (ZRANGE 0 0) - позиция старого формата
+        doAnswer(invocation -> {
+            String member = invocation.getArgument(2);
+            double minScore = Double.parseDouble(invocation.getArgument(3));
+            long removed = queue.remove(member) != null ? 1 : 0;
+            List<String> order = order();
+            boolean legacy = !order.isEmpty() && queue.get(order.get(0)) < minScore;
+            return legacy ? -1L : removed;
+        }).when(redis).execute(same(queueRemoveScript), anyList(), any(Object[].class));
+
+        // rebuild-queue.lua: очередь и обратные индексы заменяются целевыми
+        // (KEYS[7..]: обратные индексы; ARGV: doctorId, N, N участников, затем score, member, appointmentId)
+        doAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            Object[] args = invocation.getArguments();
+            int declaredCount = Integer.parseInt((String) args[3]);
+            Map<String, String> declaredKeys = new HashMap<>();
+            for (int k = 0; k < declaredCount; k++) {
+                declaredKeys.put((String) args[4 + k], keys.get(6 + k));
+            }
+            Map<String, Double> target = new HashMap<>();
+            for (int i = 4 + declaredCount; i + 2 < args.length; i += 3) {
+                target.put((String) args[i + 1], Double.parseDouble((String) args[i]));
+            }
+
+            List<String> departed = new ArrayList<>(queue.keySet());
+            departed.removeAll(target.keySet());
+            List<String> missing = departed.stream().filter(member -> !declaredKeys.containsKey(member)).toList();
+            if (!missing.isEmpty()) {
+                return missing;
+            }
+            departed.forEach(member -> patientQueues.getOrDefault(declaredKeys.get(member), new HashSet<>()).remove("1"));
+            target.keySet().forEach(member ->
+                    patientQueues.computeIfAbsent(declaredKeys.get(member), key -> new HashSet<>()).add("1"));
+            queue.clear();
+            queue.putAll(target);
+            return List.of();
+        }).when(redis).execute(same(rebuildQueueScript), anyList(), any(Object[].class));
+
+        ZSetOperations<String, String> zSetOps = mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zSetOps);
+        when(zSetOps.range(QUEUE_KEY, 0, -1)).thenAnswer(invocation -> {
+            Set<String> members = new LinkedHashSet<>(order());
+            members.removeAll(addedAfterRead);
+            return members;
+        });
+        when(zSetOps.rank(eq(QUEUE_KEY), anyString())).thenAnswer(invocation -> {
+            List<String> order = order();
+            int rank = order.indexOf(invocation.<String>getArgument(1));
+            return rank >= 0 ? (long) rank : null;
+        });
+
+        appointmentRepository = mock(AppointmentRepository.class);
+        broadcastDispatcher = mock(QueueBroadcastDispatcher.class);
+        when(appointmentRepository.findByDoctorIdAndDate(eq(DOCTOR_ID), any(), any()))
+                .thenAnswer(invocation -> List.copyOf(appointments));
+
+        service = new RedisQueueService(redis, rebuildQueueScript, new DefaultRedisScript<>(), queueRemoveScript,
+                new DefaultRedisScript<>(), new DefaultRedisScript<>(), appointmentRepository,
+                mock(QueueMessageRelay.class), broadcastDispatcher,
+                mock(QueueSubscriptionRegistry.class));
+    }
+
+    private Appointment appointment(long id, long patientId, int minutesFromNow) {
+        Patient patient = new Patient();
+        patient.setId(patientId);
+
+        Appointment appointment = new Appointment();
+        appointment.setId(id);
+        appointment.setDoctor(doctor);
+        appointment.setPatient(patient);
+        appointment.setStartTime(now.plusMinutes(minutesFromNow));
+        appointment.setEndTime(now.plusMinutes(minutesFromNow + 30));
+        appointment.setStatus("scheduled");
+        return appointment;
+    }
+
+    // Участники в порядке ZRANGE (по score, при равенстве - по имени)
+    private List<String> order() {
+        return queue.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    // Позиции пациентов, как их видит клиент (ZRANK через сервис)
+    private Map<Long, Integer> positions() {
+        Map<Long, Integer> positions = new LinkedHashMap<>();
+        appointments.forEach(a -> {
+            Integer position = service.getPatientPosition(a.getPatient().getId(), DOCTOR_ID);
+            if (position != null) {
+                positions.put(a.getPatient().getId(), position);
+            }
+        });
+        return positions;
+    }
+
+    @Test
+    @DisplayName("Серия отмен: ZREM без обращения к БД даёт ту же очередь, что и полный пересчёт")
+    void removeFromQueueIncremental_matchesFullRebuild() {
+        Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            appointments.add(appointment(i, 100 + i, 10 + random.nextInt(600)));
+        }
+        service.recalculateQueueForDoctor(DOCTOR_ID);
+        assertEquals(40, queue.size());
+
+        int fullRebuilds = 1;
+        while (!queue.isEmpty()) {
+            List<String> members = order();
+            String member = members.get(random.nextInt(members.size()));
+            Long patientId = Long.parseLong(member.substring(QueueDeltaEngine.MEMBER_PREFIX.length()));
+            appointments.stream()
+                    .filter(a -> a.getPatient().getId().equals(patientId))
+                    .forEach(a -> a.setStatus("cancelled"));
+
+            service.removeFromQueueIncremental(patientId, DOCTOR_ID);
+            // Инкрементальный путь не читает appointments из БД
+            verify(appointmentRepository, times(fullRebuilds)).findByDoctorIdAndDate(eq(DOCTOR_ID), any(), any());
+            Map<String, Double> incremental = new HashMap<>(queue);
+            Map<Long, Integer> incrementalPositions = positions();
+
+            service.recalculateQueueForDoctor(DOCTOR_ID);
+            fullRebuilds++;
+
+            assertEquals(queue, incremental);
+            assertEquals(positions(), incrementalPositions);
+        }
+    }
+
+    @Test
+    @DisplayName("Очередь старого формата: после ZREM выполняется полный пересчёт")
+    void removeFromQueueIncremental_legacyQueue_fallsBackToFullRebuild() {
+        appointments.add(appointment(1, 10, 30));
+        appointments.add(appointment(2, 20, 60));
+        appointments.add(appointment(3, 30, 90));
+        // Целочисленные позиции вместо времени начала приёма
+        queue.put("patient:10", 0.0);
+        queue.put("patient:20", 1.0);
+        queue.put("patient:30", 2.0);
+        appointments.get(0).setStatus("completed");
+
+        service.removeFromQueueIncremental(10L, DOCTOR_ID);
+
+        verify(appointmentRepository).findByDoctorIdAndDate(eq(DOCTOR_ID), any(), any());
+        assertEquals(Map.of(
+                "patient:20", QueueDeltaEngine.score(appointments.get(1).getStartTime()),
+                "patient:30", QueueDeltaEngine.score(appointments.get(2).getStartTime())), queue);
+        assertEquals(0, service.getPatientPosition(20L, DOCTOR_ID));
+    }
+
+    @Test
+    @DisplayName("Удалён последний участник старого формата: первым стал участник нового формата, пересчёта нет")
+    void removeFromQueueIncremental_lastLegacyMemberRemoved_noFullRebuild() {
+        appointments.add(appointment(1, 10, 30));
+        appointments.add(appointment(2, 20, 60));
+        queue.put("patient:10", 0.0);
+        queue.put("patient:20", QueueDeltaEngine.score(appointments.get(1).getStartTime()));
+        appointments.get(0).setStatus("completed");
+
+        service.removeFromQueueIncremental(10L, DOCTOR_ID);
+
+        verify(appointmentRepository, never()).findByDoctorIdAndDate(any(), any(), any());
+        assertEquals(List.of("patient:20"), order());
+    }
+
+    @Test
+    @DisplayName("Пациента нет в очереди (удалён при отключении): без пересчёта и рассылки")
+    void removeFromQueueIncremental_missingMember_isNoOp() {
+        appointments.add(appointment(1, 10, 30));
+        appointments.add(appointment(2, 20, 60));
+        service.recalculateQueueForDoctor(DOCTOR_ID);
+        // Пациент 10 отключился и удалён из очереди
+        queue.remove("patient:10");
+        clearInvocations(appointmentRepository, broadcastDispatcher);
+
+        appointments.get(0).setStatus("completed");
+        service.removeFromQueueIncremental(10L, DOCTOR_ID);
+
+        verify(appointmentRepository, never()).findByDoctorIdAndDate(any(), any(), any());
+        verify(broadcastDispatcher, never()).schedule(any(), any());
+        assertEquals(List.of("patient:20"), order());
+    }
+
+    @Test
+    @DisplayName("Пересборка обновляет обратный индекс пациентов тем же скриптом, что и очередь")
+    void recalculateQueueForDoctor_updatesPatientQueues() {
+        appointments.add(appointment(1, 10, 30));
+        appointments.add(appointment(2, 20, 60));
+        service.recalculateQueueForDoctor(DOCTOR_ID);
+        assertEquals(Set.of("1"), patientQueues.get("patient:queues:10"));
+        assertEquals(Set.of("1"), patientQueues.get("patient:queues:20"));
+
+        appointments.get(0).setStatus("cancelled");
+        service.recalculateQueueForDoctor(DOCTOR_ID);
+
+        assertEquals(List.of("patient:20"), order());
+        assertTrue(patientQueues.get("patient:queues:10").isEmpty());
+        assertEquals(Set.of("1"), patientQueues.get("patient:queues:20"));
+    }
+
+    @Test
+    @DisplayName("Участник, добавленный после чтения очереди: скрипт повторяется с его обратным индексом")
+    void recalculateQueueForDoctor_memberAddedDuringRebuild_retriesWithItsKey() {
+        appointments.add(appointment(1, 10, 30));
+        // Другой узел добавил пациента 99 (addToQueue без блокировки врача) после ZRANGE пересборки
+        queue.put("patient:99", QueueDeltaEngine.score(now.plusMinutes(45)));
+        patientQueues.put("patient:queues:99", new HashSet<>(Set.of("1")));
+        addedAfterRead.add("patient:99");
+
+        service.recalculateQueueForDoctor(DOCTOR_ID);
+
+        assertEquals(List.of("patient:10"), order());
+        assertTrue(patientQueues.get("patient:queues:99").isEmpty());
+        assertEquals(Set.of("1"), patientQueues.get("patient:queues:10"));
+    }
+}
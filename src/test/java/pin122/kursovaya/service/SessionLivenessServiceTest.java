@@ -0,0 +1,35 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pin122.kursovaya.config.WebSocketEventListener;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для SessionLivenessService - продление и очистка сессий в Redis
+ */
+@DisplayName("SessionLivenessService - тесты продления сессий")
+class SessionLivenessServiceTest {
+
+    @Test
+    @DisplayName("Продлеваются все сессии узла, в том числе клиентов без heartbeat")
+    void refreshAliveSessions_touchesEveryLocalSession() {
+        RedisQueueService redisQueueService = mock(RedisQueueService.class);
+        WebSocketEventListener listener = mock(WebSocketEventListener.class);
+        when(listener.getSessionMappings()).thenReturn(Map.of("stomp-1", "redis-1", "stomp-2", "redis-2"));
+
+        SessionLivenessService service = new SessionLivenessService(redisQueueService, listener);
+        service.refreshAliveSessions();
+
+        verify(redisQueueService).touchSessions(argThat(ids ->
+                ids.size() == 2 && ids.containsAll(List.of("redis-1", "redis-2"))));
+        verify(redisQueueService, never()).deleteSession(anyString());
+        assertEquals(2L, service.getStats().get("touched"));
+    }
+}
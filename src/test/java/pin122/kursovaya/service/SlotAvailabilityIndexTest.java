@@ -0,0 +1,206 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pin122.kursovaya.dto.SlotAvailabilityDto;
+import pin122.kursovaya.model.Appointment;
+import pin122.kursovaya.model.Doctor;
+import pin122.kursovaya.model.Patient;
+import pin122.kursovaya.model.Schedule;
+import pin122.kursovaya.repository.AppointmentRepository;
+import pin122.kursovaya.repository.ScheduleRepository;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Тесты для SlotAvailabilityIndex - битовая маска свободных слотов врача на день
+ * Изменения индекса копятся в pending и применяются commit() - как после фиксации транзакции
+ */
+@DisplayName("SlotAvailabilityIndex - индекс свободных слотов")
+class SlotAvailabilityIndexTest {
+
+    private static final LocalDate DATE = LocalDate.now().plusDays(1);
+
+    private ScheduleRepository scheduleRepository;
+    private AppointmentRepository appointmentRepository;
+    private SlotAvailabilityIndex index;
+    private Schedule schedule;
+    private final List<SlotAvailabilityIndex.IndexChange> pending = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        scheduleRepository = mock(ScheduleRepository.class);
+        appointmentRepository = mock(AppointmentRepository.class);
+        index = new SlotAvailabilityIndex(scheduleRepository, appointmentRepository, 600000,
+                event -> pending.add((SlotAvailabilityIndex.IndexChange) event));
+
+        Doctor doctor = new Doctor();
+        doctor.setId(5L);
+        schedule = new Schedule();
+        schedule.setId(10L);
+        schedule.setDoctor(doctor);
+        schedule.setDateAt(DATE);
+        schedule.setStartTime(LocalTime.of(9, 0));
+        schedule.setEndTime(LocalTime.of(10, 0));
+        schedule.setSlotDurationMinutes(15);
+
+        List<Object[]> layout = new ArrayList<>();
+        layout.add(new Object[]{10L, LocalTime.of(9, 0), LocalTime.of(10, 0), 15, null});
+        when(scheduleRepository.findSlotLayout(5L, DATE)).thenReturn(layout);
+
+        List<Object[]> states = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            states.add(new Object[]{100L + i, 10L, DATE.atTime(9, 15 * i).atOffset(ZoneOffset.UTC), i == 1});
+        }
+        when(appointmentRepository.findSlotStates(any())).thenReturn(states);
+    }
+
+    private void commit() {
+        pending.forEach(index::onCommitted);
+        pending.clear();
+    }
+
+    private static BitSet free(SlotAvailabilityDto.ScheduleSlotsDto slots) {
+        return BitSet.valueOf(Base64.getDecoder().decode(slots.getFreeBitmap()));
+    }
+
+    private Appointment slot(long id, int offset, Patient patient) {
+        Appointment appointment = new Appointment();
+        appointment.setId(id);
+        appointment.setSchedule(schedule);
+        appointment.setDoctor(schedule.getDoctor());
+        appointment.setPatient(patient);
+        appointment.setStartTime(DATE.atTime(9, 15 * offset).atOffset(ZoneOffset.UTC));
+        return appointment;
+    }
+
+    @Test
+    @DisplayName("День читается из БД один раз, занятые слоты не попадают в свободные")
+    void getAvailability_loadsDayOnce() {
+        SlotAvailabilityDto first = index.getAvailability(5L, DATE);
+        index.getAvailability(5L, DATE);
+
+        SlotAvailabilityDto.ScheduleSlotsDto slots = first.getSchedules().get(0);
+        assertEquals(4, slots.getSlotCount());
+        assertEquals(3, slots.getFreeCount());
+        assertFalse(free(slots).get(1));
+        assertArrayEquals(new long[]{100L, 101L, 102L, 103L}, slots.getAppointmentIds());
+        verify(scheduleRepository, times(1)).findSlotLayout(5L, DATE);
+        verify(appointmentRepository, times(1)).findSlotStates(any());
+    }
+
+    @Test
+    @DisplayName("Запись и освобождение слота обновляют маску без обращения к БД")
+    void onAppointmentChanged_updatesBitmap() {
+        index.getAvailability(5L, DATE);
+
+        index.onAppointmentChanged(slot(102L, 2, new Patient()));
+        commit();
+        SlotAvailabilityDto.ScheduleSlotsDto slots = index.getAvailability(5L, DATE).getSchedules().get(0);
+        assertEquals(2, slots.getFreeCount());
+        assertFalse(free(slots).get(2));
+
+        index.onAppointmentChanged(slot(101L, 1, null));
+        commit();
+        slots = index.getAvailability(5L, DATE).getSchedules().get(0);
+        assertEquals(3, slots.getFreeCount());
+        assertTrue(free(slots).get(1));
+
+        verify(appointmentRepository, times(1)).findSlotStates(any());
+    }
+
+    @Test
+    @DisplayName("Созданное расписание добавляется в загруженный день")
+    void onScheduleCreated_addsSlots() {
+        index.getAvailability(5L, DATE);
+
+        Schedule evening = new Schedule();
+        evening.setId(11L);
+        evening.setDoctor(schedule.getDoctor());
+        evening.setDateAt(DATE);
+        evening.setStartTime(LocalTime.of(18, 0));
+        evening.setEndTime(LocalTime.of(18, 30));
+        evening.setSlotDurationMinutes(30);
+        Appointment appointment = new Appointment();
+        appointment.setId(200L);
+        appointment.setSchedule(evening);
+        appointment.setStartTime(DATE.atTime(18, 0).atOffset(ZoneOffset.UTC));
+
+        index.onScheduleCreated(evening, List.of(appointment));
+        commit();
+
+        List<SlotAvailabilityDto.ScheduleSlotsDto> schedules = index.getAvailability(5L, DATE).getSchedules();
+        assertEquals(2, schedules.size());
+        assertEquals(1, schedules.get(1).getFreeCount());
+        assertArrayEquals(new long[]{200L}, schedules.get(1).getAppointmentIds());
+    }
+
+    @Test
+    @DisplayName("Сброс дня приводит к повторному чтению из БД")
+    void invalidate_reloadsDay() {
+        index.getAvailability(5L, DATE);
+        index.invalidate(5L, DATE);
+        commit();
+        index.getAvailability(5L, DATE);
+
+        verify(scheduleRepository, times(2)).findSlotLayout(5L, DATE);
+    }
+
+    @Test
+    @DisplayName("Откат транзакции: изменение не применяется к индексу")
+    void onAppointmentChanged_rolledBack_leavesBitmap() {
+        index.getAvailability(5L, DATE);
+
+        index.onAppointmentChanged(slot(102L, 2, new Patient()));
+        pending.clear();
+
+        SlotAvailabilityDto.ScheduleSlotsDto slots = index.getAvailability(5L, DATE).getSchedules().get(0);
+        assertEquals(3, slots.getFreeCount());
+        assertTrue(free(slots).get(2));
+    }
+
+    @Test
+    @DisplayName("Изменение, зафиксированное во время загрузки дня, не затирается загруженным днём")
+    void onCommitted_duringLoad_appliedToLoadedDay() throws InterruptedException {
+        CountDownLatch loading = new CountDownLatch(1);
+        List<Object[]> staleStates = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            staleStates.add(new Object[]{100L + i, 10L, DATE.atTime(9, 15 * i).atOffset(ZoneOffset.UTC), false});
+        }
+        when(appointmentRepository.findSlotStates(any())).thenAnswer(invocation -> {
+            loading.countDown();
+            // Пока день читается, другая транзакция занимает слот 2
+            Thread.sleep(200);
+            return staleStates;
+        });
+        Thread writer = new Thread(() -> {
+            try {
+                loading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            index.onCommitted(new SlotAvailabilityIndex.SlotChanged(5L, DATE, 10L, LocalTime.of(9, 30), 102L, true));
+        });
+        writer.start();
+
+        index.getAvailability(5L, DATE);
+        writer.join(5000);
+
+        SlotAvailabilityDto.ScheduleSlotsDto slots = index.getAvailability(5L, DATE).getSchedules().get(0);
+        assertFalse(free(slots).get(2));
+        assertEquals(3, slots.getFreeCount());
+        verify(appointmentRepository, times(1)).findSlotStates(any());
+    }
+}
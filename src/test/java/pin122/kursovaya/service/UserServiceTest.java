@@ -9,9 +9,11 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import pin122.kursovaya.dto.CreateUserDto;
 import pin122.kursovaya.dto.UserDto;
+import pin122.kursovaya.model.Doctor;
 import pin122.kursovaya.model.Role;
 import pin122.kursovaya.model.User;
 import pin122.kursovaya.repository.*;
+import pin122.kursovaya.security.TokenRevocationService;
 
 import java.time.OffsetDateTime;
 import java.util.Arrays;
@@ -44,6 +46,12 @@ class UserServiceTest {
     @Mock
     private QueueEntryRepository queueEntryRepository;
 
+    @Mock
+    private TokenRevocationService tokenRevocationService;
+
+    @Mock
+    private DoctorPhotoService doctorPhotoService;
+
     @InjectMocks
     private UserService userService;
 
@@ -183,6 +191,51 @@ class UserServiceTest {
         userService.deleteUser(1L);
 
         verify(userRepository, times(1)).deleteById(1L);
+        verify(doctorPhotoService, never()).deletePhoto(any());
+    }
+
+    @Test
+    @DisplayName("Удаление пользователя-врача - фото врача удаляется до пользователя")
+    void deleteUser_doctor_deletesPhotoFirst() {
+        Doctor doctor = new Doctor();
+        doctor.setId(5L);
+        testUser.setDoctor(doctor);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+
+        userService.deleteUser(1L);
+
+        var order = inOrder(doctorPhotoService, userRepository);
+        order.verify(doctorPhotoService).deletePhoto(doctor);
+        order.verify(userRepository).deleteById(1L);
+    }
+
+    @Test
+    @DisplayName("Деактивация пользователя - токены пользователя отзываются")
+    void updateUser_deactivated_revokesTokens() {
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        UserDto update = new UserDto(testUser);
+        update.setActive(false);
+
+        Optional<User> result = userService.updateUser(1L, update);
+
+        assertTrue(result.isPresent());
+        assertFalse(result.get().isActive());
+        verify(tokenRevocationService).revokeUser(1L);
+    }
+
+    @Test
+    @DisplayName("Обновление пользователя без деактивации и смены email - токены не отзываются")
+    void updateUser_nameChanged_keepsTokens() {
+        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        UserDto update = new UserDto(testUser);
+        update.setFirstName("Пётр");
+
+        userService.updateUser(1L, update);
+
+        assertEquals("Пётр", testUser.getFirstName());
+        verify(tokenRevocationService, never()).revokeUser(any());
     }
 
     @Test
@@ -0,0 +1,87 @@
+package pin122.kursovaya.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для WebSocketConnectExecutor - инициализация подключений вне потоков STOMP
+ */
+@DisplayName("WebSocketConnectExecutor - тесты инициализации подключений")
+class WebSocketConnectExecutorTest {
+
+    private WebSocketConnectExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Одновременно выполняется не больше заданного числа инициализаций")
+    void submit_boundedParallelism() throws InterruptedException {
+        executor = new WebSocketConnectExecutor(2, 100);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(10);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            }));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    @DisplayName("Сверх лимита ожидающих подключение не принимается")
+    void submit_rejectsWhenPendingLimitReached() throws InterruptedException {
+        executor = new WebSocketConnectExecutor(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        assertTrue(executor.submit(blocked));
+        assertTrue(executor.submit(blocked));
+        assertFalse(executor.submit(blocked));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1L, executor.getStats().get("rejected"));
+    }
+
+    @Test
+    @DisplayName("Задержка до первого снимка попадает в метрики")
+    void recordFirstSnapshot_updatesLatencyStats() {
+        executor = new WebSocketConnectExecutor(1, 1);
+
+        executor.recordFirstSnapshot(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(30));
+
+        assertEquals(1L, executor.getStats().get("firstSnapshots"));
+        assertTrue((Double) executor.getStats().get("firstSnapshotMaxMs") >= 30.0);
+    }
+}
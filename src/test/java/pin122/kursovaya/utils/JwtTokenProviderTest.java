@@ -1,5 +1,6 @@
 package pin122.kursovaya.utils;
 
+import io.jsonwebtoken.Claims;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -163,4 +164,31 @@ class JwtTokenProviderTest {
         
         assertFalse(isValid, "Истёкший токен не должен быть валидным");
     }
+
+    @Test
+    @DisplayName("Разбор токена за один проход - валидный токен")
+    void parseValidClaims_validToken_returnsClaims() {
+        String token = jwtTokenProvider.generateToken("patient@clinic.com");
+
+        Claims claims = jwtTokenProvider.parseValidClaims(token);
+
+        assertNotNull(claims);
+        assertEquals("patient@clinic.com", claims.getSubject());
+        assertTrue(claims.getExpiration().after(new Date()));
+    }
+
+    @Test
+    @DisplayName("Разбор токена за один проход - истёкший, подделанный и некорректный токены")
+    void parseValidClaims_invalidTokens_returnNull() {
+        ReflectionTestUtils.setField(jwtTokenProvider, "expiration", -3600000L);
+        String expiredToken = jwtTokenProvider.generateToken("expired@test.com");
+        ReflectionTestUtils.setField(jwtTokenProvider, "expiration", 3600000L);
+        String token = jwtTokenProvider.generateToken("user@test.com");
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertNull(jwtTokenProvider.parseValidClaims(expiredToken));
+        assertNull(jwtTokenProvider.parseValidClaims(tampered));
+        assertNull(jwtTokenProvider.parseValidClaims("invalid.token.here"));
+        assertNull(jwtTokenProvider.parseValidClaims(""));
+    }
 }
@@ -0,0 +1,89 @@
+package pin122.kursovaya.utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Бенчмарк проверки JWT на один запрос (HTTP фильтр или STOMP CONNECT):
+ * прежняя цепочка validateToken -> extractUsername -> validateToken(token, userDetails)
+ * (четыре разбора токена: validateToken(token, userDetails) разбирает его дважды;
+ * ключ и парсер создаются на каждый вызов) против parseValidClaims
+ *
+ * Запускается отдельно: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+@DisplayName("JwtTokenProvider - бенчмарк проверки токена на запрос")
+class JwtValidationBenchmarkTest {
+
+    private static final String SECRET = "mySecretKeyForJWTTokenGenerationAndValidationMustBeAtLeast256BitsLong";
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    /**
+     * Прежний путь проверки: четыре полных разбора с проверкой подписи
+     */
+    private static String legacyAuthenticate(String token) {
+        Date expiration = legacyClaims(token).getExpiration();
+        if (expiration.before(new Date())) {
+            return null;
+        }
+        String username = legacyClaims(token).getSubject();
+        boolean valid = username.equals(legacyClaims(token).getSubject())
+                && !legacyClaims(token).getExpiration().before(new Date());
+        return valid ? username : null;
+    }
+
+    private static Claims legacyClaims(String token) {
+        SecretKey key = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+        return Jwts.parser()
+                .verifyWith(key)
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+    }
+
+    @Test
+    @DisplayName("Бенчмарк: CPU на проверку токена до и после")
+    void authenticationCpuPerRequest() {
+        JwtTokenProvider jwtTokenProvider = new JwtTokenProvider();
+        ReflectionTestUtils.setField(jwtTokenProvider, "secret", SECRET);
+        ReflectionTestUtils.setField(jwtTokenProvider, "expiration", 3600000L);
+        String token = jwtTokenProvider.generateToken("patient@clinic.com");
+
+        for (int i = 0; i < WARMUP; i++) {
+            legacyAuthenticate(token);
+            jwtTokenProvider.parseValidClaims(token);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long started = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(legacyAuthenticate(token));
+        }
+        long legacyNs = (threads.getCurrentThreadCpuTime() - started) / ITERATIONS;
+
+        started = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNotNull(jwtTokenProvider.parseValidClaims(token).getSubject());
+        }
+        long parseOnceNs = (threads.getCurrentThreadCpuTime() - started) / ITERATIONS;
+
+        System.out.println("DEBUG Benchmark: проверка JWT на запрос (CPU): прежний путь " + legacyNs +
+                " нс, parseValidClaims " + parseOnceNs + " нс");
+        assertTrue(parseOnceNs < legacyNs);
+    }
+}
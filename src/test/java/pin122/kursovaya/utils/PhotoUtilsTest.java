@@ -0,0 +1,68 @@
+package pin122.kursovaya.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для PhotoUtils - хэш, тип и миниатюры фото врачей
+ */
+@DisplayName("PhotoUtils - тесты утилит фото")
+class PhotoUtilsTest {
+
+    private static byte[] png(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, 0xFF000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Миниатюра - квадратный JPEG заданного размера")
+    void thumbnail_scalesToSquareJpeg() throws Exception {
+        byte[] original = png(1200, 800);
+
+        byte[] thumbnail = PhotoUtils.thumbnail(original, PhotoUtils.THUMBNAIL_MEDIUM);
+
+        assertNotNull(thumbnail);
+        assertEquals("image/jpeg", PhotoUtils.detectContentType(thumbnail));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(256, image.getWidth());
+        assertEquals(256, image.getHeight());
+        assertTrue(thumbnail.length < original.length);
+    }
+
+    @Test
+    @DisplayName("Маленькое изображение не увеличивается, неизвестный формат - без миниатюры")
+    void thumbnail_smallOrUnknownImage() throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+                PhotoUtils.thumbnail(png(40, 30), PhotoUtils.THUMBNAIL_SMALL)));
+        assertEquals(30, image.getWidth());
+        assertEquals(30, image.getHeight());
+
+        assertNull(PhotoUtils.thumbnail(new byte[]{1, 2, 3, 4, 5}, PhotoUtils.THUMBNAIL_SMALL));
+    }
+
+    @Test
+    @DisplayName("URL фото содержит версию по хэшу, без фото URL нет")
+    void photoUrl_versionedByHash() {
+        String hash = PhotoUtils.hash(new byte[]{1, 2, 3});
+
+        assertEquals(64, hash.length());
+        assertEquals("/api/doctors/7/photo?v=" + hash.substring(0, 16), PhotoUtils.photoUrl(7L, hash));
+        assertEquals("/api/doctors/7/photo?v=" + hash.substring(0, 16) + "&size=64", PhotoUtils.photoUrl(7L, hash, 64));
+        assertNull(PhotoUtils.photoUrl(7L, null));
+        assertNull(PhotoUtils.hash(new byte[0]));
+    }
+}